@@ -18,6 +18,7 @@
 package org.apache.geronimo.daytrader.javaee6.accounts.controller;
 
 import java.math.BigDecimal;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
@@ -241,18 +242,19 @@ public class AccountsController {
     //
 
     /**
-     * REST call to register the specified number of users.
+     * REST call to register the specified number of users, with the sample data
+     * generated from seed when one is given.
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
     public Response tradeBuildDB(@QueryParam(value = "limit") Integer limit,
-            @QueryParam(value = "offset") Integer offset) {
+            @QueryParam(value = "offset") Integer offset, @QueryParam(value = "seed") Long seed) {
         Log.traceEnter("AccountsController.tradeBuildDB()");
         Boolean result = false;
         try {
             // Register the sample users
-            result = accountsService.tradeBuildDB(limit.intValue(), offset.intValue());
+            result = accountsService.tradeBuildDB(limit.intValue(), offset.intValue(), seed);
             Log.traceExit("AccountsController.tradeBuildDB()");
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(result).build();
         } catch (Throwable t) {
@@ -304,6 +306,89 @@ public class AccountsController {
         }
     }
 
+    /**
+     * REST call to get the number of database connections in use, their peak, and
+     * the time requests waited for one
+     *
+     */
+    @GET
+    @Path("/admin/connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getConnectionStatistics() {
+        Log.traceEnter("AccountsController.getConnectionStatistics()");
+
+        try {
+            Map<String, Object> stats = accountsService.getConnectionStatistics();
+            Log.traceExit("AccountsController.getConnectionStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("AccountsController.getConnectionStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the hit and miss counters of the balance replica
+     *
+     */
+    @GET
+    @Path("/admin/balanceReplica")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getBalanceReplicaStatistics() {
+        Log.traceEnter("AccountsController.getBalanceReplicaStatistics()");
+
+        try {
+            Map<String, Object> stats = accountsService.getBalanceReplicaStatistics();
+            Log.traceExit("AccountsController.getBalanceReplicaStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("AccountsController.getBalanceReplicaStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of registrations delivered to portfolios, their
+     * lag, and the registrations still waiting in the outbox
+     *
+     */
+    @GET
+    @Path("/admin/registrationRelay")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRegistrationRelayStatistics() {
+        Log.traceEnter("AccountsController.getRegistrationRelayStatistics()");
+
+        try {
+            Map<String, Object> stats = accountsService.getRegistrationRelayStatistics();
+            Log.traceExit("AccountsController.getRegistrationRelayStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("AccountsController.getRegistrationRelayStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the run statistics counters and how far off the last
+     * reconciliations found them
+     *
+     */
+    @GET
+    @Path("/admin/runStats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRunStatsStatistics() {
+        Log.traceEnter("AccountsController.getRunStatsStatistics()");
+
+        try {
+            Map<String, Object> stats = accountsService.getRunStatsStatistics();
+            Log.traceExit("AccountsController.getRunStatsStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("AccountsController.getRunStatsStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     //
     // Private helper functions
     //
@@ -33,7 +33,10 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.naming.InitialContext;
@@ -43,11 +46,16 @@ import javax.ws.rs.NotAuthorizedException;
 
 // - Each microservice has its own log
 import org.apache.geronimo.daytrader.javaee6.accounts.utils.Log;
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.direct.BatchWriter;
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
 import org.apache.geronimo.daytrader.javaee6.core.direct.KeySequenceDirect;
+import org.apache.geronimo.daytrader.javaee6.core.direct.SampleData;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountProfileDataBean;
 import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
 /**
@@ -66,6 +74,18 @@ public class AccountsService {
     @RestClient
     PortfoliosRemoteCallService portfoliosService;
 
+    // - Balances come from portfolios; the replica saves the remote call per read
+    @Inject
+    BalanceReplica balanceReplica;
+
+    // - Delivers registrations left in the outbox to portfolios, when enabled
+    @Inject
+    RegistrationRelay registrationRelay;
+
+    // - Keeps the run statistics in memory for resetTrade, when enabled
+    @Inject
+    RunStatsCounters runStats;
+
     // - Each microservice has their own private database (datasource)
     // private static String dsName = TradeConfig.ACCOUNTS_DATASOURCE;
 
@@ -73,6 +93,26 @@ public class AccountsService {
     @Inject
     DataSource datasource;
 
+    // - Bounds and measures the connections in use at the same time (0 = measure only)
+    @ConfigProperty(name = "daytrader.accounts.db.max-concurrency", defaultValue = "0")
+    int dbMaxConcurrency;
+
+    @ConfigProperty(name = "daytrader.accounts.db.acquire-timeout-millis", defaultValue = "5000")
+    long dbAcquireTimeoutMillis;
+
+    private ConcurrencyLimiter dbLimiter;
+
+    // - tradeBuildDB writes its rows in JDBC batches of batch-size, committing every commit-interval rows
+    @ConfigProperty(name = "daytrader.accounts.build.batch-size", defaultValue = "500")
+    int buildBatchSize;
+
+    @ConfigProperty(name = "daytrader.accounts.build.commit-interval", defaultValue = "10000")
+    int buildCommitInterval;
+
+    // - Number of account ids reserved from keygenejb at a time
+    @ConfigProperty(name = "daytrader.accounts.keygen.account.block-size", defaultValue = "1000")
+    int accountBlockSize;
+
     InitialContext context;
 
     /**
@@ -83,6 +123,27 @@ public class AccountsService {
             init();
     }
 
+    @PostConstruct
+    void configure() {
+        dbLimiter = new ConcurrencyLimiter("accounts", dbMaxConcurrency, dbAcquireTimeoutMillis);
+        KeySequenceDirect.setBlockSize("account", accountBlockSize);
+    }
+
+    /**
+     * Returns the limit and the current and peak number of connections in use. The
+     * peak is the pool size needed to serve the load seen so far without waiting.
+     */
+    public Map<String, Object> getConnectionStatistics() {
+        return dbLimiter.getStatistics();
+    }
+
+    /**
+     * Returns the hit and miss counters of the balance replica.
+     */
+    public Map<String, Object> getBalanceReplicaStatistics() {
+        return balanceReplica.getStatistics();
+    }
+
     /**
      *
      * AccountsService#tradeBuildDB(int,int)
@@ -91,36 +152,77 @@ public class AccountsService {
      *
      */
     public Boolean tradeBuildDB(int limit, int offset) throws Exception {
+        return tradeBuildDB(limit, offset, null);
+    }
+
+    /**
+     * Registers the users uid:offset to uid:(offset + limit - 1). With a seed the
+     * users get the same data whichever ranges they are built in, so ranges past
+     * the first may be built at the same time; the range at offset 0 empties the
+     * tables and must be built on its own.
+     *
+     * @param seed the seed of the sample data, or null for random data
+     */
+    public Boolean tradeBuildDB(int limit, int offset, Long seed) throws Exception {
         if (offset == 0)
             resetTrade(true); // delete any rows from db before re-populating
 
+        if (limit <= 0)
+            return true;
+
+        // The accounts and profiles are written straight to the tables in batches.
+        // Account uid:n gets account id n, as in the portfolios, and keygenejb is
+        // moved past the range so registrations do not reuse the ids; the balances
+        // are generated by the portfolios' own tradeBuildDB. A range may be built
+        // again after a failed attempt, so whatever an earlier attempt left in it
+        // is deleted first, in the same transaction
         Connection conn = null;
+        BatchWriter writer = null;
+        // the users are counted once the last batch has committed
+        runStats.beginUpdate();
         try {
             conn = getConn();
+            if (offset > 0)
+                removeAccountRange(conn, offset, limit);
+            writer = new BatchWriter(conn, buildBatchSize, buildCommitInterval);
+            PreparedStatement accountStmt = writer.prepare(createAccountSQL);
+            PreparedStatement profileStmt = writer.prepare(createAccountProfileSQL);
+            KeySequenceDirect.skipTo("account", offset + limit);
+            Timestamp creationDate = new Timestamp(System.currentTimeMillis());
 
             // Moved this code from the web tier into the microservice where it belongs
             for (int i = 0; i < limit; i++) {
                 int accountID = i + offset;
                 String userID = "uid:" + accountID;
-                String fullname = TradeConfig.rndFullName();
-                String email = TradeConfig.rndEmail(userID);
-                String address = TradeConfig.rndAddress();
-                String creditcard = TradeConfig.rndCreditCard();
-                BigDecimal initialBalance = null;
-                if (accountID == 0) {
-                    initialBalance = new BigDecimal(1000000); // uid:0 starts with a cool million.
-                } else {
-                    initialBalance = new BigDecimal(TradeConfig.rndInt(100000) + 200000);
-                }
-                register(conn, userID, "xxx", fullname, address, email, creditcard, initialBalance);
+                SampleData data = SampleData.forRow(seed, accountID);
+
+                accountStmt.setInt(1, accountID);
+                accountStmt.setTimestamp(2, creationDate);
+                accountStmt.setTimestamp(3, creationDate); // lastLogin
+                accountStmt.setInt(4, 0); // loginCount
+                accountStmt.setInt(5, 0); // logoutCount
+                accountStmt.setString(6, userID);
+                writer.addRow(accountStmt);
+
+                profileStmt.setString(1, userID);
+                profileStmt.setString(2, "xxx");
+                profileStmt.setString(3, data.fullName());
+                profileStmt.setString(4, data.address());
+                profileStmt.setString(5, data.email(userID));
+                profileStmt.setString(6, data.creditCard());
+                writer.addRow(profileStmt);
             } // end-for
 
-            commit(conn);
+            writer.commit();
+            runStats.built(limit);
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
         } finally {
+            if (writer != null)
+                writer.close();
             releaseConn(conn);
+            runStats.endUpdate();
         }
         return true;
 
@@ -139,31 +241,43 @@ public class AccountsService {
         RunStatsDataBean runStatsData = new RunStatsDataBean();
         Connection conn = null;
 
+        // the portfolios reset their balances too
+        balanceReplica.clear();
+
         if (deleteAll) {
             // delete the rows and return
-            conn = getConn();
+            runStats.beginUpdate();
             PreparedStatement stmt = null;
             try {
+                conn = getConn();
                 stmt = getStatement(conn, "delete from accountejb");
                 stmt.executeUpdate();
                 stmt.close();
                 stmt = getStatement(conn, "delete from accountprofileejb");
                 stmt.executeUpdate();
                 stmt.close();
+                stmt = getStatement(conn, "delete from registrationoutboxejb");
+                stmt.executeUpdate();
+                stmt.close();
                 // Fixed pkey unique constraint violation
                 stmt = getStatement(conn, "delete from keygenejb");
                 stmt.executeUpdate();
                 stmt.close();
                 commit(conn);
                 // (Re-)initialize the key generator
-                KeySequenceDirect.initialize(getConn());
+                KeySequenceDirect.initialize(getKeySequenceConn());
+                runStats.clear();
             } catch (Exception e) {
                 rollBack(conn, e);
                 throw e;
             } finally {
                 releaseConn(conn);
+                runStats.endUpdate();
             }
             return runStatsData;
+        } else if (runStats.isEnabled()) {
+            // served from the counters; the cleanup runs in the background
+            return runStats.resetRunStats();
         } else {
             // calculate usage stats and return
             conn = getConn();
@@ -175,6 +289,11 @@ public class AccountsService {
                 stmt.executeUpdate();
                 stmt.close();
 
+                // and their registrations still waiting in the outbox
+                stmt = getStatement(conn, "delete from registrationoutboxejb where profile_userid like 'ru:%'");
+                stmt.executeUpdate();
+                stmt.close();
+
                 // Count and delete random users (with id that start with "ru:%")
                 // Moved this code into the accounts and portfolios microservices
                 stmt = getStatement(conn, "delete from accountejb where profile_userid like 'ru:%'");
@@ -183,8 +302,7 @@ public class AccountsService {
                 stmt.close();
 
                 // Count of trade users
-                stmt = getStatement(conn,
-                        "select count(accountid) as \"tradeUserCount\" from accountejb a where a.profile_userid like 'uid:%'");
+                stmt = getStatement(conn, countTradeUsersSQL);
                 rs = stmt.executeQuery();
                 rs.next();
                 int tradeUserCount = rs.getInt("tradeUserCount");
@@ -309,7 +427,7 @@ public class AccountsService {
         }
 
         // (Re-)initialize the key generator
-        KeySequenceDirect.initialize(getConn());
+        KeySequenceDirect.initialize(getKeySequenceConn());
         return true;
     }
 
@@ -332,6 +450,24 @@ public class AccountsService {
         } finally {
             releaseConn(conn);
         }
+
+        // the balance and open balance are kept by the portfolios; ask for them
+        // once the connection is back in the pool
+        if (accountData != null) {
+            AccountBalanceDataBean balanceData = balanceReplica.getBalance(accountData.getProfileID());
+            if (balanceData == null) {
+                // a registration still waiting in the outbox is not known to the
+                // portfolios yet, and has the balance it was opened with; if it is
+                // no longer queued it was delivered in the meantime
+                balanceData = getQueuedBalance(accountData.getAccountID().intValue());
+                if (balanceData == null)
+                    balanceData = balanceReplica.getBalance(accountData.getProfileID());
+            }
+            if (balanceData != null) {
+                accountData.setBalance(balanceData.getBalance());
+                accountData.setOpenBalance(balanceData.getOpenBalance());
+            }
+        }
         return accountData;
     }
 
@@ -435,6 +571,7 @@ public class AccountsService {
         } finally {
             releaseConn(conn);
         }
+        runStats.loggedIn(userID);
         return accountData;
     }
 
@@ -461,6 +598,7 @@ public class AccountsService {
         } finally {
             releaseConn(conn);
         }
+        runStats.loggedOut(userID);
         return result;
     }
 
@@ -473,6 +611,9 @@ public class AccountsService {
             String creditCard, BigDecimal openBalance) throws Exception {
         AccountDataBean accountData = null;
         Connection conn = null;
+        boolean relayed = registrationRelay.isEnabled();
+        // the account is not reconciled between its commit and its count
+        runStats.beginUpdate();
         try {
             conn = getConn();
             accountData = register(conn, userID, password, fullname, address, email, creditCard, openBalance);
@@ -482,19 +623,267 @@ public class AccountsService {
             // accounts. Note that this data is read only by the accounts, but read-write by
             // the portfolios.
             // Thus, we cache them in accounts, and store them persistently in portfolios.
-            accountData = portfoliosService.register(accountData);
+            if (relayed)
+                // committed with the account and delivered by the relay afterwards
+                queueRegistration(conn, accountData);
+            else
+                accountData = portfoliosService.register(accountData);
 
             commit(conn);
+            runStats.registered(userID);
 
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
         } finally {
             releaseConn(conn);
+            runStats.endUpdate();
         }
+
+        if (relayed)
+            registrationRelay.wakeUp();
         return accountData;
     }
 
+    /*
+     * Deletes the accounts with ids in [offset, offset + limit) and their profiles.
+     */
+    private void removeAccountRange(Connection conn, int offset, int limit) throws Exception {
+        for (String sql : new String[] { removeAccountProfileRangeSQL, removeAccountRangeSQL }) {
+            PreparedStatement stmt = getStatement(conn, sql);
+            stmt.setInt(1, offset);
+            stmt.setInt(2, offset + limit);
+            stmt.executeUpdate();
+            stmt.close();
+        }
+    }
+
+    /*
+     * Returns the balance of the registration waiting in the outbox for the
+     * account, or null if none is.
+     */
+    private AccountBalanceDataBean getQueuedBalance(int accountID) throws Exception {
+        AccountBalanceDataBean balanceData = null;
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getQueuedRegistrationSQL);
+            stmt.setInt(1, accountID);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                balanceData = new AccountBalanceDataBean(rs.getString("profile_userid"), rs.getBigDecimal("balance"),
+                        rs.getBigDecimal("openbalance"), 0);
+            }
+            rs.close();
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return balanceData;
+    }
+
+    /**
+     * Returns up to max registrations waiting in the outbox, oldest first.
+     */
+    public Collection<AccountDataBean> getQueuedRegistrations(int max) throws Exception {
+        Collection<AccountDataBean> accounts = new ArrayList<AccountDataBean>();
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getQueuedRegistrationsSQL);
+            stmt.setMaxRows(max);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                accounts.add(new AccountDataBean(rs.getInt("accountid"), 0, 0, null, rs.getTimestamp("creationdate"),
+                        rs.getBigDecimal("balance"), rs.getBigDecimal("openbalance"),
+                        rs.getString("profile_userid")));
+            }
+            rs.close();
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return accounts;
+    }
+
+    /**
+     * Removes registrations that portfolios has accepted from the outbox.
+     */
+    public void removeQueuedRegistrations(Collection<AccountDataBean> accounts) throws Exception {
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, removeQueuedRegistrationSQL);
+            for (AccountDataBean accountData : accounts) {
+                stmt.setInt(1, accountData.getAccountID().intValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+    }
+
+    /**
+     * Returns the number of registrations waiting in the outbox and how long ago
+     * the oldest of them was made, in milliseconds.
+     */
+    public Map<String, Object> getRegistrationBacklog() throws Exception {
+        Map<String, Object> backlog = new LinkedHashMap<String, Object>();
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getRegistrationBacklogSQL);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            Timestamp oldest = rs.getTimestamp("oldest");
+            backlog.put("queued", rs.getInt("queued"));
+            backlog.put("oldestAgeMillis", (oldest == null) ? 0 : System.currentTimeMillis() - oldest.getTime());
+            rs.close();
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return backlog;
+    }
+
+    /**
+     * Returns the delivery counters and the backlog of the registration relay.
+     */
+    public Map<String, Object> getRegistrationRelayStatistics() {
+        return registrationRelay.getStatistics();
+    }
+
+    /**
+     * Counts the trade users in the database, for the reconciliation of the run
+     * statistics counters.
+     */
+    public int countTradeUsers() throws Exception {
+        int tradeUserCount = 0;
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, countTradeUsersSQL);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            tradeUserCount = rs.getInt("tradeUserCount");
+            rs.close();
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return tradeUserCount;
+    }
+
+    /**
+     * Deletes up to max random users (ru:*) with their profiles and any
+     * registration still waiting in the outbox, in one transaction.
+     *
+     * @return the number of users deleted
+     */
+    public int deleteRandomUsers(int max) throws Exception {
+        int deleted = 0;
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getRandomAccountsSQL);
+            stmt.setMaxRows(max);
+            ResultSet rs = stmt.executeQuery();
+            PreparedStatement profileStmt = getStatement(conn, removeAccountProfileSQL);
+            PreparedStatement accountStmt = getStatement(conn, removeAccountSQL);
+            PreparedStatement queuedStmt = getStatement(conn, removeQueuedRegistrationSQL);
+            while (rs.next()) {
+                profileStmt.setString(1, rs.getString("profile_userid"));
+                profileStmt.addBatch();
+                accountStmt.setInt(1, rs.getInt("accountid"));
+                accountStmt.addBatch();
+                queuedStmt.setInt(1, rs.getInt("accountid"));
+                queuedStmt.addBatch();
+                deleted++;
+            }
+            rs.close();
+            stmt.close();
+            if (deleted > 0) {
+                profileStmt.executeBatch();
+                accountStmt.executeBatch();
+                queuedStmt.executeBatch();
+            }
+            profileStmt.close();
+            accountStmt.close();
+            queuedStmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return deleted;
+    }
+
+    /**
+     * Sets the login and logout counts of up to max accounts back to zero, in one
+     * transaction.
+     *
+     * @return the number of accounts updated
+     */
+    public int clearLoginCounts(int max) throws Exception {
+        int cleared = 0;
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getLoggedInAccountsSQL);
+            stmt.setMaxRows(max);
+            ResultSet rs = stmt.executeQuery();
+            PreparedStatement clearStmt = getStatement(conn, clearLoginCountsSQL);
+            while (rs.next()) {
+                clearStmt.setInt(1, rs.getInt("accountid"));
+                clearStmt.addBatch();
+                cleared++;
+            }
+            rs.close();
+            stmt.close();
+            if (cleared > 0)
+                clearStmt.executeBatch();
+            clearStmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return cleared;
+    }
+
+    /**
+     * Returns the run statistics counters and their reconciliations.
+     */
+    public Map<String, Object> getRunStatsStatistics() {
+        return runStats.getStatistics();
+    }
+
     // Private helper functions
 
     /**
@@ -509,7 +898,7 @@ public class AccountsService {
 
         PreparedStatement stmt = getStatement(conn, createAccountSQL);
 
-        Integer accountID = KeySequenceDirect.getNextID("account");
+        int accountID = KeySequenceDirect.getNextID("account");
 
         BigDecimal balance = openBalance;
         Timestamp creationDate = new Timestamp(System.currentTimeMillis());
@@ -517,7 +906,7 @@ public class AccountsService {
         int loginCount = 0;
         int logoutCount = 0;
 
-        stmt.setInt(1, accountID.intValue());
+        stmt.setInt(1, accountID);
         stmt.setTimestamp(2, creationDate);
         // Don't persist these fields in the accounts microservice; persist them in
         // portfolios
@@ -611,17 +1000,23 @@ public class AccountsService {
             Log.debug("AccountsService:getAccountData() - cannot find account for user: " + userID);
         } else {
             accountData = getAccountDataFromResultSet(rs);
-//        	// ask the portfolios for the most recent balance so web app can display it
-//        	// changed this code to get the balance and open balance from the portfolio
-            AccountDataBean portfolioData = portfoliosService.getAccountData(accountData.getProfileID());
-            accountData.setBalance(portfolioData.getBalance());
-            accountData.setOpenBalance(portfolioData.getOpenBalance());
         }
         stmt.close();
 
         return accountData;
     }
 
+    private void queueRegistration(Connection conn, AccountDataBean accountData) throws Exception {
+        PreparedStatement stmt = getStatement(conn, queueRegistrationSQL);
+        stmt.setInt(1, accountData.getAccountID().intValue());
+        stmt.setString(2, accountData.getProfileID());
+        stmt.setBigDecimal(3, accountData.getOpenBalance());
+        stmt.setBigDecimal(4, accountData.getBalance());
+        stmt.setTimestamp(5, new Timestamp(accountData.getCreationDate().getTime()));
+        stmt.executeUpdate();
+        stmt.close();
+    }
+
     private AccountProfileDataBean getAccountProfileData(Connection conn, String userID) throws Exception {
         PreparedStatement stmt = getStatement(conn, getAccountProfileSQL);
         stmt.setString(1, userID);
@@ -758,6 +1153,23 @@ public class AccountsService {
 //        if (datasource == null)
 //            getDataSource();
 
+        dbLimiter.acquire();
+        try {
+            Connection conn = datasource.getConnection();
+            conn.setAutoCommit(false);
+
+            return conn;
+        } catch (Exception e) {
+            dbLimiter.release();
+            throw e;
+        }
+    }
+
+    /*
+     * Allocate a connection for the key generator. The key generator keeps it until
+     * it is re-initialized, so it is not counted by the limiter.
+     */
+    private Connection getKeySequenceConn() throws Exception {
         Connection conn = datasource.getConnection();
         conn.setAutoCommit(false);
 
@@ -790,6 +1202,8 @@ public class AccountsService {
                 String exceptionAsString = sw.toString();
                 Log.debug("AccountsService:releaseConn() - Ignored exception closing a connection: \n"
                         + exceptionAsString);
+            } finally {
+                dbLimiter.release();
             }
         }
     }
@@ -830,6 +1244,41 @@ public class AccountsService {
     private static final String getAccountForUserSQL = "select * from accountejb a where a.profile_userid = "
             + "( select userid from accountprofileejb ap where ap.userid = ?)";
 
+    private static final String queueRegistrationSQL = "insert into registrationoutboxejb "
+            + "( accountid, profile_userid, openbalance, balance, creationdate ) "
+            + "VALUES (  ?  ,  ?  ,  ?  ,  ?  ,  ?  )";
+
+    private static final String getQueuedRegistrationsSQL = "select * from registrationoutboxejb order by accountid";
+
+    private static final String getQueuedRegistrationSQL = "select * from registrationoutboxejb where accountid = ?";
+
+    private static final String removeQueuedRegistrationSQL = "delete from registrationoutboxejb where accountid = ?";
+
+    private static final String countTradeUsersSQL = "select count(accountid) as \"tradeUserCount\" from accountejb a "
+            + "where a.profile_userid like 'uid:%'";
+
+    private static final String getRandomAccountsSQL = "select accountid, profile_userid from accountejb "
+            + "where profile_userid like 'ru:%'";
+
+    private static final String removeAccountProfileSQL = "delete from accountprofileejb where userid = ?";
+
+    private static final String removeAccountSQL = "delete from accountejb where accountid = ?";
+
+    private static final String removeAccountProfileRangeSQL = "delete from accountprofileejb where userid in "
+            + "(select profile_userid from accountejb where accountid >= ? and accountid < ?)";
+
+    private static final String removeAccountRangeSQL = "delete from accountejb "
+            + "where accountid >= ? and accountid < ?";
+
+    private static final String getLoggedInAccountsSQL = "select accountid from accountejb "
+            + "where logincount <> 0 or logoutcount <> 0";
+
+    private static final String clearLoginCountsSQL = "update accountejb set logincount = 0, logoutcount = 0 "
+            + "where accountid = ?";
+
+    private static final String getRegistrationBacklogSQL = "select count(*) as \"queued\", "
+            + "min(creationdate) as \"oldest\" from registrationoutboxejb";
+
 // Moved to portfolios
 //
 //    private final static String getAccountProfileForAccountSQL =
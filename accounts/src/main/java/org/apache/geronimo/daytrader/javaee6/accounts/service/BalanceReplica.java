@@ -0,0 +1,196 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.accounts.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.geronimo.daytrader.javaee6.accounts.utils.Log;
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
+import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.subscription.Cancellable;
+
+/**
+ * A local copy of the account balances, kept current by the balance stream of
+ * the portfolios microservice, so reading an account does not need a remote
+ * call to portfolios every time.
+ *
+ * A balance is served from the replica only while the stream is connected and
+ * only if it was received within max-staleness-millis; otherwise it is fetched
+ * from the portfolios microservice and kept. Of two changes to the same
+ * account the one with the higher version is kept, whatever order they arrive
+ * in. When the stream drops the replica is emptied, since the changes missed
+ * while it was down are unknown, and the stream is reconnected with a growing
+ * delay.
+ *
+ * Note: the versions are counted by each portfolios instance, so the replica
+ * expects a single one behind the portfolios url. A balance may be shown
+ * before the change of an order that has just committed arrives. With the
+ * replica disabled every balance is fetched remotely, as before.
+ */
+
+@ApplicationScoped
+public class BalanceReplica {
+
+    @Inject
+    @RestClient
+    PortfoliosRemoteCallService portfoliosService;
+
+    @ConfigProperty(name = "daytrader.accounts.balance-replica.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.accounts.balance-replica.max-staleness-millis", defaultValue = "30000")
+    long maxStalenessMillis;
+
+    private static final Duration FIRST_RECONNECT_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RECONNECT_DELAY = Duration.ofSeconds(30);
+
+    private static final class Entry {
+        final AccountBalanceDataBean balanceData;
+        final long version;
+        final long receivedAt;
+
+        Entry(AccountBalanceDataBean balanceData, long version, long receivedAt) {
+            this.balanceData = balanceData;
+            this.version = version;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> balances = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean connected = false;
+    private Cancellable subscription;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled)
+            return;
+
+        subscription = portfoliosService.streamBalances()
+                .onSubscribe().invoke(s -> connected = true)
+                .onCompletion().failWith(() -> new IllegalStateException("balance stream closed"))
+                .onFailure().invoke(this::disconnected)
+                .onFailure().retry().withBackOff(FIRST_RECONNECT_DELAY, MAX_RECONNECT_DELAY).indefinitely()
+                .subscribe().with(this::changed);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (subscription != null)
+            subscription.cancel();
+    }
+
+    /**
+     * Returns the balance of the user's account from the replica when it is
+     * current, or from the portfolios microservice otherwise.
+     */
+    public AccountBalanceDataBean getBalance(String userID) {
+        if (!enabled)
+            return fetch(userID, 0);
+
+        Entry entry = balances.get(userID);
+        long now = System.nanoTime();
+        if (entry != null && connected
+                && now - entry.receivedAt <= TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis)) {
+            hits.incrementAndGet();
+            return entry.balanceData;
+        }
+
+        misses.incrementAndGet();
+        final AccountBalanceDataBean balanceData = fetch(userID, (entry == null) ? 0 : entry.version);
+        if (balanceData != null && connected) {
+            // keep a change that arrived while the balance was being fetched; the
+            // fetched balance is dated from before the call, as it may be that old
+            final Entry fetched = new Entry(balanceData, balanceData.getVersion(), now);
+            balances.merge(userID, fetched, (current, update) -> (current.receivedAt - now > 0) ? current : update);
+        }
+        return balanceData;
+    }
+
+    private AccountBalanceDataBean fetch(String userID, long version) {
+        AccountDataBean portfolioData = portfoliosService.getAccountData(userID);
+        if (portfolioData == null)
+            return null;
+
+        // a fetched balance carries the version of the change it replaces, so a
+        // change older than that one arriving late does not overwrite it
+        return new AccountBalanceDataBean(userID, portfolioData.getBalance(), portfolioData.getOpenBalance(),
+                version);
+    }
+
+    private void changed(AccountBalanceDataBean balanceData) {
+        changes.incrementAndGet();
+        final Entry change = new Entry(balanceData, balanceData.getVersion(), System.nanoTime());
+        balances.merge(balanceData.getUserID(), change, (current, update) -> {
+            if (update.version > current.version)
+                return update;
+            outOfOrder.incrementAndGet();
+            return current;
+        });
+    }
+
+    private void disconnected(Throwable t) {
+        connected = false;
+        balances.clear();
+        disconnects.incrementAndGet();
+        Log.debug("BalanceReplica - balance stream disconnected, reconnecting: " + t);
+    }
+
+    /**
+     * Drops every balance held, e.g. when the portfolios have been reset.
+     */
+    public void clear() {
+        balances.clear();
+    }
+
+    /**
+     * Returns whether the stream is connected, the number of balances held, and
+     * the hit, miss, change, out-of-order and disconnect counters.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("maxStalenessMillis", maxStalenessMillis);
+        stats.put("connected", connected);
+        stats.put("size", balances.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("changes", changes.get());
+        stats.put("outOfOrder", outOfOrder.get());
+        stats.put("disconnects", disconnects.get());
+        return stats;
+    }
+}
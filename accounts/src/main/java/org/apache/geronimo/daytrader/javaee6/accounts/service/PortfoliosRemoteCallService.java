@@ -17,6 +17,8 @@
 
 package org.apache.geronimo.daytrader.javaee6.accounts.service;
 
+import java.util.Collection;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -26,8 +28,12 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 
 // Daytrader
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * The remote call service to the trader gateway service.
@@ -62,4 +68,25 @@ public interface PortfoliosRemoteCallService {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     public AccountDataBean register(AccountDataBean accountData);
+
+    /**
+     *
+     * @see PortfoliosService#registerAll(Collection)
+     *
+     */
+    @POST
+    @Path("/portfolios/registrations")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Integer registerAll(Collection<AccountDataBean> accounts);
+
+    /**
+     * Streams the balance of each account as orders change it, from now on.
+     *
+     */
+    @GET
+    @Path("/balances/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<AccountBalanceDataBean> streamBalances();
 }
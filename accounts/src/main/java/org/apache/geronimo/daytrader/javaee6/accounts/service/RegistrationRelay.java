@@ -0,0 +1,199 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.accounts.service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.geronimo.daytrader.javaee6.accounts.utils.Log;
+import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Delivers new registrations to the portfolios microservice from the outbox
+ * table they were committed to along with the account, so registering does not
+ * wait on, or hold a connection across, the remote call.
+ *
+ * A single thread sends the waiting registrations in batches of up to
+ * batch-size, oldest first, and removes them from the outbox once portfolios
+ * has accepted them. It is woken by each registration and otherwise looks
+ * every poll-interval-millis, which also picks up registrations left behind by
+ * a restart. A batch that fails is retried with a growing delay; portfolios
+ * skips accounts it already has, so a batch delivered twice does no harm.
+ *
+ * Note: until its registration is delivered an account has no portfolio, so
+ * its balance is unknown and it cannot trade. With the relay disabled the
+ * portfolio is created during registration, as before.
+ */
+
+@ApplicationScoped
+public class RegistrationRelay {
+
+    @Inject
+    @RestClient
+    PortfoliosRemoteCallService portfoliosService;
+
+    @Inject
+    AccountsService accountsService;
+
+    @ConfigProperty(name = "daytrader.accounts.registrations.outbox.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.accounts.registrations.outbox.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "daytrader.accounts.registrations.outbox.poll-interval-millis", defaultValue = "1000")
+    long pollIntervalMillis;
+
+    private static final long FIRST_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean running = false;
+    private Thread relay;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong totalLagNanos = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private volatile long lastDeliveredAt = 0;
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled)
+            return;
+
+        running = true;
+        relay = new Thread(new Runnable() {
+            public void run() {
+                relayLoop();
+            }
+        }, "RegistrationRelay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (relay != null)
+            relay.interrupt();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tells the relay a registration has been committed to the outbox.
+     */
+    public void wakeUp() {
+        wakeUps.release();
+    }
+
+    private void relayLoop() {
+        long retryDelayMillis = FIRST_RETRY_DELAY_MILLIS;
+        while (running) {
+            try {
+                // a full batch means more may be waiting; otherwise wait for the next one
+                if (relayBatch() < batchSize) {
+                    wakeUps.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    wakeUps.drainPermits();
+                }
+                retryDelayMillis = FIRST_RETRY_DELAY_MILLIS;
+            } catch (InterruptedException e) {
+                if (!running)
+                    break;
+            } catch (Exception e) {
+                failedBatches.incrementAndGet();
+                Log.error("RegistrationRelay - delivery failed, retrying in " + retryDelayMillis + " ms", e);
+                try {
+                    Thread.sleep(retryDelayMillis);
+                } catch (InterruptedException ie) {
+                    if (!running)
+                        break;
+                }
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private int relayBatch() throws Exception {
+        Collection<AccountDataBean> accounts = accountsService.getQueuedRegistrations(batchSize);
+        if (accounts.isEmpty())
+            return 0;
+
+        portfoliosService.registerAll(accounts);
+        accountsService.removeQueuedRegistrations(accounts);
+
+        long now = System.currentTimeMillis();
+        for (AccountDataBean accountData : accounts)
+            recordLag(now - accountData.getCreationDate().getTime());
+        lastDeliveredAt = now;
+        batches.incrementAndGet();
+        delivered.addAndGet(accounts.size());
+        return accounts.size();
+    }
+
+    private void recordLag(long lagMillis) {
+        totalLagNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(lagMillis));
+        maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+    }
+
+    /**
+     * Returns the number of registrations delivered and of batches sent and
+     * failed, the lag from registration to delivery in milliseconds, and the
+     * registrations still waiting in the outbox.
+     */
+    public Map<String, Object> getStatistics() {
+        long count = delivered.get();
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("batchSize", batchSize);
+        stats.put("pollIntervalMillis", pollIntervalMillis);
+        stats.put("running", running);
+        stats.put("delivered", count);
+        stats.put("batches", batches.get());
+        stats.put("avgBatchSize", (batches.get() == 0) ? 0.0 : (double) count / batches.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("avgLagMillis", (count == 0) ? 0.0 : totalLagNanos.get() / 1.0e6 / count);
+        stats.put("maxLagMillis", maxLagMillis.get());
+        stats.put("lastDeliveredAt", lastDeliveredAt);
+        if (enabled) {
+            try {
+                stats.put("outbox", accountsService.getRegistrationBacklog());
+            } catch (Exception e) {
+                Log.error("RegistrationRelay.getStatistics() - unable to read the outbox", e);
+            }
+        }
+        return stats;
+    }
+}
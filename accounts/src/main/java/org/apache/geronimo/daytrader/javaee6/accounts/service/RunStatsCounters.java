@@ -0,0 +1,269 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.accounts.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.geronimo.daytrader.javaee6.accounts.utils.Log;
+import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Keeps the run statistics of the accounts in memory, so resetTrade does not
+ * count and sum over the account table each time.
+ *
+ * The logins and logouts of the trade users (uid:*) and the registrations are
+ * counted once their transactions have committed. The number of trade users is
+ * reconciled with the database every reconcile-interval-millis by a single
+ * thread; registrations, builds and resets hold off a reconciliation from
+ * before they commit until they have been counted, and a reconciliation holds
+ * them off while it counts. The same thread also runs the cleanup that
+ * resetTrade used to run inline: the random users (ru:*) are deleted and the
+ * login and logout counts of the accounts are set back to zero,
+ * cleanup-batch-size accounts per transaction.
+ *
+ * Note: the login and logout counts are those since the previous resetTrade;
+ * the counts kept on each account are only zeroed once the cleanup has run.
+ * With the counters disabled resetTrade counts and cleans up in the database,
+ * as before.
+ */
+
+@ApplicationScoped
+public class RunStatsCounters {
+
+    @Inject
+    AccountsService accountsService;
+
+    @ConfigProperty(name = "daytrader.accounts.run-stats.counters.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.accounts.run-stats.reconcile-interval-millis", defaultValue = "60000")
+    long reconcileIntervalMillis;
+
+    @ConfigProperty(name = "daytrader.accounts.run-stats.cleanup-batch-size", defaultValue = "500")
+    int cleanupBatchSize;
+
+    private final AtomicLong tradeUsers = new AtomicLong();
+
+    // since the previous resetTrade
+    private final AtomicLong newUsers = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong logouts = new AtomicLong();
+
+    // shared by the updates from before their commit until they are counted,
+    // exclusive to a reconciliation while it counts
+    private final ReentrantReadWriteLock counting = new ReentrantReadWriteLock();
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean cleanupRequested = false;
+    private volatile boolean running = false;
+    private Thread reconciler;
+
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+    private final AtomicLong cleanups = new AtomicLong();
+    private final AtomicLong deletedUsers = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastReconciledAt = 0;
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled)
+            return;
+
+        running = true;
+        reconciler = new Thread(new Runnable() {
+            public void run() {
+                reconcileLoop();
+            }
+        }, "RunStatsCounters");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (reconciler != null)
+            reconciler.interrupt();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Holds off reconciliation until {@link #endUpdate()}; call it before the
+     * transaction whose rows are then counted.
+     */
+    public void beginUpdate() {
+        if (enabled)
+            counting.readLock().lock();
+    }
+
+    public void endUpdate() {
+        if (enabled)
+            counting.readLock().unlock();
+    }
+
+    private static boolean isTradeUser(String userID) {
+        return (userID != null) && userID.startsWith("uid:");
+    }
+
+    public void loggedIn(String userID) {
+        if (enabled && isTradeUser(userID))
+            logins.incrementAndGet();
+    }
+
+    public void loggedOut(String userID) {
+        if (enabled && isTradeUser(userID))
+            logouts.incrementAndGet();
+    }
+
+    /**
+     * Counts an account registered.
+     */
+    public void registered(String userID) {
+        if (!enabled)
+            return;
+
+        if (isTradeUser(userID))
+            tradeUsers.incrementAndGet();
+        else if (userID != null && userID.startsWith("ru:"))
+            newUsers.incrementAndGet();
+    }
+
+    /**
+     * Counts the trade users written by tradeBuildDB.
+     */
+    public void built(int userCount) {
+        if (enabled)
+            tradeUsers.addAndGet(userCount);
+    }
+
+    /**
+     * Returns the run statistics and starts the count of new users, logins and
+     * logouts over, then has the cleanup run in the background.
+     */
+    public RunStatsDataBean resetRunStats() {
+        RunStatsDataBean runStatsData = new RunStatsDataBean();
+        runStatsData.setTradeUserCount((int) tradeUsers.get());
+        runStatsData.setNewUserCount((int) newUsers.getAndSet(0));
+        runStatsData.setSumLoginCount((int) logins.getAndSet(0));
+        runStatsData.setSumLogoutCount((int) logouts.getAndSet(0));
+
+        cleanupRequested = true;
+        wakeUps.release();
+        return runStatsData;
+    }
+
+    /**
+     * Zeroes the counters once the tables have been emptied.
+     */
+    public void clear() {
+        for (AtomicLong counter : new AtomicLong[] { tradeUsers, newUsers, logins, logouts })
+            counter.set(0);
+    }
+
+    private void reconcileLoop() {
+        while (running) {
+            try {
+                wakeUps.tryAcquire(reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+                if (cleanupRequested) {
+                    cleanupRequested = false;
+                    cleanUp();
+                }
+                reconcile();
+            } catch (InterruptedException e) {
+                if (!running)
+                    break;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                Log.error("RunStatsCounters - reconciliation failed, retrying in " + reconcileIntervalMillis + " ms",
+                        e);
+            }
+        }
+    }
+
+    private void cleanUp() throws Exception {
+        int done;
+        do {
+            done = accountsService.deleteRandomUsers(cleanupBatchSize);
+            deletedUsers.addAndGet(done);
+        } while (done == cleanupBatchSize && running);
+        do {
+            done = accountsService.clearLoginCounts(cleanupBatchSize);
+        } while (done == cleanupBatchSize && running);
+        cleanups.incrementAndGet();
+    }
+
+    /*
+     * Counts while no registration is between its commit and its count, and moves
+     * the counter to the database's count. Registrations wait for the count to
+     * finish.
+     */
+    private void reconcile() throws Exception {
+        counting.writeLock().lock();
+        try {
+            long drift = accountsService.countTradeUsers() - tradeUsers.get();
+            if (drift != 0) {
+                tradeUsers.addAndGet(drift);
+                corrections.addAndGet(Math.abs(drift));
+            }
+        } finally {
+            counting.writeLock().unlock();
+        }
+        reconciliations.incrementAndGet();
+        lastReconciledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the counters, and how many reconciliations and cleanups have run and
+     * how far off the counters were.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("reconcileIntervalMillis", reconcileIntervalMillis);
+        stats.put("cleanupBatchSize", cleanupBatchSize);
+        stats.put("running", running);
+        stats.put("tradeUsers", tradeUsers.get());
+        stats.put("newUsers", newUsers.get());
+        stats.put("logins", logins.get());
+        stats.put("logouts", logouts.get());
+        stats.put("reconciliations", reconciliations.get());
+        stats.put("corrections", corrections.get());
+        stats.put("cleanups", cleanups.get());
+        stats.put("deletedUsers", deletedUsers.get());
+        stats.put("failures", failures.get());
+        stats.put("lastReconciledAt", lastReconciledAt);
+        return stats;
+    }
+}
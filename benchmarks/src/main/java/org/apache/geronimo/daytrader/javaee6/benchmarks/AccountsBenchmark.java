@@ -0,0 +1,79 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.daytrader.javaee6.accounts.service.AccountsService;
+import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
+import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the accounts microservice login.
+ *
+ * The database is populated once per fork with AccountsService#tradeBuildDB,
+ * which gives every user the password "xxx".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.util.logging.manager=org.jboss.logmanager.LogManager",
+        "-Dderby.stream.error.file=target/derby.log" })
+@State(Scope.Benchmark)
+public class AccountsBenchmark {
+
+    @Param({ "500" })
+    int users;
+
+    private DerbyDatabase database;
+    private AccountsService accountsService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        TradeConfig.setMAX_USERS(users);
+
+        database = new DerbyDatabase("accounts", 32);
+        accountsService = Services.accountsService(database.getDataSource());
+        accountsService.recreateDBTables();
+        accountsService.tradeBuildDB(users, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public AccountDataBean login() throws Exception {
+        return accountsService.login(TradeConfig.rndUserID(), "xxx");
+    }
+}
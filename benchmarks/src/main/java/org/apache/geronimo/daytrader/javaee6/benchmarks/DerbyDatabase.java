@@ -0,0 +1,73 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.benchmarks;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+import io.agroal.api.AgroalDataSource;
+import io.agroal.api.configuration.supplier.AgroalDataSourceConfigurationSupplier;
+
+/**
+ * A pooled connection to an in-memory Derby database, one per microservice.
+ *
+ * Each microservice owns a private database with its own keygenejb (and, for
+ * accounts and portfolios, their own accountejb), so they are never shared.
+ * The pool stands in for the Agroal pool Quarkus puts in front of the
+ * datasource, so the benchmarks do not measure opening connections.
+ */
+public class DerbyDatabase implements AutoCloseable {
+
+    private final String name;
+    private final AgroalDataSource datasource;
+
+    public DerbyDatabase(String name, int maxConnections) throws SQLException {
+        this.name = name;
+        this.datasource = AgroalDataSource.from(new AgroalDataSourceConfigurationSupplier()
+                .connectionPoolConfiguration(pool -> pool
+                        .maxSize(maxConnections)
+                        .acquisitionTimeout(Duration.ofSeconds(30))
+                        .connectionFactoryConfiguration(factory -> factory
+                                .connectionProviderClass(EmbeddedDriver.class)
+                                .jdbcUrl("jdbc:derby:memory:" + name + ";create=true"))));
+    }
+
+    public DataSource getDataSource() {
+        return datasource;
+    }
+
+    /**
+     * Closes the pool and drops the database.
+     */
+    @Override
+    public void close() {
+        datasource.close();
+        try {
+            DriverManager.getConnection("jdbc:derby:memory:" + name + ";drop=true");
+        } catch (SQLException e) {
+            // Derby reports a successful drop with SQLState 08006
+            if (!"08006".equals(e.getSQLState()))
+                throw new IllegalStateException("Unable to drop database " + name, e);
+        }
+    }
+}
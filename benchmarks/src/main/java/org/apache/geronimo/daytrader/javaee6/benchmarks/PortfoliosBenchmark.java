@@ -0,0 +1,116 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.daytrader.javaee6.entities.HoldingDataBean;
+import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.PortfoliosService;
+import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the portfolios microservice: synchronous buy and sell orders and
+ * reading a user's holdings.
+ *
+ * The database is populated once per fork with PortfoliosService#tradeBuildDB.
+ * Orders are priced by a local stub instead of the quotes microservice.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.util.logging.manager=org.jboss.logmanager.LogManager",
+        "-Dderby.stream.error.file=target/derby.log" })
+@State(Scope.Benchmark)
+public class PortfoliosBenchmark {
+
+    @Param({ "500" })
+    int users;
+
+    @Param({ "1000" })
+    int quotes;
+
+    private DerbyDatabase database;
+    private PortfoliosService portfoliosService;
+
+    /**
+     * A holding bought for the next sell, so every sell has something to sell.
+     * The sell takes the holding the buy created; another thread buying for the
+     * same user cannot make two sells race for one holding.
+     */
+    @State(Scope.Thread)
+    public static class Holding {
+        String userID;
+        Integer holdingID;
+
+        @Setup(Level.Invocation)
+        public void buy(PortfoliosBenchmark benchmark) throws Exception {
+            userID = TradeConfig.rndUserID();
+            OrderDataBean order = benchmark.portfoliosService.buy(userID, TradeConfig.rndSymbol(),
+                    TradeConfig.rndQuantity(), TradeConfig.SYNCH);
+            holdingID = order.getHoldingID();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        TradeConfig.setMAX_USERS(users);
+        TradeConfig.setMAX_QUOTES(quotes);
+
+        database = new DerbyDatabase("portfolios", 32);
+        portfoliosService = Services.portfoliosService(database.getDataSource());
+        portfoliosService.recreateDBTables();
+        portfoliosService.tradeBuildDB(users, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public OrderDataBean buy() throws Exception {
+        return portfoliosService.buy(TradeConfig.rndUserID(), TradeConfig.rndSymbol(), TradeConfig.rndQuantity(),
+                TradeConfig.SYNCH);
+    }
+
+    @Benchmark
+    public OrderDataBean sell(Holding holding) throws Exception {
+        return portfoliosService.sell(holding.userID, holding.holdingID, TradeConfig.SYNCH);
+    }
+
+    @Benchmark
+    public Collection<HoldingDataBean> getHoldings() throws Exception {
+        return portfoliosService.getHoldings(TradeConfig.rndUserID());
+    }
+}
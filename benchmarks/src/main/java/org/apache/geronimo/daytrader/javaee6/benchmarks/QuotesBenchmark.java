@@ -0,0 +1,95 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.QuotesService;
+import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the quotes microservice: reading a quote, the market summary, and
+ * the price/volume update done after every trade.
+ *
+ * The database is populated once per fork with QuotesService#tradeBuildDB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.util.logging.manager=org.jboss.logmanager.LogManager",
+        "-Dderby.stream.error.file=target/derby.log" })
+@State(Scope.Benchmark)
+public class QuotesBenchmark {
+
+    // at least 200, so the TSIA symbols (s:100 to s:199) all exist
+    @Param({ "1000" })
+    int quotes;
+
+    @Param({ "true", "false" })
+    boolean quoteCache;
+
+    private DerbyDatabase database;
+    private QuotesService quotesService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        TradeConfig.setMAX_QUOTES(quotes);
+
+        database = new DerbyDatabase("quotes", 32);
+        quotesService = Services.quotesService(database.getDataSource(), quoteCache);
+        quotesService.recreateDBTables();
+        quotesService.tradeBuildDB(quotes, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public QuoteDataBean getQuote() throws Exception {
+        return quotesService.getQuote(TradeConfig.rndSymbol());
+    }
+
+    @Benchmark
+    public MarketSummaryDataBean getMarketSummary() throws Exception {
+        return quotesService.getMarketSummary("TSIA");
+    }
+
+    @Benchmark
+    public QuoteDataBean updateQuotePriceVolume() throws Exception {
+        return quotesService.updateQuotePriceVolumeInt(TradeConfig.rndSymbol(),
+                TradeConfig.getRandomPriceChangeFactor(), TradeConfig.rndQuantity());
+    }
+}
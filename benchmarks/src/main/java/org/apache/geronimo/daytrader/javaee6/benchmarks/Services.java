@@ -0,0 +1,167 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.benchmarks;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.geronimo.daytrader.javaee6.accounts.service.AccountsService;
+import org.apache.geronimo.daytrader.javaee6.accounts.service.BalanceReplica;
+import org.apache.geronimo.daytrader.javaee6.accounts.service.RegistrationRelay;
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.BalancePublisher;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.GroupCommitter;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.OrderProcessor;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.PortfoliosService;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.QuoteReplica;
+import org.apache.geronimo.daytrader.javaee6.portfolios.service.QuotesRemoteCallService;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.MarketSummaryEngine;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.QuoteCache;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.QuotePublisher;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.QuoteUpdateCoalescer;
+import org.apache.geronimo.daytrader.javaee6.quotes.service.QuotesService;
+import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+
+import io.smallrye.mutiny.Multi;
+
+/**
+ * Builds the services outside of Quarkus.
+ *
+ * There is no CDI container in a benchmark, so the fields Quarkus would inject
+ * are set by name. Config properties get the values of their defaults. Calls to
+ * other microservices are replaced by local stubs, so only the database work of
+ * the service under test is measured.
+ */
+public final class Services {
+
+    private Services() {
+    }
+
+    public static QuotesService quotesService(DataSource datasource, boolean cacheEnabled) {
+        QuoteCache quoteCache = new QuoteCache();
+        inject(quoteCache, "enabled", cacheEnabled);
+        inject(quoteCache, "maxSize", 10000);
+
+        // no subscribers, so publishing a change costs a check
+        QuotePublisher quotePublisher = new QuotePublisher();
+        inject(quotePublisher, "enabled", true);
+        inject(quotePublisher, "bufferSize", 1000);
+
+        QuoteUpdateCoalescer quoteUpdateCoalescer = new QuoteUpdateCoalescer();
+        inject(quoteUpdateCoalescer, "enabled", false);
+
+        QuotesService quotesService = new QuotesService();
+        inject(quotesService, "datasource", datasource);
+        inject(quotesService, "quoteCache", quoteCache);
+        inject(quotesService, "marketSummaryEngine", new MarketSummaryEngine());
+        inject(quotesService, "streamFetchSize", 100);
+        inject(quotesService, "quotePublisher", quotePublisher);
+        inject(quotesService, "quoteUpdateCoalescer", quoteUpdateCoalescer);
+        inject(quotesService, "dbLimiter", new ConcurrencyLimiter("quotes", 0, 5000));
+        inject(quotesService, "buildBatchSize", 500);
+        inject(quotesService, "buildCommitInterval", 10000);
+        return quotesService;
+    }
+
+    /**
+     * Returns a portfolios service that processes orders synchronously, with group
+     * commit off, and that prices orders with {@link StubQuotes}. The quote replica
+     * is disabled, as it is by default, so every order asks the stub.
+     */
+    public static PortfoliosService portfoliosService(DataSource datasource) {
+        PortfoliosService portfoliosService = new PortfoliosService();
+        inject(portfoliosService, "datasource", datasource);
+        QuoteReplica quoteReplica = new QuoteReplica();
+        inject(quoteReplica, "quotesService", new StubQuotes());
+        inject(quoteReplica, "enabled", false);
+        BalancePublisher balancePublisher = new BalancePublisher();
+        inject(balancePublisher, "enabled", true);
+        inject(balancePublisher, "bufferSize", 1000);
+
+        inject(portfoliosService, "quoteReplica", quoteReplica);
+        inject(portfoliosService, "balancePublisher", balancePublisher);
+        inject(portfoliosService, "orderProcessor", new OrderProcessor());
+        inject(portfoliosService, "groupCommitter", new GroupCommitter());
+        // both services have a RunStatsCounters
+        org.apache.geronimo.daytrader.javaee6.portfolios.service.RunStatsCounters runStats =
+                new org.apache.geronimo.daytrader.javaee6.portfolios.service.RunStatsCounters();
+        inject(runStats, "enabled", false);
+        inject(portfoliosService, "runStats", runStats);
+        inject(portfoliosService, "dbLimiter", new ConcurrencyLimiter("portfolios", 0, 5000));
+        inject(portfoliosService, "buildBatchSize", 500);
+        inject(portfoliosService, "buildCommitInterval", 10000);
+        return portfoliosService;
+    }
+
+    public static AccountsService accountsService(DataSource datasource) {
+        AccountsService accountsService = new AccountsService();
+        inject(accountsService, "datasource", datasource);
+        BalanceReplica balanceReplica = new BalanceReplica();
+        inject(balanceReplica, "enabled", false);
+        inject(balanceReplica, "maxStalenessMillis", 30000L);
+
+        inject(accountsService, "balanceReplica", balanceReplica);
+        RegistrationRelay registrationRelay = new RegistrationRelay();
+        inject(registrationRelay, "enabled", false);
+        inject(accountsService, "registrationRelay", registrationRelay);
+        org.apache.geronimo.daytrader.javaee6.accounts.service.RunStatsCounters runStats =
+                new org.apache.geronimo.daytrader.javaee6.accounts.service.RunStatsCounters();
+        inject(runStats, "enabled", false);
+        inject(accountsService, "runStats", runStats);
+        inject(accountsService, "dbLimiter", new ConcurrencyLimiter("accounts", 0, 5000));
+        inject(accountsService, "buildBatchSize", 500);
+        inject(accountsService, "buildCommitInterval", 10000);
+        return accountsService;
+    }
+
+    /**
+     * Stands in for the quotes microservice; each symbol keeps the random price it
+     * is first given.
+     */
+    static class StubQuotes implements QuotesRemoteCallService {
+        private final ConcurrentHashMap<String, QuoteDataBean> quotes = new ConcurrentHashMap<String, QuoteDataBean>();
+
+        @Override
+        public QuoteDataBean getQuote(String symbol) {
+            return quotes.computeIfAbsent(symbol, s -> {
+                BigDecimal price = new BigDecimal(TradeConfig.rndPrice());
+                return new QuoteDataBean(s, s.toUpperCase() + " Incorporated", 0.0, price, price, price, price, 0.0);
+            });
+        }
+
+        @Override
+        public Multi<QuoteDataBean> streamQuotes(int tickMillis) {
+            return Multi.createFrom().empty();
+        }
+    }
+
+    static void inject(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                    "Unable to set " + target.getClass().getSimpleName() + "." + fieldName, e);
+        }
+    }
+}
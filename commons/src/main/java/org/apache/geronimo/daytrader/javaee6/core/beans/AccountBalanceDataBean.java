@@ -0,0 +1,84 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.core.beans;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * The balance of an account after a change, as sent on the balance stream of
+ * the portfolios microservice. A change with a higher version is newer.
+ */
+public class AccountBalanceDataBean implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String userID;
+    private BigDecimal balance;
+    private BigDecimal openBalance;
+    private long version;
+
+    // Constructors
+    public AccountBalanceDataBean() {
+    }
+
+    public AccountBalanceDataBean(String userID, BigDecimal balance, BigDecimal openBalance, long version) {
+        setUserID(userID);
+        setBalance(balance);
+        setOpenBalance(openBalance);
+        setVersion(version);
+    }
+
+    @Override
+    public String toString() {
+        return "\n\tAccount Balance Data for: " + getUserID() + "\n\t\t balance:" + getBalance()
+                + "\n\t\t openBalance:" + getOpenBalance() + "\n\t\t version:" + getVersion();
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    public void setUserID(String userID) {
+        this.userID = userID;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public BigDecimal getOpenBalance() {
+        return openBalance;
+    }
+
+    public void setOpenBalance(BigDecimal openBalance) {
+        this.openBalance = openBalance;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.core.beans;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * One trade's change to a quote, as sent in a bulk quote update: the factor to
+ * change the price by and the number of shares to add to the volume.
+ */
+public class QuoteUpdateDataBean implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String symbol;
+    private BigDecimal changeFactor;
+    private double sharesTraded;
+
+    // Constructors
+    public QuoteUpdateDataBean() {
+    }
+
+    public QuoteUpdateDataBean(String symbol, BigDecimal changeFactor, double sharesTraded) {
+        setSymbol(symbol);
+        setChangeFactor(changeFactor);
+        setSharesTraded(sharesTraded);
+    }
+
+    @Override
+    public String toString() {
+        return "\n\tQuote Update Data for: " + getSymbol() + "\n\t\t changeFactor:" + getChangeFactor()
+                + "\n\t\t sharesTraded:" + getSharesTraded();
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public BigDecimal getChangeFactor() {
+        return changeFactor;
+    }
+
+    public void setChangeFactor(BigDecimal changeFactor) {
+        this.changeFactor = changeFactor;
+    }
+
+    public double getSharesTraded() {
+        return sharesTraded;
+    }
+
+    public void setSharesTraded(double sharesTraded) {
+        this.sharesTraded = sharesTraded;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.core.direct;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.geronimo.daytrader.javaee6.utils.Log;
+
+/**
+ * Writes generated rows in JDBC batches, for the bulk loads of tradeBuildDB.
+ *
+ * Rows are added to the statements prepared through the writer. The pending
+ * batches are sent every batch-size rows and committed every commit-interval
+ * rows, so a load of any size needs neither a round trip per row nor one huge
+ * transaction. Batches are sent in the order the statements were prepared, so
+ * parent rows reach the database before the rows that refer to them.
+ *
+ * Note: a load that fails part way leaves the rows committed before the
+ * failure, so a load that may be retried has to delete what an earlier attempt
+ * left of its rows first.
+ */
+public class BatchWriter {
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int commitInterval;
+    private final List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+
+    private int batched = 0;
+    private int uncommitted = 0;
+    private long written = 0;
+
+    /**
+     * @param conn           a connection with auto-commit off
+     * @param batchSize      the number of rows sent to the database at a time
+     * @param commitInterval the number of rows written per transaction
+     */
+    public BatchWriter(Connection conn, int batchSize, int commitInterval) {
+        if (batchSize < 1 || commitInterval < 1)
+            throw new IllegalArgumentException("BatchWriter -- batch size and commit interval must be positive: "
+                    + batchSize + ", " + commitInterval);
+        this.conn = conn;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+    }
+
+    public PreparedStatement prepare(String sql) throws Exception {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        statements.add(stmt);
+        return stmt;
+    }
+
+    /**
+     * Adds the row whose parameters have been set on the statement.
+     */
+    public void addRow(PreparedStatement stmt) throws Exception {
+        stmt.addBatch();
+        written++;
+        if (++batched >= batchSize)
+            flush();
+        if (++uncommitted >= commitInterval)
+            commit();
+    }
+
+    /**
+     * Sends the rows added so far.
+     */
+    public void flush() throws Exception {
+        if (batched == 0)
+            return;
+        for (PreparedStatement stmt : statements)
+            stmt.executeBatch();
+        batched = 0;
+    }
+
+    /**
+     * Sends and commits the rows added so far.
+     */
+    public void commit() throws Exception {
+        flush();
+        conn.commit();
+        uncommitted = 0;
+    }
+
+    public long getRowsWritten() {
+        return written;
+    }
+
+    /**
+     * Closes the statements; rows not committed yet are left to the caller.
+     */
+    public void close() {
+        for (PreparedStatement stmt : statements) {
+            try {
+                stmt.close();
+            } catch (Exception e) {
+                Log.debug("BatchWriter:close() - Ignored exception closing a statement: " + e);
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.daytrader.javaee6.core.direct;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of database connections a service uses at the same time.
+ *
+ * A service acquires a permit before it takes a connection from its datasource
+ * and releases it when the connection is closed. With a limit of 0 nothing is
+ * bounded, but the concurrency is still measured: the peak number of
+ * connections in use is the number the connection pool has to provide to serve
+ * the same load without waiting, which is the figure to size the pool (and the
+ * worker thread pool in front of it) by.
+ *
+ * Requests that cannot get a permit within the timeout fail the way a pool
+ * acquisition timeout does, rather than queueing without bound.
+ */
+public class ConcurrencyLimiter {
+
+    private final String name;
+    private final int limit;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakWaiting = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param name          the datasource the limiter guards, used in messages
+     * @param limit         the maximum number of connections in use at once, or 0
+     *                      for no limit
+     * @param timeoutMillis how long to wait for a permit
+     */
+    public ConcurrencyLimiter(String name, int limit, long timeoutMillis) {
+        this.name = name;
+        this.limit = Math.max(limit, 0);
+        this.timeoutMillis = timeoutMillis;
+        this.permits = (this.limit > 0) ? new Semaphore(this.limit, true) : null;
+    }
+
+    /**
+     * Waits for a permit. Every successful call must be matched by a call to
+     * {@link #release()}.
+     *
+     * @throws SQLTransientConnectionException if no permit is available in time
+     */
+    public void acquire() throws SQLTransientConnectionException, InterruptedException {
+        if (permits != null && !permits.tryAcquire()) {
+            long start = System.nanoTime();
+            peakWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+            boolean granted;
+            try {
+                granted = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                waiting.decrementAndGet();
+            }
+            long waited = System.nanoTime() - start;
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (!granted) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("ConcurrencyLimiter:acquire -- no connection to " + name
+                        + " available within " + timeoutMillis + "ms (limit " + limit + ")");
+            }
+        }
+        acquired.incrementAndGet();
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+    }
+
+    public void release() {
+        inUse.decrementAndGet();
+        if (permits != null)
+            permits.release();
+    }
+
+    /**
+     * Returns the limit, the current and peak number of connections in use and of
+     * waiting requests, and the time spent waiting in milliseconds.
+     */
+    public Map<String, Object> getStatistics() {
+        long count = acquired.get();
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("datasource", name);
+        stats.put("limit", limit);
+        stats.put("timeoutMillis", timeoutMillis);
+        stats.put("inUse", inUse.get());
+        stats.put("peakInUse", peakInUse.get());
+        stats.put("waiting", waiting.get());
+        stats.put("peakWaiting", peakWaiting.get());
+        stats.put("acquired", count);
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgWaitMillis", (count == 0) ? 0.0 : totalWaitNanos.get() / 1.0e6 / count);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1.0e6);
+        return stats;
+    }
+
+    /**
+     * Clears the peaks and counters; the current number in use is kept.
+     */
+    public void resetStatistics() {
+        peakInUse.set(inUse.get());
+        peakWaiting.set(waiting.get());
+        acquired.set(0);
+        timeouts.set(0);
+        totalWaitNanos.set(0);
+        maxWaitNanos.set(0);
+    }
+}
@@ -16,10 +16,12 @@
  */
 package org.apache.geronimo.daytrader.javaee6.core.direct;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.HashMap;
-import java.util.ListIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -27,43 +29,80 @@ import java.sql.ResultSet;
 
 import org.apache.geronimo.daytrader.javaee6.utils.*;
 
+/**
+ * Allocates primary keys from blocks reserved in the keygenejb table.
+ *
+ * Each key name has its own sequence. Handing out a key is a single atomic
+ * increment on the current block, so callers only contend when a block is
+ * exhausted. When a block is three quarters used the next one is reserved in
+ * the background, so the refill is normally ready before it is needed.
+ *
+ * Blocks are reserved exactly as before: the keyval of the key name is read
+ * for update, the block [keyval, keyval + blockSize - 1] is handed out and
+ * keyval is advanced by blockSize.
+ */
 public class KeySequenceDirect {
 
-    private static HashMap keyMap = new HashMap();
+    private static ConcurrentHashMap<String, KeySequence> keyMap = new ConcurrentHashMap<String, KeySequence>();
+    private static final ConcurrentHashMap<String, Integer> blockSizes = new ConcurrentHashMap<String, Integer>();
+
+    // the connection is not thread safe; all block reservations go through this lock
+    private static final Object connLock = new Object();
     private static Connection conn = null;
 
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "KeySequenceDirect-prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
 	// re-factored this class so that it manages its own
     // connection instead of commiting another pending transaction
     // that may be in progress.  
-    public static synchronized void initialize(Connection conn) 
+    public static void initialize(Connection conn) 
     {
-    	KeySequenceDirect.keyMap = new HashMap();
-       	try 
-    	{
-    		if (KeySequenceDirect.conn != null) KeySequenceDirect.conn.close();
-    	} 
-    	catch (Throwable t) 
-    	{
-     		Log.error("Ignored exception closing a connection.", t);
-    	}
-    	KeySequenceDirect.conn = conn;    	
+        synchronized (connLock) {
+            KeySequenceDirect.keyMap = new ConcurrentHashMap<String, KeySequence>();
+            try 
+            {
+                if (KeySequenceDirect.conn != null) KeySequenceDirect.conn.close();
+            } 
+            catch (Throwable t) 
+            {
+                Log.error("Ignored exception closing a connection.", t);
+            }
+            KeySequenceDirect.conn = conn;
+        }
+    }
+
+    /**
+     * Sets the number of keys reserved at a time for the key name. Takes effect
+     * with the next block reserved.
+     */
+    public static void setBlockSize(String keyName, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("KeySequenceDirect:setBlockSize -- block size must be positive: " + blockSize);
+        blockSizes.put(keyName, blockSize);
+    }
+
+    public static int getBlockSize(String keyName) {
+        Integer blockSize = blockSizes.get(keyName);
+        return (blockSize != null) ? blockSize : TradeConfig.KEYBLOCKSIZE;
     }
 
-    public static synchronized Integer getNextID(String keyName)
+    public static int getNextID(String keyName)
         throws Exception {
-        Integer nextID = null;
-        // First verify we have allocated a block of keys
-        // for this key name
-        // Then verify the allocated block has not been depleted
-        // allocate a new block if necessary
-        if (keyMap.containsKey(keyName) == false) allocNewBlock(keyName);
-        Collection block = (Collection) keyMap.get(keyName);
-
-        Iterator ids = block.iterator();
-        if (ids.hasNext() == false)
-            ids = allocNewBlock(keyName).iterator();
-        // get and return a new unique key
-        nextID = (Integer) ids.next();
+        KeySequence sequence = keyMap.get(keyName);
+        if (sequence == null) {
+            KeySequence newSequence = new KeySequence(keyName);
+            sequence = keyMap.putIfAbsent(keyName, newSequence);
+            if (sequence == null)
+                sequence = newSequence;
+        }
+
+        int nextID = sequence.next();
 
         if (Log.doTrace())
             Log.trace("KeySequenceDirect:getNextID()--> Returning new PK ID for Entity type: "
@@ -71,56 +110,195 @@ public class KeySequenceDirect {
         return nextID;
     }
 
-    private static Collection allocNewBlock(String keyName) throws Exception 
-    {
-    	Collection block = null;
-        try 
-        {	
-            PreparedStatement stmt = conn.prepareStatement(getKeyForUpdateSQL);
-            stmt.setString(1, keyName);
-            ResultSet rs = stmt.executeQuery();
-            if (!rs.next()) 
+    /**
+     * Reserves count consecutive keys for the key name with a single update of
+     * keygenejb and returns the first of them, for bulk loads that would
+     * otherwise take their keys one at a time. The keys never overlap those
+     * handed out by getNextID.
+     */
+    public static int reserveIDs(String keyName, int count)
+        throws Exception {
+        if (count < 1)
+            throw new IllegalArgumentException("KeySequenceDirect:reserveIDs -- count must be positive: " + count);
+
+        KeySequence sequence = keyMap.get(keyName);
+        KeyRange block = allocNewBlock(keyName, (sequence == null) ? null : sequence.current, count);
+
+        if (Log.doTrace())
+            Log.trace("KeySequenceDirect:reserveIDs()--> Reserved " + count + " PK IDs for Entity type: "
+                + keyName + " from ID=" + block.min);
+        return block.min;
+    }
+
+    /**
+     * A reserved block of keys. The cursor may run past max when several
+     * threads race for the last keys; those callers move on to the next block.
+     */
+    private static final class KeyRange {
+        final int min;
+        final int max;
+        final int prefetchAt;
+        final AtomicInteger cursor;
+
+        KeyRange(int min, int max) {
+            this.min = min;
+            this.max = max;
+            this.prefetchAt = min + ((max - min + 1) * 3) / 4;
+            this.cursor = new AtomicInteger(min);
+        }
+
+        // the first key not handed out from this block
+        int nextUnused() {
+            return Math.min(cursor.get(), max + 1);
+        }
+    }
+
+    private static final class KeySequence {
+        private final String keyName;
+        private volatile KeyRange current;
+        private CompletableFuture<KeyRange> prefetched;
+
+        KeySequence(String keyName) {
+            this.keyName = keyName;
+        }
+
+        int next() throws Exception {
+            while (true) {
+                KeyRange range = current;
+                if (range != null) {
+                    int id = range.cursor.getAndIncrement();
+                    if (id <= range.max) {
+                        // exactly one caller sees the prefetch mark
+                        if (id == range.prefetchAt)
+                            prefetch();
+                        return id;
+                    }
+                }
+                refill(range);
+            }
+        }
+
+        private synchronized void prefetch() {
+            if (prefetched != null)
+                return;
+            final KeyRange last = current;
+            prefetched = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return allocNewBlock(keyName, last, getBlockSize(keyName));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, prefetcher);
+        }
+
+        private synchronized void refill(KeyRange depleted) throws Exception {
+            if (current != depleted)
+                return; // another caller has already moved on to a new block
+
+            KeyRange range = null;
+            if (prefetched != null) {
+                try {
+                    range = prefetched.join();
+                } catch (Exception e) {
+                    Log.error(e, "KeySequenceDirect:refill -- prefetch failed, reserving block for " + keyName + " directly");
+                }
+                prefetched = null;
+            }
+            if (range == null)
+                range = allocNewBlock(keyName, depleted, getBlockSize(keyName));
+            current = range;
+        }
+    }
+
+    /**
+     * Makes sure no key below nextID is handed out from now on, for bulk loads
+     * that number their rows themselves. The block being handed out is dropped if
+     * it could still give out such a key.
+     */
+    public static void skipTo(String keyName, int nextID)
+        throws Exception {
+        synchronized (connLock) {
+            try 
             {
-                // No keys found for this name - create a new one
-                PreparedStatement stmt2 = conn.prepareStatement(createKeySQL);
-                // fix unique constraint exception
-                int keyVal = 0;
-                if (keyMap.containsKey(keyName))
+                PreparedStatement stmt = conn.prepareStatement(getKeyForUpdateSQL);
+                stmt.setString(1, keyName);
+                ResultSet rs = stmt.executeQuery();
+                boolean exists = rs.next();
+                int keyVal = exists ? rs.getInt("keyval") : 0;
+                stmt.close();
+
+                if (!exists) {
+                    stmt = conn.prepareStatement(createKeySQL);
+                    stmt.setString(1, keyName);
+                    stmt.setInt(2, nextID);
+                    stmt.executeUpdate();
+                    stmt.close();
+                } else if (keyVal < nextID) {
+                    stmt = conn.prepareStatement(updateKeyValueSQL);
+                    stmt.setInt(1, nextID);
+                    stmt.setString(2, keyName);
+                    stmt.executeUpdate();
+                    stmt.close();
+                }
+                conn.commit();
+            } catch (Exception e) {
+                conn.rollback();
+                throw new Exception("Failure to skip the keys of entity: " + keyName + " to " + nextID, e);
+            }
+
+            KeySequence sequence = keyMap.get(keyName);
+            KeyRange range = (sequence == null) ? null : sequence.current;
+            if (range != null && range.nextUnused() < nextID)
+                keyMap.remove(keyName, sequence);
+        }
+    }
+
+    private static KeyRange allocNewBlock(String keyName, KeyRange last, int blockSize) throws Exception 
+    {
+        synchronized (connLock) {
+            KeyRange block = null;
+            try 
+            {	
+                PreparedStatement stmt = conn.prepareStatement(getKeyForUpdateSQL);
+                stmt.setString(1, keyName);
+                ResultSet rs = stmt.executeQuery();
+                if (!rs.next()) 
                 {
-                    KeyBlock innerBlock = (KeyBlock) keyMap.get(keyName);
-                    ListIterator ids = innerBlock.listIterator();
-                    if (ids.hasPrevious() == true)
-                	   keyVal = (Integer)ids.previous() + 1; 
+                    // No keys found for this name - create a new one
+                    PreparedStatement stmt2 = conn.prepareStatement(createKeySQL);
+                    // fix unique constraint exception
+                    int keyVal = 0;
+                    if (last != null)
+                        keyVal = last.nextUnused();
+                    stmt2.setString(1, keyName);
+                    stmt2.setInt(2, keyVal);
+                    stmt2.executeUpdate();
+                    stmt2.close();
+                    stmt.close();
+                    stmt = conn.prepareStatement(getKeyForUpdateSQL);
+                    stmt.setString(1, keyName);
+                    rs = stmt.executeQuery();
+                    rs.next();
                 }
-                stmt2.setString(1, keyName);
-                stmt2.setInt(2, keyVal);
-                stmt2.executeUpdate();
-                stmt2.close();
+                int keyVal = rs.getInt("keyval");
                 stmt.close();
-                stmt = conn.prepareStatement(getKeyForUpdateSQL);
-                stmt.setString(1, keyName);
-                rs = stmt.executeQuery();
-                rs.next();
+
+                stmt = conn.prepareStatement(updateKeyValueSQL);
+                stmt.setInt(1, keyVal + blockSize);
+                stmt.setString(2, keyName);
+                stmt.executeUpdate();
+                stmt.close();
+
+                block = new KeyRange(keyVal, keyVal + blockSize - 1);
+               	conn.commit();
+            } catch (Exception e) {
+                conn.rollback();
+                throw new Exception("Failure to allocate new block of keys for entity: " + keyName, e);
+            } finally {
+                // Do not release this connection. Keygen will use it until re-initialized
             }
-            int keyVal = rs.getInt("keyval");
-            stmt.close();
-
-            stmt = conn.prepareStatement(updateKeyValueSQL);
-            stmt.setInt(1, keyVal + TradeConfig.KEYBLOCKSIZE);
-            stmt.setString(2, keyName);
-            stmt.executeUpdate();
-            stmt.close();
-
-            block = new KeyBlock(keyVal, keyVal + TradeConfig.KEYBLOCKSIZE - 1);
-            keyMap.put(keyName, block);
-           	conn.commit();
-        } catch (Exception e) {
-            conn.rollback();
-            throw new Exception("Failure to allocate new block of keys for entity: " + keyName, e);
-        } finally {
-            // Do not release this connection. Keygen will use it until re-initialized
+            return block;
         }
-        return block;
     }
 
     private static final String getKeyForUpdateSQL = "select * from keygenejb kg where kg.keyname = ?  for update";
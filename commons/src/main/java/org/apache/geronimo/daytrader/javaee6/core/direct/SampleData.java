@@ -0,0 +1,85 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.core.direct;
+
+import java.util.Random;
+
+/**
+ * Generates the sample data of one row of tradeBuildDB, in the same form as the
+ * TradeConfig rnd methods.
+ *
+ * With a seed, the data of a row depends only on the seed and the row's index
+ * (the n of uid:n or s:n), so a build gives the same database however it is
+ * split into ranges and in whatever order the ranges run. Without one, the data
+ * is random as before.
+ */
+public class SampleData {
+
+    private final Random random;
+
+    private SampleData(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @param seed  the seed of the build, or null for random data
+     * @param index the index of the row
+     */
+    public static SampleData forRow(Long seed, long index) {
+        if (seed == null)
+            return new SampleData(new Random());
+        // spread consecutive indexes apart so neighbouring rows do not get related sequences
+        return new SampleData(new Random(seed.longValue() ^ (index * 0x9E3779B97F4A7C15L)));
+    }
+
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    public String address() {
+        return nextInt(1000) + " Oak St.";
+    }
+
+    public String creditCard() {
+        return nextInt(100) + "-" + nextInt(1000) + "-" + nextInt(1000) + "-" + nextInt(1000);
+    }
+
+    public String email(String userID) {
+        return userID + "@" + nextInt(100) + ".com";
+    }
+
+    public String fullName() {
+        return "first:" + nextInt(1000) + " last:" + nextInt(5000);
+    }
+
+    public float price() {
+        return nextInt(200) + 1.0f;
+    }
+
+    public float quantity() {
+        return nextInt(200) + 1.0f;
+    }
+
+    /**
+     * Returns the index n of one of the symbols s:0 to s:(maxQuotes - 2), as
+     * TradeConfig.rndSymbol picks them.
+     */
+    public int symbolIndex(int maxQuotes) {
+        return nextInt(Math.max(maxQuotes - 1, 1));
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.core.direct;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the key allocator against keygenejb in an in-memory Derby database.
+ */
+public class KeySequenceDirectTest {
+
+    private static final String URL = "jdbc:derby:memory:keygen";
+
+    // makes the next statement prepared on the key connection fail, once
+    private static final AtomicBoolean failNext = new AtomicBoolean();
+
+    @BeforeAll
+    static void createTable() throws Exception {
+        Connection conn = DriverManager.getConnection(URL + ";create=true");
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("create table keygenejb (keyname varchar(250) not null primary key, keyval integer not null)");
+        stmt.close();
+        conn.close();
+    }
+
+    @AfterAll
+    static void dropDatabase() {
+        try {
+            DriverManager.getConnection(URL + ";drop=true");
+        } catch (SQLException e) {
+            // a dropped database always reports an exception
+        }
+    }
+
+    @BeforeEach
+    void initialize() throws Exception {
+        final Connection conn = DriverManager.getConnection(URL);
+        conn.setAutoCommit(false);
+        failNext.set(false);
+        KeySequenceDirect.initialize((Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement") && failNext.compareAndSet(true, false))
+                        throw new SQLException("injected failure");
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+
+    @Test
+    void concurrentCallersGetUniqueIDs() throws Exception {
+        // small blocks, so the callers race through many refills and prefetches
+        KeySequenceDirect.setBlockSize("concurrent", 16);
+        List<Integer> ids = collect(8, 2000, () -> KeySequenceDirect.getNextID("concurrent"));
+
+        assertEquals(8 * 2000, ids.size());
+        assertEquals(ids.size(), new HashSet<Integer>(ids).size());
+    }
+
+    @Test
+    void failedPrefetchFallsBackToDirectAllocation() throws Exception {
+        KeySequenceDirect.setBlockSize("prefetch", 4);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++)
+            ids.add(KeySequenceDirect.getNextID("prefetch"));
+
+        // the fourth key of the block starts the prefetch of the next block
+        failNext.set(true);
+        ids.add(KeySequenceDirect.getNextID("prefetch"));
+        for (int i = 0; i < 6; i++)
+            ids.add(KeySequenceDirect.getNextID("prefetch"));
+
+        assertFalse(failNext.get(), "the prefetch did not run");
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++)
+            expected.add(i);
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    void reservedAndSkippedKeysNeverOverlapGetNextID() throws Exception {
+        KeySequenceDirect.setBlockSize("mixed", 16);
+        final Set<Integer> reserved = Collections.synchronizedSet(new HashSet<Integer>());
+
+        ExecutorService bulk = Executors.newSingleThreadExecutor();
+        Future<?> loads = bulk.submit(() -> {
+            for (int i = 0; i < 50; i++) {
+                int first = KeySequenceDirect.reserveIDs("mixed", 25);
+                for (int id = first; id < first + 25; id++)
+                    assertTrue(reserved.add(id), "key reserved twice: " + id);
+                if (i % 10 == 9)
+                    KeySequenceDirect.skipTo("mixed", first + 25 + 100);
+            }
+            return null;
+        });
+        List<Integer> ids = collect(4, 1000, () -> KeySequenceDirect.getNextID("mixed"));
+        loads.get();
+        bulk.shutdown();
+
+        assertEquals(ids.size(), new HashSet<Integer>(ids).size());
+        for (Integer id : ids)
+            assertFalse(reserved.contains(id), "key handed out and reserved: " + id);
+
+        int next = KeySequenceDirect.reserveIDs("mixed", 1) + 1000;
+        KeySequenceDirect.skipTo("mixed", next);
+        assertTrue(KeySequenceDirect.getNextID("mixed") >= next);
+    }
+
+    private static List<Integer> collect(int threads, final int perThread, final Callable<Integer> nextID)
+            throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(callers.submit(() -> {
+                List<Integer> ids = new ArrayList<Integer>();
+                for (int i = 0; i < perThread; i++)
+                    ids.add(nextID.call());
+                return ids;
+            }));
+        }
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Future<List<Integer>> future : futures)
+            ids.addAll(future.get());
+        callers.shutdown();
+        return ids;
+    }
+}
@@ -34,21 +34,25 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
-import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
 // Daytrader
-import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountProfileDataBean;
-import org.apache.geronimo.daytrader.javaee6.entities.HoldingDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 // DayTrader
 import org.apache.geronimo.daytrader.javaee6.gateway.service.GatewayService;
 import org.apache.geronimo.daytrader.javaee6.gateway.utils.Log;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 
 /**
  * API endpoints are documented using Swagger UI.
@@ -75,6 +79,9 @@ import org.apache.geronimo.daytrader.javaee6.gateway.utils.Log;
  *
  *      - PATCH is used for partial updates
  *
+ *      Endpoints return a Uni so they are served on the event loop. The gateway
+ *      only forwards to the microservices and never blocks while it waits.
+ *
  *      TODO: 1. Access Control The controller provides a centralized location
  *      for access control. Currently, the application does not check to see is
  *      a user is logged in before invoking a method. So access control checks
@@ -96,7 +103,7 @@ public class GatewayController {
      */
     @Path("/accounts")
     @POST
-    public Response register(AccountDataBean accountData) {
+    public Uni<Response> register(AccountDataBean accountData) {
         Log.traceEnter("GatewayController.register()");
         // Get the registration data
         String userID = accountData.getProfileID();
@@ -107,17 +114,16 @@ public class GatewayController {
         String creditCard = accountData.getProfile().getCreditCard();
         BigDecimal openBalance = accountData.getOpenBalance();
 
-        try {
-            // Register the user
-            accountData = gatewayService.register(userID, password, fullname, address, email, creditCard, openBalance);
-            Log.traceExit("GatewayController.register()");
-            // TODO Auto-generated method stub
-            return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(accountData).build();
-        } catch (Throwable t) {
-            Log.error("GatewayController.register()", t);
-            // TODO Auto-generated method stub
-            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        // Register the user
+        return gatewayService.register(userID, password, fullname, address, email, creditCard, openBalance)
+                .map(registered -> {
+                    Log.traceExit("GatewayController.register()");
+                    return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(registered)
+                            .build();
+                }).onFailure().recoverWithItem(t -> {
+                    Log.error("GatewayController.register()", t);
+                    return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+                });
     }
 
     /**
@@ -126,27 +132,17 @@ public class GatewayController {
      */
     @Path("/accounts/{userId}/profiles")
     @PUT
-    public Response updateAccountProfile(@PathParam("userId") String userId, AccountProfileDataBean profileData) {
+    public Uni<Response> updateAccountProfile(@PathParam("userId") String userId,
+            AccountProfileDataBean profileData) {
         Log.traceEnter("GatewayController.updateAccountProfile()");
 
-        try {
-            profileData = gatewayService.updateAccountProfile(profileData);
-            if (profileData != null) {
-                Log.traceExit("GatewayController.updateAccountProfile()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(profileData).build();
-            } else {
-                Log.traceExit("GatewayController.updateAccountProfile()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(profileData)
-                        .build();
-            }
-        } catch (Throwable t) {
+        return gatewayService.updateAccountProfile(profileData).map(updated -> {
+            Log.traceExit("GatewayController.updateAccountProfile()");
+            return okOrNoContent(updated);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.updateAccountProfile()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
-
+        });
     }
 
     /**
@@ -155,26 +151,16 @@ public class GatewayController {
      */
     @Path("/accounts/{userId}/profiles")
     @GET
-    public Response getAccountProfileData(@PathParam("userId") String userId) {
+    public Uni<Response> getAccountProfileData(@PathParam("userId") String userId) {
         Log.traceEnter("GatewayController.getAccountProfileData()");
-        AccountProfileDataBean profileData = null;
-        try {
-            profileData = gatewayService.getAccountProfileData(userId);
-            if (profileData != null) {
-                Log.traceExit("GatewayController.getAccountProfileData()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(profileData).build();
-            } else {
-                Log.traceExit("GatewayController.getAccountProfileData()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(profileData)
-                        .build();
-            }
-        } catch (Throwable t) {
+
+        return gatewayService.getAccountProfileData(userId).map(profileData -> {
+            Log.traceExit("GatewayController.getAccountProfileData()");
+            return okOrNoContent(profileData);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getAccountProfileData()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -183,27 +169,16 @@ public class GatewayController {
      */
     @Path("/accounts/{userId}")
     @GET
-    public Response getAccountData(@PathParam("userId") String userId) {
+    public Uni<Response> getAccountData(@PathParam("userId") String userId) {
         Log.traceEnter("GatewayController.getAccountData()");
-        AccountDataBean accountData = null;
-        try {
-            accountData = gatewayService.getAccountData(userId);
-            if (accountData != null) {
-                Log.traceExit("GatewayController.getAccountData()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(accountData).build();
-            } else {
-                Log.traceExit("GatewayController.getAccountData()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(accountData)
-                        .build();
-            }
-        } catch (Throwable t) {
+
+        return gatewayService.getAccountData(userId).map(accountData -> {
+            Log.traceExit("GatewayController.getAccountData()");
+            return okOrNoContent(accountData);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getAccountData()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
-
+        });
     }
 
     //
@@ -216,23 +191,19 @@ public class GatewayController {
      */
     @Path("/login/{userId}")
     @PATCH
-    public Response login(@PathParam("userId") String userId, String password) {
+    public Uni<Response> login(@PathParam("userId") String userId, String password) {
         Log.traceEnter("GatewayController.login()");
-        AccountDataBean accountData = null;
-        try {
-            accountData = gatewayService.login(userId, password);
+
+        return gatewayService.login(userId, password).map(accountData -> {
             Log.traceExit("GatewayController.login()");
-            // TODO Auto-generated method stub
             return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(accountData).build();
-        } catch (NotAuthorizedException nae) {
-            Log.error("AccountsController.login()", nae);
-            // TODO Auto-generated method stub
+        }).onFailure(NotAuthorizedException.class).recoverWithItem(nae -> {
+            Log.error("GatewayController.login()", nae);
             return Response.status(Status.UNAUTHORIZED).build();
-        } catch (Throwable t) {
-            Log.error("AccountsController.login()", t);
-            // TODO Auto-generated method stub
+        }).onFailure().recoverWithItem(t -> {
+            Log.error("GatewayController.login()", t);
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -241,18 +212,16 @@ public class GatewayController {
      */
     @Path("/logout/{userId}")
     @PATCH
-    public Response logout(@PathParam("userId") String userId) {
+    public Uni<Response> logout(@PathParam("userId") String userId) {
         Log.traceEnter("GatewayController.logout()");
-        try {
-            gatewayService.logout(userId);
+
+        return gatewayService.logout(userId).map(ignored -> {
             Log.traceExit("GatewayController.logout()");
-            // TODO Auto-generated method stub
             return Response.status(Status.OK).entity(true).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.logout()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     //
@@ -260,51 +229,45 @@ public class GatewayController {
     //
 
     /**
-     * REST call to populate the database with the specified users and quotes
+     * REST call to populate the database with the specified users; seed and
+     * maxQuotes are optional and passed on to the microservices
      *
      */
     @Path("/admin/tradeBuildDB")
     @POST
-    public Response tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset) {
+    public Uni<Response> tradeBuildDB(@QueryParam(value = "limit") int limit,
+            @QueryParam(value = "offset") int offset, @QueryParam(value = "seed") Long seed,
+            @QueryParam(value = "maxQuotes") Integer maxQuotes) {
         Log.traceEnter("GatewayController.tradeBuildDB()");
 
-        Boolean success = false;
-
-        try {
-            // Register the user
-            success = gatewayService.tradeBuildDB(limit, offset);
+        return gatewayService.tradeBuildDB(limit, offset, seed, maxQuotes).map(success -> {
             Log.traceExit("GatewayController.tradeBuildDB()");
-            // TODO Auto-generated method stub
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(success).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.tradeBuildDB()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
-     * REST call to populate the database with the specified users and quotes
+     * REST call to populate the database with the specified quotes; seed is
+     * optional and passed on to the quotes microservice
      *
      */
     @Path("/admin/quotesBuildDB")
     @POST
-    public Response quotesBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset) {
+    public Uni<Response> quotesBuildDB(@QueryParam(value = "limit") int limit,
+            @QueryParam(value = "offset") int offset, @QueryParam(value = "seed") Long seed) {
         Log.traceEnter("GatewayController.quotesBuildDB()");
 
-        Boolean success = false;
-
-        try {
-            // Create the quotes
-            success = gatewayService.quotesBuildDB(limit, offset);
+        // Create the quotes
+        return gatewayService.quotesBuildDB(limit, offset, seed).map(success -> {
             Log.traceExit("GatewayController.quotesBuildDB()");
-            // TODO Auto-generated method stub
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(success).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.quotesBuildDB()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -313,21 +276,16 @@ public class GatewayController {
      */
     @Path("/admin/recreateDBTables")
     @POST
-    public Response recreateDBTables() {
+    public Uni<Response> recreateDBTables() {
         Log.traceEnter("GatewayController.recreateDBTables()");
 
-        Boolean result = false;
-
-        try {
-            result = gatewayService.recreateDBTables();
+        return gatewayService.recreateDBTables().map(result -> {
             Log.traceExit("GatewayController.recreateDBTables()");
-            // TODO Auto-generated method stub
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(result).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayContoller.recreateDBTables()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -336,28 +294,16 @@ public class GatewayController {
      */
     @Path("/admin/resetTrade")
     @GET
-    public Response resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll) {
+    public Uni<Response> resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll) {
         Log.traceEnter("GatewayController.resetData()");
 
-        RunStatsDataBean runStatsData = null;
-
-        try {
-            runStatsData = gatewayService.resetTrade(deleteAll);
-            if (runStatsData != null) {
-                Log.traceExit("GatewayController.resetTrade()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(runStatsData).build();
-            } else {
-                Log.traceExit("GatewayController.resetTrade()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(runStatsData)
-                        .build();
-            }
-        } catch (Throwable t) {
+        return gatewayService.resetTrade(deleteAll).map(runStatsData -> {
+            Log.traceExit("GatewayController.resetTrade()");
+            return okOrNoContent(runStatsData);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.resetTrade()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     //
@@ -370,27 +316,16 @@ public class GatewayController {
      */
     @Path("/portfolios/{userId}/holdings")
     @GET
-    public Response getHoldings(@PathParam("userId") String userId) {
+    public Uni<Response> getHoldings(@PathParam("userId") String userId) {
         Log.traceEnter("GatewayController.getHoldings()");
 
-        Collection<HoldingDataBean> holdings = null;
-
-        try {
-            holdings = gatewayService.getHoldings(userId);
-            if (holdings != null) {
-                Log.traceExit("GatewayController.getHoldings()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(holdings).build();
-            } else {
-                Log.traceExit("GatewayController.getHoldings()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(holdings).build();
-            }
-        } catch (Throwable t) {
+        return gatewayService.getHoldings(userId).map(holdings -> {
+            Log.traceExit("GatewayController.getHoldings()");
+            return okOrNoContent(holdings);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getHoldings()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -399,27 +334,16 @@ public class GatewayController {
      */
     @Path("/portfolios/{userId}/orders")
     @GET
-    public Response getOrders(@PathParam("userId") String userId) {
+    public Uni<Response> getOrders(@PathParam("userId") String userId) {
         Log.traceEnter("GatewayController.getOrders()");
 
-        Collection<OrderDataBean> orders = null;
-
-        try {
-            orders = gatewayService.getOrders(userId);
-            if (orders != null) {
-                Log.traceExit("GatewayController.getOrders()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(orders).build();
-            } else {
-                Log.traceExit("GatewayController.getOrders()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(orders).build();
-            }
-        } catch (Throwable t) {
+        return gatewayService.getOrders(userId).map(orders -> {
+            Log.traceExit("GatewayController.getOrders()");
+            return okOrNoContent(orders);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getOrders()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -432,36 +356,25 @@ public class GatewayController {
      */
     @Path("/portfolios/{userId}/orders")
     @PATCH
-    public Response getOrdersByStatus(@PathParam("userId") String userId, @QueryParam(value = "status") String status) {
+    public Uni<Response> getOrdersByStatus(@PathParam("userId") String userId,
+            @QueryParam(value = "status") String status) {
         Log.traceEnter("GatewayController.getOrdersByStatus()");
 
-        Collection<OrderDataBean> orders = new ArrayList<OrderDataBean>();
-
-        try {
-            if (status.equals("closed")) {
-                orders = gatewayService.getClosedOrders(userId);
-                if (orders != null) {
-                    Log.traceExit("GatewayController.getOrdersByStatus()");
-                    // TODO Auto-generated method stub
-                    return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(orders).build();
-                } else {
-                    Log.traceExit("GatewayController.getOrdersByStatus()");
-                    // TODO Auto-generated method stub
-                    return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(orders)
-                            .build();
-                }
-            } else {
-                Throwable t = new Throwable("GatewayController.getOrdersByStatus: invalid status=" + status
-                        + " valid statuses are 'closed'");
-                Log.error("GatewayController.getOrdersByStatus()", t);
-                // TODO Auto-generated method stub
-                return Response.status(Status.BAD_REQUEST).header("Cache-Control", "no-cache").entity(orders).build();
-            }
-        } catch (Throwable t) {
+        if (!"closed".equals(status)) {
+            Throwable t = new Throwable("GatewayController.getOrdersByStatus: invalid status=" + status
+                    + " valid statuses are 'closed'");
             Log.error("GatewayController.getOrdersByStatus()", t);
-            // TODO Auto-generated method stub
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(orders).build();
+            return Uni.createFrom().item(Response.status(Status.BAD_REQUEST).header("Cache-Control", "no-cache")
+                    .entity(new ArrayList<OrderDataBean>()).build());
         }
+
+        return gatewayService.getClosedOrders(userId).map(orders -> {
+            Log.traceExit("GatewayController.getOrdersByStatus()");
+            return okOrNoContent(orders);
+        }).onFailure().recoverWithItem(t -> {
+            Log.error("GatewayController.getOrdersByStatus()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new ArrayList<OrderDataBean>()).build();
+        });
     }
 
     /**
@@ -473,61 +386,39 @@ public class GatewayController {
      */
     @Path("/portfolios/{userId}/orders")
     @POST
-    public Response processOrder(@PathParam("userId") String userId, OrderDataBean orderData,
+    public Uni<Response> processOrder(@PathParam("userId") String userId, OrderDataBean orderData,
             @QueryParam(value = "mode") Integer mode) {
         Log.traceEnter("GatewayController.processOrder()");
-        try // buy()
-        {
-            if (orderData.getOrderType().equals("buy")) {
-                // Buy the specified quantity of stock and add a holding to the portfolio
-                orderData = gatewayService.buy(userId, orderData.getSymbol(), orderData.getQuantity(), mode);
-                Log.traceExit("GatewayController.processOrder()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(orderData).build();
-            }
-        } catch (NotFoundException nfe) {
-            Log.error("PortfoliosController.processOrder()", nfe);
-            // TODO Auto-generated method stub
-            return Response.status(Status.NOT_FOUND).build();
-        } catch (ClientErrorException cee) {
-            Log.error("PortfoliosController.processOrder()", cee);
-            // TODO Auto-generated method stub
-            return Response.status(Status.CONFLICT).build();
-        } catch (Throwable t) {
+
+        Uni<OrderDataBean> order;
+        if ("buy".equals(orderData.getOrderType())) {
+            // Buy the specified quantity of stock and add a holding to the portfolio
+            order = gatewayService.buy(userId, orderData.getSymbol(), orderData.getQuantity(), mode);
+        } else if ("sell".equals(orderData.getOrderType())) {
+            // Sell the specified holding and remove it from the portfolio
+            order = gatewayService.sell(userId, orderData.getHoldingID(), mode);
+        } else {
+            // other
+            Throwable t = new BadRequestException(
+                    "Invalid order type=" + orderData.getOrderType() + " valid types are 'buy' and 'sell'");
             Log.error("GatewayController.processOrder()", t);
-            // TODO Auto-generated method stub
-            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+            return Uni.createFrom().item(
+                    Response.status(Status.BAD_REQUEST).header("Cache-Control", "no-cache").entity(orderData).build());
         }
 
-        try // sell()
-        {
-            if (orderData.getOrderType().equals("sell")) {
-                // Sell the specified holding and remove it from the portfolio
-                orderData = gatewayService.sell(userId, orderData.getHoldingID(), mode);
-                Log.traceExit("GatewayController.processOrder()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(orderData).build();
-            }
-        } catch (NotFoundException nfe) {
-            Log.error("PortfoliosController.processOrder()", nfe);
-            // TODO Auto-generated method stub
+        return order.map(processed -> {
+            Log.traceExit("GatewayController.processOrder()");
+            return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(processed).build();
+        }).onFailure(NotFoundException.class).recoverWithItem(nfe -> {
+            Log.error("GatewayController.processOrder()", nfe);
             return Response.status(Status.NOT_FOUND).build();
-        } catch (ClientErrorException cee) {
-            Log.error("PortfoliosController.processOrder()", cee);
-            // TODO Auto-generated method stub
+        }).onFailure(ClientErrorException.class).recoverWithItem(cee -> {
+            Log.error("GatewayController.processOrder()", cee);
             return Response.status(Status.CONFLICT).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.processOrder()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
-
-        // other
-        Throwable t = new BadRequestException(
-                "Invalid order type=" + orderData.getOrderType() + " valid types are 'buy' and 'sell'");
-        Log.error("GatewayController.processOrder()", t);
-        // TODO Auto-generated method stub
-        return Response.status(Status.BAD_REQUEST).header("Cache-Control", "no-cache").entity(orderData).build();
+        });
     }
 
     /**
@@ -536,70 +427,65 @@ public class GatewayController {
      */
     @Path("/quotes/{symbol}")
     @GET
-    public Response getQuote(@PathParam("symbol") String symbol) {
+    public Uni<Response> getQuote(@PathParam("symbol") String symbol) {
         Log.traceEnter("GatewayController.getQuote()");
 
-        QuoteDataBean quoteData = null;
-
-        try {
-            quoteData = gatewayService.getQuote(symbol);
-            if (quoteData != null) {
-                Log.traceExit("GatewayController.getQuote()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quoteData).build();
-            } else {
-                Log.traceExit("GatewayController.getQuote()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(quoteData).build();
-            }
-        } catch (Throwable t) {
+        return gatewayService.getQuote(symbol).map(quoteData -> {
+            Log.traceExit("GatewayController.getQuote()");
+            return okOrNoContent(quoteData);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getQuote()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
-     * REST call to get all quotes.
+     * REST call to get all quotes, or the quotes for a comma separated list of
+     * symbols, e.g. /quotes?symbols=s:1,s:2,s:3
      *
      */
     @Path("/quotes")
     @GET
-    public Response getAllQuotes(@QueryParam(value = "limit") Integer limit,
-            @QueryParam(value = "offset") Integer offset) {
+    public Uni<Response> getAllQuotes(@QueryParam(value = "limit") Integer limit,
+            @QueryParam(value = "offset") Integer offset, @QueryParam(value = "symbols") String symbols) {
         Log.traceEnter("GatewayController.getAllQuotes()");
 
-        Collection<QuoteDataBean> quotes = null;
-
-        try {
-            //
-            // - TODO: Currently get all quotes returns all resources. It is never a good
-            // idea to
-            // return all resources. So, refactor this method to take in the parameters
-            // limit &
-            // offset change the SQL query to use those values, e.g.
-            //
-            // SELECT * FROM quoteejb
-            // ORDER BY symbol
-            // LIMIT limit OFFSET offset;
-            //
-            // Note this offset pagination mechanism uses well known keywords from SQL
-            // databases
+        Uni<Collection<QuoteDataBean>> quotes;
+        if (symbols != null) {
+            quotes = gatewayService.getQuotes(symbols);
+        } else {
             quotes = gatewayService.getAllQuotes(limit, offset);
-            if (quotes != null) {
-                Log.traceExit("GatewayController.getAllQuotes()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quotes).build();
-            } else {
-                Log.traceExit("GatewayController.getAllQuotes()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(quotes).build();
-            }
-        } catch (Throwable t) {
+        }
+
+        return quotes.map(quoteDataBeans -> {
+            Log.traceExit("GatewayController.getAllQuotes()");
+            return okOrNoContent(quoteDataBeans);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getAllQuotes()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
+    }
+
+    /**
+     * REST call to stream quote changes as server-sent events, e.g.
+     * /quotes/stream?symbols=s:1,s:2. The events are passed through from the
+     * quotes microservice as they arrive.
+     *
+     * @see QuotesController#streamQuotes(String, Integer)
+     */
+    @Path("/quotes/stream")
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<QuoteDataBean> streamQuotes(@QueryParam(value = "symbols") String symbols,
+            @QueryParam(value = "tickMillis") Integer tickMillis) {
+        Log.traceEnter("GatewayController.streamQuotes()");
+
+        Multi<QuoteDataBean> quotes = gatewayService.streamQuotes(symbols, tickMillis)
+                .onFailure().invoke(t -> Log.error("GatewayController.streamQuotes()", t));
+
+        Log.traceExit("GatewayController.streamQuotes()");
+        return quotes;
     }
 
     /**
@@ -608,7 +494,7 @@ public class GatewayController {
      */
     @Path("/quotes")
     @POST
-    public Response createQuote(QuoteDataBean quoteData) {
+    public Uni<Response> createQuote(QuoteDataBean quoteData) {
         Log.traceEnter("GatewayController.createQuote()");
 
         // Get the quote data
@@ -616,17 +502,14 @@ public class GatewayController {
         String companyName = quoteData.getCompanyName();
         BigDecimal price = quoteData.getPrice();
 
-        try {
-            // Create the quote
-            quoteData = gatewayService.createQuote(symbol, companyName, price);
+        // Create the quote
+        return gatewayService.createQuote(symbol, companyName, price).map(created -> {
             Log.traceExit("GatewayController.createQuote()");
-            // TODO Auto-generated method stub
-            return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(quoteData).build();
-        } catch (Throwable t) {
+            return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(created).build();
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.createQuote()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     /**
@@ -636,29 +519,37 @@ public class GatewayController {
      */
     @Path("/quotes/{symbol}")
     @PATCH
-    public Response updateQuotePriceVolume(@PathParam("symbol") String symbol,
+    public Uni<Response> updateQuotePriceVolume(@PathParam("symbol") String symbol,
             @QueryParam(value = "price") BigDecimal price, @QueryParam(value = "volume") double volume) {
         Log.trace("GatewayController.updateQuotePriceVolume()");
 
-        QuoteDataBean quoteData = null;
-
-        try {
-            // Update the quote price volume
-            quoteData = gatewayService.updateQuotePriceVolume(symbol, price, volume);
-            if (quoteData != null) {
-                Log.traceExit("GatewayController.updateQuotePriceVolume()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quoteData).build();
-            } else {
-                Log.traceExit("GatewayController.updateQuotePriceVolume()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(quoteData).build();
-            }
-        } catch (Throwable t) {
+        // Update the quote price volume
+        return gatewayService.updateQuotePriceVolume(symbol, price, volume).map(quoteData -> {
+            Log.traceExit("GatewayController.updateQuotePriceVolume()");
+            return okOrNoContent(quoteData);
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.updateQuotePriceVolume()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
+    }
+
+    /**
+     * REST call to update the price and volume of several quotes at once using
+     * the updates provided in the request body.
+     *
+     */
+    @Path("/quotes")
+    @PATCH
+    public Uni<Response> updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates) {
+        Log.traceEnter("GatewayController.updateQuotePriceVolumes()");
+
+        return gatewayService.updateQuotePriceVolumes(updates).map(quotes -> {
+            Log.traceExit("GatewayController.updateQuotePriceVolumes()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quotes).build();
+        }).onFailure().recoverWithItem(t -> {
+            Log.error("GatewayController.updateQuotePriceVolumes()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        });
     }
 
     //
@@ -667,31 +558,33 @@ public class GatewayController {
 
     @Path("/markets/{exchange}")
     @GET
-    public Response getMarketSummary(@PathParam("exchange") String exchange) {
+    public Uni<Response> getMarketSummary(@PathParam("exchange") String exchange) {
         Log.traceEnter("GatewayController.getMarketSummary()");
 
-        MarketSummaryDataBean marketSummary = new MarketSummaryDataBean();
-
-        try {
-            marketSummary = gatewayService.getMarketSummary();
+        return gatewayService.getMarketSummary().map(marketSummary -> {
             Log.traceExit("GatewayController.getMarketSummary()");
-            // TODO Auto-generated method stub
             return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(marketSummary).build();
-        } catch (NotFoundException nfe) {
-            Log.error("QuotesController.getMarketSummary()", nfe);
-            // TODO Auto-generated method stub
+        }).onFailure(NotFoundException.class).recoverWithItem(nfe -> {
+            Log.error("GatewayController.getMarketSummary()", nfe);
             return Response.status(Status.NOT_FOUND).build();
-        } catch (Throwable t) {
+        }).onFailure().recoverWithItem(t -> {
             Log.error("GatewayController.getMarketSummary()", t);
-            // TODO Auto-generated method stub
             return Response.status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        });
     }
 
     //
     // Private helper functions
     //
 
+    /*
+     * OK with the entity, or NO_CONTENT if there is none
+     */
+    private static Response okOrNoContent(Object entity) {
+        Status status = (entity != null) ? Status.OK : Status.NO_CONTENT;
+        return Response.status(status).header("Cache-Control", "no-cache").entity(entity).build();
+    }
+
 //	private HttpHeaders getNoCacheHeaders()
 //	{
 //		HttpHeaders responseHeaders = new HttpHeaders();
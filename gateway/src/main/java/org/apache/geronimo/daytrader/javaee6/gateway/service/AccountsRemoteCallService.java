@@ -36,9 +36,14 @@ import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountProfileDataBean;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import io.smallrye.mutiny.Uni;
+
 /**
  * The remote call service to the accounts microservice.
  *
+ * The calls are non-blocking; each returns a Uni that completes when the
+ * response arrives.
+ *
  * @author
  *
  */
@@ -48,12 +53,13 @@ public interface AccountsRemoteCallService {
 
     /**
      *
-     * @see AccountsServices#tradeBuildDB(int,int)
+     * @see AccountsServices#tradeBuildDB(int,int,Long)
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
-    public boolean tradeBuildDB(@QueryParam("limit") int limit, @QueryParam("offset") int offset);
+    public Uni<Boolean> tradeBuildDB(@QueryParam("limit") int limit, @QueryParam("offset") int offset,
+            @QueryParam("seed") Long seed);
 
     /**
      *
@@ -63,7 +69,7 @@ public interface AccountsRemoteCallService {
     @GET
     @Path("/admin/resetTrade")
     @Produces(MediaType.APPLICATION_JSON)
-    public RunStatsDataBean resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
+    public Uni<RunStatsDataBean> resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
 
     /**
      * REST call to recreate dbtables
@@ -71,7 +77,7 @@ public interface AccountsRemoteCallService {
      */
     @POST
     @Path("/admin/recreateDBTables")
-    public boolean recreateDBTables();
+    public Uni<Boolean> recreateDBTables();
 
     /**
      *
@@ -81,7 +87,7 @@ public interface AccountsRemoteCallService {
     @GET
     @Path("/accounts/{userId}")
     @Produces(MediaType.APPLICATION_JSON)
-    public AccountDataBean getAccountData(@PathParam("userId") String userID);
+    public Uni<AccountDataBean> getAccountData(@PathParam("userId") String userID);
 
     /**
      *
@@ -91,7 +97,7 @@ public interface AccountsRemoteCallService {
     @GET
     @Path("/accounts/{userId}/profiles")
     @Produces(MediaType.APPLICATION_JSON)
-    public AccountProfileDataBean getAccountProfileData(@PathParam("userId") String userId);
+    public Uni<AccountProfileDataBean> getAccountProfileData(@PathParam("userId") String userId);
 
     /**
      *
@@ -102,7 +108,7 @@ public interface AccountsRemoteCallService {
     @Path("/accounts/{userId}/profiles")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public AccountProfileDataBean updateAccountProfile(@PathParam("userId") String userId,
+    public Uni<AccountProfileDataBean> updateAccountProfile(@PathParam("userId") String userId,
             AccountProfileDataBean profileData);
 
     /**
@@ -113,7 +119,7 @@ public interface AccountsRemoteCallService {
     @PATCH
     @Path("/login/{userId}")
     @Produces(MediaType.APPLICATION_JSON)
-    public AccountDataBean login(@PathParam("userId") String userId, String password);
+    public Uni<AccountDataBean> login(@PathParam("userId") String userId, String password);
 
     /**
      *
@@ -122,7 +128,7 @@ public interface AccountsRemoteCallService {
      */
     @PATCH
     @Path("/logout/{userId}")
-    public void logout(@PathParam("userId") String userId);
+    public Uni<Void> logout(@PathParam("userId") String userId);
 
     /**
      *
@@ -133,6 +139,6 @@ public interface AccountsRemoteCallService {
     @Path("/accounts")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public AccountDataBean register(AccountDataBean accountData);
+    public Uni<AccountDataBean> register(AccountDataBean accountData);
 
 }
\ No newline at end of file
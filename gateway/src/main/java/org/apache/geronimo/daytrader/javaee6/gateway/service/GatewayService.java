@@ -25,6 +25,7 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
 import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountProfileDataBean;
@@ -33,9 +34,16 @@ import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+
 /**
  * The remote call service to the trades services.
  *
+ * Every call is non-blocking. Calls to different microservices that do not
+ * depend on one another are sent together, so an aggregate operation takes as
+ * long as the slowest microservice rather than the sum of them.
+ *
  * @author
  *
  */
@@ -58,24 +66,26 @@ public class GatewayService {
     /**
      * @see TradeBuildDB#TradeBuildDB(PrintWriter, String)
      */
-    public boolean tradeBuildDB(int limit, int offset) throws Exception {
-        if (accountsService.tradeBuildDB(limit, offset)) {
-            return portfoliosService.tradeBuildDB(limit, offset);
-        }
-        return false;
+    public Uni<Boolean> tradeBuildDB(int limit, int offset, Long seed, Integer maxQuotes) {
+        // accounts and portfolios each generate the same users (uid:<offset> on) from
+        // the limit and offset alone, so they are populated at the same time
+        return Uni.combine().all()
+                .unis(accountsService.tradeBuildDB(limit, offset, seed),
+                        portfoliosService.tradeBuildDB(limit, offset, seed, maxQuotes))
+                .combinedWith((accounts, portfolios) -> accounts && portfolios);
     }
 
     /**
      * @see TradeBuildDB#TradeBuildDB(PrintWriter, String)
      */
-    public boolean quotesBuildDB(int limit, int offset) throws Exception {
-        return quotesService.tradeBuildDB(limit, offset);
+    public Uni<Boolean> quotesBuildDB(int limit, int offset, Long seed) {
+        return quotesService.tradeBuildDB(limit, offset, seed);
     }
 
     /**
      * @see TradeServices#resetTrade(boolean)
      */
-    public RunStatsDataBean resetTrade(boolean deleteAll) throws Exception {
+    public Uni<RunStatsDataBean> resetTrade(boolean deleteAll) {
         // Note elected to put the orchestration across these microservices in the
         // gateway
         // instead of picking one of the microservices to do so. If we were to pick one
@@ -91,10 +101,14 @@ public class GatewayService {
         // services architecture
 
         // Ask the microservices to reset their trades and return their usage data
-        RunStatsDataBean quoteStatsData = quotesService.resetTrade(deleteAll);
-        RunStatsDataBean portfolioStatsData = portfoliosService.resetTrade(deleteAll);
-        RunStatsDataBean accountStatsData = accountsService.resetTrade(deleteAll);
+        return Uni.combine().all()
+                .unis(quotesService.resetTrade(deleteAll), portfoliosService.resetTrade(deleteAll),
+                        accountsService.resetTrade(deleteAll))
+                .combinedWith(this::aggregateRunStats);
+    }
 
+    private RunStatsDataBean aggregateRunStats(RunStatsDataBean quoteStatsData, RunStatsDataBean portfolioStatsData,
+            RunStatsDataBean accountStatsData) {
         // Aggregate the results form the microservices
         RunStatsDataBean runStatsData = accountStatsData;
         runStatsData.setTradeStockCount(quoteStatsData.getTradeStockCount());
@@ -112,21 +126,19 @@ public class GatewayService {
     /**
      * @see TradeDBServices#recreateDBTables(Object[],PrintWriter)
      */
-    public boolean recreateDBTables() throws Exception {
-        // create the trade db
-        if (accountsService.recreateDBTables()) {
-            if (portfoliosService.recreateDBTables()) {
-                return quotesService.recreateDBTables();
-            }
-        }
-        return false;
+    public Uni<Boolean> recreateDBTables() {
+        // create the trade db; each microservice has its own database
+        return Uni.combine().all()
+                .unis(accountsService.recreateDBTables(), portfoliosService.recreateDBTables(),
+                        quotesService.recreateDBTables())
+                .combinedWith((accounts, portfolios, quotes) -> accounts && portfolios && quotes);
     }
 
     /**
      * @see TradeServices#buy(String,String,double,int)
      */
 
-    public OrderDataBean buy(String userID, String symbol, double quantity, int orderProcessingMode) throws Exception {
+    public Uni<OrderDataBean> buy(String userID, String symbol, double quantity, int orderProcessingMode) {
         // Construct the order data from the given params
         OrderDataBean orderData = new OrderDataBean();
         orderData.setSymbol(symbol);
@@ -139,7 +151,7 @@ public class GatewayService {
     /**
      * @see TradeServices#sell(String,Integer,int)
      */
-    public OrderDataBean sell(String userID, Integer holdingID, int orderProcessingMode) throws Exception {
+    public Uni<OrderDataBean> sell(String userID, Integer holdingID, int orderProcessingMode) {
         // Construct the order data from the given params
         OrderDataBean orderData = new OrderDataBean();
         orderData.setHoldingID(holdingID);
@@ -151,21 +163,21 @@ public class GatewayService {
     /**
      * @see TradeServices#getMarketSummary()
      */
-    public MarketSummaryDataBean getMarketSummary() {
+    public Uni<MarketSummaryDataBean> getMarketSummary() {
         return quotesService.getMarketSummary("TSIA"); /* Trade Stock Index Average */
     }
 
     /**
      * @see TradeServices#getOrders(Integer)
      */
-    public Collection<OrderDataBean> getOrders(String userID) throws Exception {
+    public Uni<Collection<OrderDataBean>> getOrders(String userID) {
         return portfoliosService.getOrders(userID);
     }
 
     /**
      * @see TradeServices#getClosedOrders(String)
      */
-    public Collection<OrderDataBean> getClosedOrders(String userID) throws Exception {
+    public Uni<Collection<OrderDataBean>> getClosedOrders(String userID) {
         // REST call transitions closed orders to completed state and returns them.
         return portfoliosService.getOrdersByStatus(userID, "closed");
     }
@@ -174,7 +186,7 @@ public class GatewayService {
      * @see TradeServices#createQuote(String, String, BigDecimal)
      */
 
-    public QuoteDataBean createQuote(String symbol, String companyName, BigDecimal price) throws Exception {
+    public Uni<QuoteDataBean> createQuote(String symbol, String companyName, BigDecimal price) {
         // Consruct the quote data from the given params
         QuoteDataBean quoteData = new QuoteDataBean();
         quoteData.setSymbol(symbol);
@@ -186,72 +198,94 @@ public class GatewayService {
     /**
      * @see TradeServices#getQuote(String)
      */
-    public QuoteDataBean getQuote(String symbol) throws Exception {
+    public Uni<QuoteDataBean> getQuote(String symbol) {
         return quotesService.getQuote(symbol);
     }
 
+    /**
+     * @see QuotesService#getQuotes(Collection)
+     */
+    public Uni<Collection<QuoteDataBean>> getQuotes(String symbols) {
+        return quotesService.getQuotes(symbols);
+    }
+
     /**
      * @see TradeServices#getAllQuotes(String)
      */
-    public Collection<QuoteDataBean> getAllQuotes(int limit, int offset) throws Exception {
+    public Uni<Collection<QuoteDataBean>> getAllQuotes(Integer limit, Integer offset) {
         return quotesService.getAllQuotes(limit, offset);
     }
 
+    /**
+     * @see QuotesService#streamQuoteChanges(Collection, Integer)
+     */
+    public Multi<QuoteDataBean> streamQuotes(String symbols, Integer tickMillis) {
+        return quotesService.streamQuotes(symbols, tickMillis);
+    }
+
     /**
      * @see TradeServices#getHoldings(String)
      */
-    public Collection<HoldingDataBean> getHoldings(String userID) throws Exception {
+    public Uni<Collection<HoldingDataBean>> getHoldings(String userID) {
         return portfoliosService.getHoldings(userID);
     }
 
     /**
      * @see TradeServices#getAccountData(String)
      */
-    public AccountDataBean getAccountData(String userID) throws Exception {
+    public Uni<AccountDataBean> getAccountData(String userID) {
         return accountsService.getAccountData(userID);
     }
 
     /**
      * @see TradeServices#getProfileData(String)
      */
-    public AccountProfileDataBean getAccountProfileData(String userID) throws Exception {
+    public Uni<AccountProfileDataBean> getAccountProfileData(String userID) {
         return accountsService.getAccountProfileData(userID);
     }
 
     /**
      * @see TradeServices#updateAccountProfileData(AccountProfileDataBean)
      */
-    public AccountProfileDataBean updateAccountProfile(AccountProfileDataBean profileData) {
+    public Uni<AccountProfileDataBean> updateAccountProfile(AccountProfileDataBean profileData) {
         return accountsService.updateAccountProfile(profileData.getUserID(), profileData);
     }
 
     /**
      * @see TradeServices#updateQuotePriceVolume(String,BigDecimal,double)
      */
-    public QuoteDataBean updateQuotePriceVolume(String symbol, BigDecimal changeFactor, double sharesTraded)
-            throws Exception {
+    public Uni<QuoteDataBean> updateQuotePriceVolume(String symbol, BigDecimal changeFactor,
+            double sharesTraded) {
         return quotesService.updateQuotePriceVolume(symbol, changeFactor, sharesTraded);
     }
 
+    /**
+     * Applies a batch of quote price and volume updates with one call to the
+     * quotes microservice.
+     */
+    public Uni<Collection<QuoteDataBean>> updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates) {
+        return quotesService.updateQuotePriceVolumes(updates);
+    }
+
     /**
      * @see TradeServices#login(String, String)
      */
-    public AccountDataBean login(String userID, String password) throws Exception {
+    public Uni<AccountDataBean> login(String userID, String password) {
         return accountsService.login(userID, password);
     }
 
     /**
      * @see TradeServices#logout(String)
      */
-    public void logout(String userID) throws Exception {
-        accountsService.logout(userID);
+    public Uni<Void> logout(String userID) {
+        return accountsService.logout(userID);
     }
 
     /**
      * @see TradeServices#register(String, String, String, String, String, String,
      *      BigDecimal, boolean)
      */
-    public AccountDataBean register(String userID, String password, String fullname, String address, String email,
+    public Uni<AccountDataBean> register(String userID, String password, String fullname, String address, String email,
             String creditCard, BigDecimal openBalance) {
         // Consruct the account data from that given params
         AccountDataBean accountData = new AccountDataBean();
@@ -270,8 +304,8 @@ public class GatewayService {
     /**
      * @see TradeServices#updateQuotePriceVolume(String,BigDecimal,double,boolean)
      */
-    public QuoteDataBean updateQuotePriceVolumeInt(String symbol, BigDecimal changeFactor, double sharesTraded,
-            boolean publishQuotePriceChange) throws Exception {
+    public Uni<QuoteDataBean> updateQuotePriceVolumeInt(String symbol, BigDecimal changeFactor,
+            double sharesTraded, boolean publishQuotePriceChange) {
         // The parameter publishQuotePriceChange isn't required; it was always false
         return updateQuotePriceVolume(symbol, changeFactor, sharesTraded);
     }
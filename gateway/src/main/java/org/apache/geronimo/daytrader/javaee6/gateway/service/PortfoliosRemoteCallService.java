@@ -37,8 +37,13 @@ import org.apache.geronimo.daytrader.javaee6.entities.HoldingDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import io.smallrye.mutiny.Uni;
+
 /**
- * The remote call service to the accounts microservice.
+ * The remote call service to the portfolios microservice.
+ *
+ * The calls are non-blocking; each returns a Uni that completes when the
+ * response arrives.
  *
  * @author
  *
@@ -49,12 +54,13 @@ public interface PortfoliosRemoteCallService {
 
     /**
      *
-     * @see PortfoliosServices#tradeBuildDB(int,int)
+     * @see PortfoliosServices#tradeBuildDB(int,int,Long,int)
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
-    public boolean tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset);
+    public Uni<Boolean> tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset,
+            @QueryParam(value = "seed") Long seed, @QueryParam(value = "maxQuotes") Integer maxQuotes);
 
     /**
      *
@@ -64,7 +70,7 @@ public interface PortfoliosRemoteCallService {
     @GET
     @Path("/admin/resetTrade")
     @Produces(MediaType.APPLICATION_JSON)
-    public RunStatsDataBean resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
+    public Uni<RunStatsDataBean> resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
 
     /**
      *
@@ -73,7 +79,7 @@ public interface PortfoliosRemoteCallService {
      */
     @POST
     @Path("/admin/recreateDBTables")
-    public boolean recreateDBTables();
+    public Uni<Boolean> recreateDBTables();
 
     /**
      *
@@ -83,7 +89,7 @@ public interface PortfoliosRemoteCallService {
     @Path("/portfolios/{userId}/orders")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public OrderDataBean processOrder(@PathParam("userId") String userId, OrderDataBean orderData);
+    public Uni<OrderDataBean> processOrder(@PathParam("userId") String userId, OrderDataBean orderData);
 
     /**
      *
@@ -93,12 +99,12 @@ public interface PortfoliosRemoteCallService {
     @GET
     @Path("/portfolios/{userId}/orders")
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<OrderDataBean> getOrders(@PathParam("userId") String userId);
+    public Uni<Collection<OrderDataBean>> getOrders(@PathParam("userId") String userId);
 
     @PATCH
     @Path("/portfolios/{userId}/orders")
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<OrderDataBean> getOrdersByStatus(@PathParam("userId") String userId,
+    public Uni<Collection<OrderDataBean>> getOrdersByStatus(@PathParam("userId") String userId,
             @QueryParam(value = "status") String status);
 
     /**
@@ -109,6 +115,6 @@ public interface PortfoliosRemoteCallService {
     @GET
     @Path("/portfolios/{userId}/holdings")
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<HoldingDataBean> getHoldings(@PathParam("userId") String userId);
+    public Uni<Collection<HoldingDataBean>> getHoldings(@PathParam("userId") String userId);
 
 }
\ No newline at end of file
@@ -33,12 +33,20 @@ import javax.ws.rs.core.MediaType;
 
 // Daytrader
 import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 
 /**
- * The remote call service to the accounts microservice.
+ * The remote call service to the quotes microservice.
+ *
+ * The calls are non-blocking; each returns a Uni that completes when the
+ * response arrives.
  *
  * @author
  *
@@ -50,12 +58,13 @@ public interface QuotesRemoteCallService {
 
     /**
      *
-     * @see QuotesServices#tradeBuildDB(int,int)
+     * @see QuotesServices#tradeBuildDB(int,int,Long)
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
-    public boolean tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset);
+    public Uni<Boolean> tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset,
+            @QueryParam(value = "seed") Long seed);
 
     /**
      *
@@ -65,7 +74,7 @@ public interface QuotesRemoteCallService {
     @GET
     @Path("/admin/resetTrade")
     @Produces(MediaType.APPLICATION_JSON)
-    public RunStatsDataBean resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
+    public Uni<RunStatsDataBean> resetTrade(@QueryParam(value = "deleteAll") Boolean deleteAll);
 
     /**
      *
@@ -74,12 +83,12 @@ public interface QuotesRemoteCallService {
      */
     @POST
     @Path("/admin/recreateDBTables")
-    public boolean recreateDBTables();
+    public Uni<Boolean> recreateDBTables();
 
     @GET
     @Path("/markets/{exchange}")
     @Produces(MediaType.APPLICATION_JSON)
-    public MarketSummaryDataBean getMarketSummary(@PathParam("exchange") String exchange);
+    public Uni<MarketSummaryDataBean> getMarketSummary(@PathParam("exchange") String exchange);
 
     /**
      *
@@ -90,7 +99,7 @@ public interface QuotesRemoteCallService {
     @Path("/quotes")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public QuoteDataBean createQuote(QuoteDataBean quoteData);
+    public Uni<QuoteDataBean> createQuote(QuoteDataBean quoteData);
 
     /**
      *
@@ -100,7 +109,7 @@ public interface QuotesRemoteCallService {
     @GET
     @Path("/quotes/{symbol}")
     @Produces(MediaType.APPLICATION_JSON)
-    public QuoteDataBean getQuote(@PathParam("symbol") String symbol);
+    public Uni<QuoteDataBean> getQuote(@PathParam("symbol") String symbol);
 
     /**
      *
@@ -110,9 +119,31 @@ public interface QuotesRemoteCallService {
     @GET
     @Path("/quotes")
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<QuoteDataBean> getAllQuotes(@QueryParam(value = "limit") Integer limit,
+    public Uni<Collection<QuoteDataBean>> getAllQuotes(@QueryParam(value = "limit") Integer limit,
             @QueryParam(value = "offset") Integer offset);
 
+    /**
+     *
+     * @see QuotesService#getQuotes(Collection)
+     *
+     */
+    @GET
+    @Path("/quotes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<Collection<QuoteDataBean>> getQuotes(@QueryParam(value = "symbols") String symbols);
+
+    /**
+     *
+     * @see QuotesService#streamQuoteChanges(Collection, Integer)
+     *
+     */
+    @GET
+    @Path("/quotes/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<QuoteDataBean> streamQuotes(@QueryParam(value = "symbols") String symbols,
+            @QueryParam(value = "tickMillis") Integer tickMillis);
+
     /**
      *
      * @see TradeServices#updateQuotePriceVolume(String,BigDecimal,double)
@@ -121,7 +152,13 @@ public interface QuotesRemoteCallService {
     @PATCH
     @Path("/quotes/{symbol}")
     @Produces(MediaType.APPLICATION_JSON)
-    public QuoteDataBean updateQuotePriceVolume(@PathParam("symbol") String symbol,
+    public Uni<QuoteDataBean> updateQuotePriceVolume(@PathParam("symbol") String symbol,
             @QueryParam(value = "price") BigDecimal price, @QueryParam(value = "volume") double volume);
 
+    @PATCH
+    @Path("/quotes")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<Collection<QuoteDataBean>> updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates);
+
 }
\ No newline at end of file
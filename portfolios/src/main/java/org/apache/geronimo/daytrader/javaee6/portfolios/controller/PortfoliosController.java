@@ -20,6 +20,7 @@ package org.apache.geronimo.daytrader.javaee6.portfolios.controller;
 // Java
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.ws.rs.BadRequestException;
@@ -39,6 +40,7 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 // Daytrader
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.HoldingDataBean;
@@ -46,6 +48,10 @@ import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
 // DayTrader
 import org.apache.geronimo.daytrader.javaee6.portfolios.service.PortfoliosService;
 import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
+import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * API endpoints are documented using Swagger UI.
@@ -110,6 +116,33 @@ public class PortfoliosController {
         }
     }
 
+    /**
+     * REST call to create the portfolios of a batch of accounts; accounts that
+     * already have one are skipped. Returns the number created.
+     *
+     */
+    @POST
+    @Path("/portfolios/registrations")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerAll(Collection<AccountDataBean> accounts) {
+        Log.traceEnter("PortfoliosController.registerAll()");
+
+        if (accounts == null) {
+            Log.traceExit("PortfoliosController.registerAll()");
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        try {
+            Integer registered = portfoliosService.registerAll(accounts);
+            Log.traceExit("PortfoliosController.registerAll()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(registered).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.registerAll()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * REST call to get the user's portfolio.
      * 
@@ -301,19 +334,23 @@ public class PortfoliosController {
     //
 
     /**
-     * REST call to register the specified number of users in the query param.
+     * REST call to register the specified number of users in the query param,
+     * with the sample data generated from seed when one is given and holdings
+     * spread over maxQuotes quotes (the configured MAX_QUOTES by default).
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
-    public Response tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset) {
+    public Response tradeBuildDB(@QueryParam(value = "limit") int limit, @QueryParam(value = "offset") int offset,
+            @QueryParam(value = "seed") Long seed, @QueryParam(value = "maxQuotes") Integer maxQuotes) {
         Log.traceEnter("PortfolioController.tradeBuildDB()");
 
         Boolean result = false;
 
         try {
             // Register max users
-            result = portfoliosService.tradeBuildDB(limit, offset);
+            result = portfoliosService.tradeBuildDB(limit, offset, seed,
+                    (maxQuotes == null) ? TradeConfig.getMAX_QUOTES() : maxQuotes.intValue());
             Log.traceExit("PortfoliosController.tradeBuildDB()");
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(result).build();
 
@@ -370,6 +407,151 @@ public class PortfoliosController {
         }
     }
 
+    /**
+     * REST call to get the queue depth, order counters and completion latency of
+     * the asynchronous order processor
+     *
+     */
+    @GET
+    @Path("/admin/orderProcessor")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getOrderProcessorStatistics() {
+        Log.traceEnter("PortfoliosController.getOrderProcessorStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getOrderProcessorStatistics();
+            Log.traceExit("PortfoliosController.getOrderProcessorStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getOrderProcessorStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to stream the balance of each account as orders change it, as
+     * server-sent events, so a client can keep a copy of the balances. A client
+     * that falls too far behind is disconnected and should reconnect and drop
+     * its copy.
+     *
+     */
+    @GET
+    @Path("/balances/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<AccountBalanceDataBean> streamBalances() {
+        Log.traceEnter("PortfoliosController.streamBalances()");
+
+        Multi<AccountBalanceDataBean> balances = portfoliosService.streamBalanceChanges();
+
+        Log.traceExit("PortfoliosController.streamBalances()");
+        return balances;
+    }
+
+    /**
+     * REST call to get the number of balance changes published on the balance
+     * stream and its subscribers
+     *
+     */
+    @GET
+    @Path("/admin/balanceStream")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getBalanceStreamStatistics() {
+        Log.traceEnter("PortfoliosController.getBalanceStreamStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getBalancePublisherStatistics();
+            Log.traceExit("PortfoliosController.getBalanceStreamStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getBalanceStreamStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the hit and miss counters of the quote replica
+     *
+     */
+    @GET
+    @Path("/admin/quoteReplica")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getQuoteReplicaStatistics() {
+        Log.traceEnter("PortfoliosController.getQuoteReplicaStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getQuoteReplicaStatistics();
+            Log.traceExit("PortfoliosController.getQuoteReplicaStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getQuoteReplicaStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of groups committed by the group committer and
+     * the units of work they held
+     *
+     */
+    @GET
+    @Path("/admin/groupCommit")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getGroupCommitStatistics() {
+        Log.traceEnter("PortfoliosController.getGroupCommitStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getGroupCommitStatistics();
+            Log.traceExit("PortfoliosController.getGroupCommitStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getGroupCommitStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of database connections in use, their peak, the
+     * time requests waited for one, and how long each order operation held one
+     *
+     */
+    @GET
+    @Path("/admin/connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getConnectionStatistics() {
+        Log.traceEnter("PortfoliosController.getConnectionStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getConnectionStatistics();
+            Log.traceExit("PortfoliosController.getConnectionStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getConnectionStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the run statistics counters and how far off the last
+     * reconciliations found them
+     *
+     */
+    @GET
+    @Path("/admin/runStats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRunStatsStatistics() {
+        Log.traceEnter("PortfoliosController.getRunStatsStatistics()");
+
+        try {
+            Map<String, Object> stats = portfoliosService.getRunStatsStatistics();
+            Log.traceExit("PortfoliosController.getRunStatsStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("PortfoliosController.getRunStatsStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     //
     // Private helper functions
     //
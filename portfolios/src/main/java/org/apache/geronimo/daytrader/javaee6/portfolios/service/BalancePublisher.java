@@ -0,0 +1,121 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.BackPressureFailure;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+
+/**
+ * Publishes the balance of each account an order charges or credits to the
+ * subscribers of the balance stream, so the accounts microservice can serve
+ * balances without asking portfolios on every read.
+ *
+ * A change is versioned while the account row is locked by the update, and is
+ * published only once its transaction has committed; a subscriber keeps the
+ * change with the highest version, whatever order they arrive in. Versions
+ * count from the start of this instance, so a subscriber must drop what it
+ * holds when the stream is reconnected.
+ *
+ * Each subscriber gets its own bounded buffer. A subscriber that falls more
+ * than buffer-size changes behind is failed rather than slowing down orders.
+ */
+
+@ApplicationScoped
+public class BalancePublisher {
+
+    @ConfigProperty(name = "daytrader.portfolios.balances.publish.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.portfolios.balances.publish.buffer-size", defaultValue = "1000")
+    int bufferSize;
+
+    private final CopyOnWriteArrayList<MultiEmitter<? super AccountBalanceDataBean>> subscribers = new CopyOnWriteArrayList<MultiEmitter<? super AccountBalanceDataBean>>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong subscriptions = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Returns whether anyone is listening; when no one is, the new balance need
+     * not even be read.
+     */
+    public boolean hasSubscribers() {
+        return enabled && !subscribers.isEmpty();
+    }
+
+    /**
+     * Returns the version of a change; call it while the account row is locked.
+     */
+    public long nextVersion() {
+        return versions.incrementAndGet();
+    }
+
+    /**
+     * Sends the change to every subscriber, unless it was never filled in.
+     */
+    public void publish(AccountBalanceDataBean balanceData) {
+        if (balanceData.getVersion() == 0 || !hasSubscribers())
+            return;
+
+        published.incrementAndGet();
+        for (MultiEmitter<? super AccountBalanceDataBean> subscriber : subscribers)
+            subscriber.emit(balanceData);
+    }
+
+    /**
+     * Returns a stream of the balance changes committed from now on.
+     */
+    public Multi<AccountBalanceDataBean> subscribe() {
+        if (!enabled)
+            return Multi.createFrom().empty();
+
+        return Multi.createFrom().<AccountBalanceDataBean>emitter(emitter -> {
+            subscriptions.incrementAndGet();
+            subscribers.add(emitter);
+            emitter.onTermination(() -> subscribers.remove(emitter));
+        }, bufferSize).onFailure(BackPressureFailure.class).invoke(t -> overflows.incrementAndGet());
+    }
+
+    /**
+     * Returns the number of changes published and of current and past
+     * subscribers, and how many subscribers were dropped for falling behind.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("bufferSize", bufferSize);
+        stats.put("subscribers", subscribers.size());
+        stats.put("subscriptions", subscriptions.get());
+        stats.put("published", published.get());
+        stats.put("overflows", overflows.get());
+        return stats;
+    }
+}
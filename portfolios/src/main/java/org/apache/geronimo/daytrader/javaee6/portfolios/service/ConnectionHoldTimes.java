@@ -0,0 +1,83 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long each order operation keeps a database connection, from the
+ * moment it is taken from the pool until it is returned.
+ *
+ * Remote calls are made before a connection is taken, so these times should be
+ * database work only; a hold time close to the latency of the quotes service
+ * means a remote call has found its way back into a transaction.
+ */
+public class ConnectionHoldTimes {
+
+    private static final class Timing {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+
+    public void record(String operation, long holdNanos) {
+        Timing timing = timings.get(operation);
+        if (timing == null) {
+            Timing created = new Timing();
+            timing = timings.putIfAbsent(operation, created);
+            if (timing == null)
+                timing = created;
+        }
+        timing.record(holdNanos);
+    }
+
+    /**
+     * Returns, for each operation, the number of times it held a connection and
+     * the average and maximum hold time in milliseconds.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            Timing timing = entry.getValue();
+            long count = timing.count.get();
+
+            Map<String, Object> operation = new LinkedHashMap<String, Object>();
+            operation.put("count", count);
+            operation.put("avgHoldMillis", (count == 0) ? 0.0 : timing.totalNanos.get() / 1.0e6 / count);
+            operation.put("maxHoldMillis", timing.maxNanos.get() / 1.0e6);
+            stats.put(entry.getKey(), operation);
+        }
+        return stats;
+    }
+
+    public void reset() {
+        timings.clear();
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
+import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Runs the order transactions of many request threads in one database
+ * transaction, so the commit (and the log flush behind it) is paid once per
+ * group instead of once per order.
+ *
+ * Units of work are collected until max-batch units are waiting or window-millis
+ * have passed since the first one arrived. They are then run one after the other
+ * on a single connection, each inside its own savepoint, and committed together.
+ * A unit that fails is rolled back to its savepoint and only its caller sees the
+ * failure. If the commit itself fails, every caller in the group does. A caller
+ * whose unit is still queued after timeout-millis withdraws it and gives up; a
+ * unit the committer has taken is waited for, since it may be committed. When
+ * the committer stops, work that is still queued fails instead of waiting.
+ *
+ * Units must only do database work on the connection they are given; remote
+ * calls belong before or after the unit. The group's connection takes a permit
+ * from the service's connection limiter like any other.
+ */
+
+@ApplicationScoped
+public class GroupCommitter {
+
+    /**
+     * The database work of one transaction.
+     */
+    public interface UnitOfWork<T> {
+        T execute(Connection conn) throws Exception;
+    }
+
+    @Inject
+    DataSource datasource;
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.group-commit.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.group-commit.window-millis", defaultValue = "2")
+    long windowMillis;
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.group-commit.max-batch", defaultValue = "32")
+    int maxBatch;
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.group-commit.timeout-millis", defaultValue = "30000")
+    long timeoutMillis;
+
+    private final BlockingQueue<PendingWork<?>> queue = new LinkedBlockingQueue<PendingWork<?>>();
+    private volatile boolean running = false;
+    private Thread committer;
+    private volatile ConcurrencyLimiter dbLimiter;
+
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong units = new AtomicLong();
+    private final AtomicLong failedUnits = new AtomicLong();
+    private final AtomicLong failedCommits = new AtomicLong();
+
+    private static final class PendingWork<T> {
+        final UnitOfWork<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        // set by the committer taking the unit or by the caller withdrawing it
+        final AtomicBoolean claimed = new AtomicBoolean();
+        T value;
+        Throwable failure;
+
+        PendingWork(UnitOfWork<T> work) {
+            this.work = work;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void execute(Connection conn) throws Exception {
+            value = work.execute(conn);
+        }
+
+        void complete() {
+            if (failure != null)
+                result.completeExceptionally(failure);
+            else
+                result.complete(value);
+        }
+
+        void fail(Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled)
+            return;
+
+        running = true;
+        committer = new Thread(new Runnable() {
+            public void run() {
+                commitLoop();
+            }
+        }, "GroupCommitter");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (committer != null)
+            committer.interrupt();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Counts the group's connection against the limiter the service's own
+     * connections go through.
+     */
+    void setConcurrencyLimiter(ConcurrencyLimiter dbLimiter) {
+        this.dbLimiter = dbLimiter;
+    }
+
+    /**
+     * Runs the unit of work in the next group and waits for the group to commit.
+     *
+     * @return the result of the unit of work
+     * @throws Exception the exception thrown by the unit of work, or by the commit
+     * @throws TimeoutException if the unit was not taken into a group within
+     *         timeout-millis; it is then never run
+     */
+    public <T> T execute(UnitOfWork<T> work) throws Exception {
+        if (!running)
+            throw new IllegalStateException("GroupCommitter is not running");
+
+        PendingWork<T> pending = new PendingWork<T>(work);
+        queue.put(pending);
+
+        // the committer may have exited and drained the queue before the put
+        if (!running && pending.claim()) {
+            queue.remove(pending);
+            throw new IllegalStateException("GroupCommitter is not running");
+        }
+
+        try {
+            try {
+                return pending.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (pending.claim()) {
+                    queue.remove(pending);
+                    throw new TimeoutException("unit of work not started after " + timeoutMillis + " ms");
+                }
+                // the unit is in a group; its outcome is the group's, so the caller
+                // must not be told it failed while it may still be committed
+                return pending.result.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private void commitLoop() {
+        List<PendingWork<?>> batch = new ArrayList<PendingWork<?>>(maxBatch);
+        try {
+            while (running) {
+                try {
+                    // units withdrawn by callers that gave up are skipped
+                    PendingWork<?> first = queue.take();
+                    if (!first.claim())
+                        continue;
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                    while (batch.size() < maxBatch) {
+                        PendingWork<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null)
+                            break;
+                        if (next.claim())
+                            batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    if (!running)
+                        break;
+                }
+
+                if (!batch.isEmpty()) {
+                    commitGroup(batch);
+                    batch.clear();
+                }
+            }
+        } catch (Throwable t) {
+            Log.error("GroupCommitter.commitLoop() - committer thread died", t);
+        } finally {
+            running = false;
+
+            // fail anything left behind so no caller waits forever; completing a
+            // future twice is a no-op, so units that already finished keep their result
+            IllegalStateException stopped = new IllegalStateException("GroupCommitter stopped");
+            for (PendingWork<?> pending : batch)
+                pending.fail(stopped);
+            PendingWork<?> pending;
+            while ((pending = queue.poll()) != null)
+                pending.fail(stopped);
+        }
+    }
+
+    private void commitGroup(List<PendingWork<?>> batch) {
+        ConcurrencyLimiter limiter = dbLimiter;
+        boolean permitted = false;
+        Connection conn = null;
+        Throwable groupFailure = null;
+
+        try {
+            if (limiter != null) {
+                limiter.acquire();
+                permitted = true;
+            }
+            conn = datasource.getConnection();
+            conn.setAutoCommit(false);
+
+            for (PendingWork<?> pending : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    pending.execute(conn);
+                    conn.releaseSavepoint(savepoint);
+                } catch (Throwable t) {
+                    pending.failure = t;
+                    failedUnits.incrementAndGet();
+                    conn.rollback(savepoint);
+                }
+            }
+            conn.commit();
+        } catch (Throwable e) {
+            groupFailure = e;
+            failedCommits.incrementAndGet();
+            Log.error("GroupCommitter.commitGroup() - group of " + batch.size() + " failed", e);
+            try {
+                if (conn != null)
+                    conn.rollback();
+            } catch (Throwable re) {
+                Log.error("GroupCommitter.commitGroup() - ignored exception rolling back", re);
+            }
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (Exception e) {
+                    Log.debug("GroupCommitter.commitGroup() - ignored exception closing a connection: " + e);
+                }
+            }
+            if (permitted)
+                limiter.release();
+        }
+
+        groups.incrementAndGet();
+        units.addAndGet(batch.size());
+        for (PendingWork<?> pending : batch) {
+            if (groupFailure != null && pending.failure == null)
+                pending.failure = groupFailure;
+            pending.complete();
+        }
+    }
+
+    /**
+     * Returns the number of groups committed and the units of work they held.
+     */
+    public Map<String, Object> getStatistics() {
+        long groupCount = groups.get();
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("windowMillis", windowMillis);
+        stats.put("maxBatch", maxBatch);
+        stats.put("timeoutMillis", timeoutMillis);
+        stats.put("queued", queue.size());
+        stats.put("groups", groupCount);
+        stats.put("units", units.get());
+        stats.put("avgGroupSize", (groupCount == 0) ? 0.0 : (double) units.get() / groupCount);
+        stats.put("failedUnits", failedUnits.get());
+        stats.put("failedCommits", failedCommits.get());
+        return stats;
+    }
+}
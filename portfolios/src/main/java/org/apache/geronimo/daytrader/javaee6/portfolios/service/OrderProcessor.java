@@ -0,0 +1,159 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Completes orders placed in the asynchronous (ASYNCH_2PHASE) order processing
+ * mode.
+ *
+ * The order has already been committed in the "open" state when it is
+ * submitted. A pool of workers takes orders off a bounded queue and completes
+ * them, which moves them to the "closed" state. When the queue is full the
+ * submitting thread completes the order itself, so callers are slowed down
+ * rather than orders being dropped.
+ *
+ * Note: the queue is held in memory. Orders still queued when the process stops
+ * stay "open".
+ */
+
+@ApplicationScoped
+public class OrderProcessor {
+
+    /**
+     * The work that completes one order.
+     */
+    public interface OrderTask {
+        void complete(Integer orderID) throws Exception;
+    }
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.workers", defaultValue = "4")
+    int workers;
+
+    @ConfigProperty(name = "daytrader.portfolios.orders.queue-capacity", defaultValue = "1000")
+    int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong completedInline = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    @PostConstruct
+    void start() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "OrderProcessor-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                Log.error("OrderProcessor.stop() - " + executor.getQueue().size() + " orders left open");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the order for completion. Returns once the order is queued, or once
+     * it has been completed by the calling thread if the queue is full.
+     */
+    public void submit(final Integer orderID, final OrderTask task) {
+        final long queuedAt = System.nanoTime();
+        final Thread submitter = Thread.currentThread();
+        submitted.incrementAndGet();
+
+        executor.execute(new Runnable() {
+            public void run() {
+                if (Thread.currentThread() == submitter)
+                    completedInline.incrementAndGet();
+                try {
+                    task.complete(orderID);
+                    completed.incrementAndGet();
+                } catch (Throwable t) {
+                    failed.incrementAndGet();
+                    Log.error("OrderProcessor - failed to complete order " + orderID, t);
+                } finally {
+                    recordLatency(System.nanoTime() - queuedAt);
+                }
+            }
+        });
+    }
+
+    private void recordLatency(long latencyNanos) {
+        totalLatencyNanos.addAndGet(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    /**
+     * Returns the queue depth along with the order counters and the completion
+     * latency, measured from submission to completion, in milliseconds.
+     */
+    public Map<String, Object> getStatistics() {
+        long done = completed.get() + failed.get();
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("workers", workers);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("completedInline", completedInline.get());
+        stats.put("avgLatencyMillis", (done == 0) ? 0.0 : totalLatencyNanos.get() / 1.0e6 / done);
+        stats.put("maxLatencyMillis", maxLatencyNanos.get() / 1.0e6);
+        return stats;
+    }
+
+    public void resetStatistics() {
+        submitted.set(0);
+        completed.set(0);
+        failed.set(0);
+        completedInline.set(0);
+        totalLatencyNanos.set(0);
+        maxLatencyNanos.set(0);
+    }
+}
@@ -33,7 +33,15 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
-
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.naming.InitialContext;
@@ -43,18 +51,23 @@ import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.core.Response;
 
+import org.apache.geronimo.daytrader.javaee6.core.beans.AccountBalanceDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.direct.BatchWriter;
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
 import org.apache.geronimo.daytrader.javaee6.core.direct.FinancialUtils;
 import org.apache.geronimo.daytrader.javaee6.core.direct.KeySequenceDirect;
+import org.apache.geronimo.daytrader.javaee6.core.direct.SampleData;
 import org.apache.geronimo.daytrader.javaee6.entities.AccountDataBean;
-import org.apache.geronimo.daytrader.javaee6.entities.AccountProfileDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.HoldingDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.OrderDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 //- Each microservice has its own log
 import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
 import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * A microservice to manage portfolios (stock holdings and orders).
@@ -75,14 +88,61 @@ public class PortfoliosService {
     @Inject
     private DataSource datasource;
 
+    // - Bounds and measures the connections in use at the same time (0 = measure only)
+    @ConfigProperty(name = "daytrader.portfolios.db.max-concurrency", defaultValue = "0")
+    int dbMaxConcurrency;
+
+    @ConfigProperty(name = "daytrader.portfolios.db.acquire-timeout-millis", defaultValue = "5000")
+    long dbAcquireTimeoutMillis;
+
+    private ConcurrencyLimiter dbLimiter;
+
+    // - tradeBuildDB writes its rows in JDBC batches of batch-size, committing every commit-interval rows
+    @ConfigProperty(name = "daytrader.portfolios.build.batch-size", defaultValue = "500")
+    int buildBatchSize;
+
+    @ConfigProperty(name = "daytrader.portfolios.build.commit-interval", defaultValue = "10000")
+    int buildCommitInterval;
+
+    // - Number of order and holding ids reserved from keygenejb at a time; every
+    // buy and sell takes an order id and a buy a holding id too
+    @ConfigProperty(name = "daytrader.portfolios.keygen.order.block-size", defaultValue = "5000")
+    int orderBlockSize;
+
+    @ConfigProperty(name = "daytrader.portfolios.keygen.holding.block-size", defaultValue = "5000")
+    int holdingBlockSize;
+
     private static InitialContext context;
 
     // - Enables portfolios microservice to consume accounts and quotes
-    // microservices
+    // microservices; quotes are read through the local replica, which falls
+    // back to the quotes microservice
+
+    @Inject
+    QuoteReplica quoteReplica;
+
+    // - Completes the orders placed in the asynchronous order processing mode
+    @Inject
+    OrderProcessor orderProcessor;
 
+    // - Optionally commits the order transactions of concurrent requests together
     @Inject
-    @RestClient
-    private QuotesRemoteCallService quotesService;
+    GroupCommitter groupCommitter;
+
+    // - Sends the balances changed by orders to the accounts microservice
+    @Inject
+    BalancePublisher balancePublisher;
+
+    // - Keeps the run statistics in memory for resetTrade, when enabled
+    @Inject
+    RunStatsCounters runStats;
+
+    // - How long each order operation keeps its connection
+    private final ConnectionHoldTimes holdTimes = new ConnectionHoldTimes();
+
+    // - userID to accountID; the mapping never changes once an account is registered,
+    // so portfolio reads can query by accountID instead of joining on profile_userid
+    private final ConcurrentHashMap<String, Integer> accountIDs = new ConcurrentHashMap<String, Integer>();
 
     /**
      * Zero arg constructor for PortfoliosService
@@ -92,73 +152,164 @@ public class PortfoliosService {
             init();
     }
 
+    @PostConstruct
+    void configure() {
+        dbLimiter = new ConcurrencyLimiter("portfolios", dbMaxConcurrency, dbAcquireTimeoutMillis);
+        groupCommitter.setConcurrencyLimiter(dbLimiter);
+        KeySequenceDirect.setBlockSize("order", orderBlockSize);
+        KeySequenceDirect.setBlockSize("holding", holdingBlockSize);
+    }
+
+    /**
+     * Returns the limit and the current and peak number of connections in use. The
+     * peak is the pool size needed to serve the load seen so far without waiting.
+     * The hold times of the order operations are included under "holdTimes".
+     */
+    public Map<String, Object> getConnectionStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>(dbLimiter.getStatistics());
+        stats.put("holdTimes", holdTimes.getStatistics());
+        return stats;
+    }
+
     /**
      *
      * PortfoliosService#tradeBuildDB(int,int)
      *
      */
     public Boolean tradeBuildDB(int limit, int offset) throws Exception {
+        return tradeBuildDB(limit, offset, null, TradeConfig.getMAX_QUOTES());
+    }
+
+    /**
+     * Creates the portfolios of the users uid:offset to uid:(offset + limit - 1),
+     * with holdings in the quotes s:0 to s:(maxQuotes - 2). With a seed the users
+     * get the same holdings whichever ranges they are built in, so ranges past
+     * the first may be built at the same time; the range at offset 0 empties the
+     * tables and must be built on its own. Built with the seed the quotes were
+     * built with, each holding is bought at its quote's price.
+     *
+     * @param seed      the seed of the sample data, or null for random data
+     * @param maxQuotes the number of quotes the quotes microservice was built with
+     */
+    public Boolean tradeBuildDB(int limit, int offset, Long seed, int maxQuotes) throws Exception {
 
         // Moved this code from the web tier to the microservice where it belongs
         // Generate sample data is a formal business operation in the Trade application.
 
-        OrderDataBean orderData = null;
-        BigDecimal initialBalance = null;
-        AccountDataBean accountData = null;
-
         if (offset == 0)
             resetTrade(true); // delete any rows from db before repopiulating
 
-        int holdings = 0;
+        if (limit <= 0)
+            return true;
+
+        // Each generated holding is the result of a buy that has completed, so the
+        // rows are written as the buy would leave them, without running it: the
+        // holding, its closed order, and the account with every purchase already
+        // taken off its balance. The rows go to the tables in batches and the
+        // holding and order ids are reserved from keygenejb a group of users at a
+        // time. A range may be built again after a failed attempt, so whatever an
+        // earlier attempt left in it is deleted first, in the same transaction.
         Connection conn = null;
+        BatchWriter writer = null;
+        int built = 0;
 
+        // the rows are counted once the last batch has committed
+        runStats.beginUpdate();
         try {
             conn = getConn();
-            for (int i = 0; i < limit; i++) {
-                int accountID = i + offset;
-                // Set the initial balance
-                if (accountID == 0) {
-                    initialBalance = new BigDecimal(1000000); // uid:0 starts with a cool million.
-                } else {
-                    initialBalance = new BigDecimal(TradeConfig.rndInt(100000) + 200000);
-                }
-
-                // Construct the account from random data
-                accountData = new AccountDataBean();
-                accountData.setAccountID(accountID);
-                accountData.setProfileID("uid:" + accountID);
-                accountData.setOpenBalance(initialBalance);
-                accountData.setBalance(initialBalance);
+            if (offset > 0)
+                removeAccountRange(conn, offset, limit);
+            writer = new BatchWriter(conn, buildBatchSize, buildCommitInterval);
+            PreparedStatement accountStmt = writer.prepare(createAccountSQL);
+            PreparedStatement holdingStmt = writer.prepare(createHoldingSQL);
+            PreparedStatement orderStmt = writer.prepare(createOrderSQL);
+            BigDecimal orderFee = TradeConfig.getOrderFee("buy");
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+
+            for (int first = 0; first < limit; first += buildBatchSize) {
+                int users = Math.min(buildBatchSize, limit - first);
 
-                // Register the user
-                register(conn, accountData);
-
-                // Create the user's holdings
                 // 0-MAX_HOLDING (inclusive), avg holdings per user = (MAX-0)/2
-                holdings = TradeConfig.rndInt(TradeConfig.getMAX_HOLDINGS() + 1);
-                for (int j = 0; j < holdings; j++) {
-                    // Construct the order from random data
-                    orderData = new OrderDataBean();
-                    orderData.setOrderFee(TradeConfig.getOrderFee("buy"));
-                    orderData.setSymbol(TradeConfig.rndSymbol());
-                    orderData.setAccountID(accountID);
-                    orderData.setQuantity(TradeConfig.rndQuantity());
-                    orderData.setOrderType("buy");
-                    orderData.setOrderStatus("open");
-                    // Construct the quote from random data
-                    QuoteDataBean quoteData = new QuoteDataBean();
-                    quoteData.setPrice(new BigDecimal(TradeConfig.rndPrice()));
-                    quoteData.setSymbol(orderData.getSymbol());
-                    // Process the buy order for the given user
-                    buy(conn, accountData, orderData, quoteData, TradeConfig.SYNCH);
+                SampleData[] data = new SampleData[users];
+                int[] holdings = new int[users];
+                int holdingCount = 0;
+                for (int i = 0; i < users; i++) {
+                    data[i] = SampleData.forRow(seed, first + i + offset);
+                    holdings[i] = data[i].nextInt(TradeConfig.getMAX_HOLDINGS() + 1);
+                    holdingCount += holdings[i];
+                }
+                int holdingID = (holdingCount == 0) ? 0 : KeySequenceDirect.reserveIDs("holding", holdingCount);
+                int orderID = (holdingCount == 0) ? 0 : KeySequenceDirect.reserveIDs("order", holdingCount);
+                built += holdingCount;
+
+                for (int i = 0; i < users; i++) {
+                    int accountID = first + i + offset;
+                    // Set the initial balance
+                    BigDecimal openBalance = null;
+                    if (accountID == 0) {
+                        openBalance = new BigDecimal(1000000); // uid:0 starts with a cool million.
+                    } else {
+                        openBalance = new BigDecimal(data[i].nextInt(100000) + 200000);
+                    }
+                    BigDecimal balance = openBalance;
+
+                    // Create the user's holdings
+                    for (int j = 0; j < holdings[i]; j++) {
+                        int symbolIndex = data[i].symbolIndex(maxQuotes);
+                        String symbol = "s:" + symbolIndex;
+                        double quantity = data[i].quantity();
+                        // bought at the price the quotes build gives the symbol
+                        BigDecimal price = new BigDecimal(SampleData.forRow(seed, symbolIndex).price())
+                                .setScale(FinancialUtils.SCALE, FinancialUtils.ROUND);
+
+                        holdingStmt.setInt(1, holdingID);
+                        holdingStmt.setTimestamp(2, now);
+                        holdingStmt.setBigDecimal(3, price);
+                        holdingStmt.setDouble(4, quantity);
+                        holdingStmt.setString(5, symbol);
+                        holdingStmt.setInt(6, accountID);
+                        writer.addRow(holdingStmt);
+
+                        orderStmt.setInt(1, orderID);
+                        orderStmt.setString(2, "buy");
+                        orderStmt.setString(3, "closed");
+                        orderStmt.setTimestamp(4, now);
+                        orderStmt.setTimestamp(5, now);
+                        orderStmt.setDouble(6, quantity);
+                        orderStmt.setBigDecimal(7, price);
+                        orderStmt.setBigDecimal(8, orderFee);
+                        orderStmt.setInt(9, accountID);
+                        orderStmt.setInt(10, holdingID);
+                        orderStmt.setString(11, symbol);
+                        writer.addRow(orderStmt);
+
+                        // total = (quantity * purchasePrice) + orderFee
+                        balance = balance.subtract(new BigDecimal(quantity).multiply(price).add(orderFee));
+                        holdingID++;
+                        orderID++;
+                    } // end-for
+
+                    // Register the user
+                    accountStmt.setInt(1, accountID);
+                    accountStmt.setBigDecimal(2, openBalance);
+                    accountStmt.setBigDecimal(3, balance.setScale(FinancialUtils.SCALE, FinancialUtils.ROUND));
+                    accountStmt.setString(4, "uid:" + accountID);
+                    writer.addRow(accountStmt);
                 } // end-for
             } // end-for
-            commit(conn);
+            writer.commit();
+            runStats.built(built);
+
+            for (int i = 0; i < limit; i++)
+                accountIDs.put("uid:" + (i + offset), i + offset);
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
         } finally {
+            if (writer != null)
+                writer.close();
             releaseConn(conn);
+            runStats.endUpdate();
         }
         return true;
     }
@@ -182,6 +333,8 @@ public class PortfoliosService {
             conn = getConn();
             register(conn, accountData);
             commit(conn);
+            accountIDs.put(accountData.getProfileID(), accountData.getAccountID());
+            runStats.registered(accountData.getProfileID());
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
@@ -191,6 +344,46 @@ public class PortfoliosService {
         return accountData;
     }
 
+    /**
+     * Registers a batch of accounts relayed from the outbox of the accounts
+     * microservice, in one transaction. An account that is already registered is
+     * skipped, so a batch that is delivered again after a failed reply does no
+     * harm.
+     *
+     * @return the number of accounts registered by this call
+     */
+    public int registerAll(Collection<AccountDataBean> accounts) throws Exception {
+        List<String> registered = new ArrayList<String>();
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, getAccountSQL);
+            for (AccountDataBean accountData : accounts) {
+                stmt.setInt(1, accountData.getAccountID().intValue());
+                ResultSet rs = stmt.executeQuery();
+                boolean exists = rs.next();
+                rs.close();
+                if (!exists) {
+                    register(conn, accountData);
+                    registered.add(accountData.getProfileID());
+                }
+            }
+            stmt.close();
+            commit(conn);
+
+            for (AccountDataBean accountData : accounts)
+                accountIDs.put(accountData.getProfileID(), accountData.getAccountID());
+            for (String userID : registered)
+                runStats.registered(userID);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return registered.size();
+    }
+
     /**
      *
      * added this method to inject the account data into the portfolios service so
@@ -237,9 +430,10 @@ public class PortfoliosService {
 
         if (deleteAll) {
             // delete the rows and return
-            conn = getConn();
+            runStats.beginUpdate();
             PreparedStatement stmt = null;
             try {
+                conn = getConn();
                 stmt = getStatement(conn, "delete from accountejb");
                 stmt.executeUpdate();
                 stmt.close();
@@ -254,21 +448,26 @@ public class PortfoliosService {
                 stmt.executeUpdate();
                 stmt.close();
                 commit(conn);
+                accountIDs.clear();
+                runStats.clear();
                 //
                 // (Re-)initialize the key generator
-                KeySequenceDirect.initialize(getConn());
+                KeySequenceDirect.initialize(getKeySequenceConn());
             } catch (Exception e) {
                 rollBack(conn, e);
                 throw e;
             } finally {
                 releaseConn(conn);
+                runStats.endUpdate();
             }
             return runStatsData;
+        } else if (runStats.isEnabled()) {
+            // served from the counters; the cleanup runs in the background
+            return runStats.resetRunStats();
         } else {
             // calculate usage stats
             conn = getConn();
             PreparedStatement stmt = null;
-            ResultSet rs = null;
             try {
                 stmt = getStatement(conn, "delete from holdingejb where holdingejb.account_accountid is null");
                 stmt.executeUpdate();
@@ -301,109 +500,24 @@ public class PortfoliosService {
                 runStatsData.setNewUserCount(newUserCount);
                 stmt.close();
 
-                // count holdings for trade users
-                // imported accountejb into portfolios microservice to do the inner join across
-                // the accountejb
-                // (in this microservice) instead of the accountejb (in the accounts
-                // microservice). As a result of this,
-                // here were no changes to the sql statement
-                stmt = getStatement(conn,
-                        "select count(holdingid) as \"holdingCount\" from holdingejb h where h.account_accountid in "
-                                + "(select accountid from accountejb a where a.profile_userid like 'uid:%')");
-
-                rs = stmt.executeQuery();
-                rs.next();
-                int holdingCount = rs.getInt("holdingCount");
-                runStatsData.setHoldingCount(holdingCount);
-                stmt.close();
-                rs.close();
-
-                // count orders for trade users
-                // imported accountejb into portfolios microservice to do the inner join across
-                // the accountejb
-                // (in this microservice) instead of the accountejb (in the accounts
-                // microservice). As a result of this,
-                // here were no changes to the sql statement
-                stmt = getStatement(conn,
-                        "select count(orderid) as \"orderCount\" from orderejb o where o.account_accountid in "
-                                + "(select accountid from accountejb a where a.profile_userid like 'uid:%')");
-
-                rs = stmt.executeQuery();
-                rs.next();
-                int orderCount = rs.getInt("orderCount");
-                runStatsData.setOrderCount(orderCount);
-                stmt.close();
-                rs.close();
-
-                // count orders by type for trade users
-                // imported accountejb into portfolios microservice to do the inner join across
-                // the accountejb
-                // (in this microservice) instead of the accountejb (in the accounts
-                // microservice). As a result of this,
-                // here were no changes to the sql statement
-                stmt = getStatement(conn,
-                        "select count(orderid) \"buyOrderCount\"from orderejb o where (o.account_accountid in "
-                                + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
-                                + " (o.orderType='buy')");
-
-                rs = stmt.executeQuery();
-                rs.next();
-                int buyOrderCount = rs.getInt("buyOrderCount");
-                runStatsData.setBuyOrderCount(buyOrderCount);
-                stmt.close();
-                rs.close();
-
-                // count orders by type for trade users
-                // imported accountejb into portfolios microservice to do the inner join across
-                // the accountejb
-                // (in this microservice) instead of the accountejb (in the accounts
-                // microservice). As a result of this,
-                // here were no changes to the sql statement
-                stmt = getStatement(conn,
-                        "select count(orderid) \"sellOrderCount\"from orderejb o where (o.account_accountid in "
-                                + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
-                                + " (o.orderType='sell')");
-
-                rs = stmt.executeQuery();
-                rs.next();
-                int sellOrderCount = rs.getInt("sellOrderCount");
-                runStatsData.setSellOrderCount(sellOrderCount);
-                stmt.close();
-                rs.close();
+                countRunStats(conn, runStatsData);
 
                 // Delete cancelled orders
                 stmt = getStatement(conn, "delete from orderejb where orderStatus='cancelled'");
                 int cancelledOrderCount = stmt.executeUpdate();
                 runStatsData.setCancelledOrderCount(cancelledOrderCount);
                 stmt.close();
-                rs.close();
 
-                // count open orders by type for trade users
-                // imported accountejb into portfolios microservice to do the inner join across
-                // the accountejb
-                // (in this microservice) instead of the accountejb (in the accounts
-                // microservice). As a result of this,
-                // here were no changes to the sql statement
-                stmt = getStatement(conn,
-                        "select count(orderid) \"openOrderCount\"from orderejb o where (o.account_accountid in "
-                                + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
-                                + " (o.orderStatus='open')");
-
-                rs = stmt.executeQuery();
-                rs.next();
-                int openOrderCount = rs.getInt("openOrderCount");
-                runStatsData.setOpenOrderCount(openOrderCount);
-
-                stmt.close();
-                rs.close();
                 // Delete orders for holding which have been purchased and sold
                 stmt = getStatement(conn, "delete from orderejb where holding_holdingid is null");
                 int deletedOrderCount = stmt.executeUpdate();
                 runStatsData.setDeletedOrderCount(deletedOrderCount);
                 stmt.close();
-                rs.close();
 
                 commit(conn);
+
+                // the deleted random users' account ids must not be served from the cache
+                accountIDs.keySet().removeIf(userID -> userID.startsWith("ru:"));
             } catch (Exception e) {
                 rollBack(conn, e);
                 throw e;
@@ -415,6 +529,66 @@ public class PortfoliosService {
         }
     }
 
+    /**
+     * Counts the holdings and the orders of the trade users in the database, for
+     * the reconciliation of the run statistics counters.
+     */
+    public RunStatsDataBean countRunStats() throws Exception {
+        RunStatsDataBean runStatsData = new RunStatsDataBean();
+        Connection conn = null;
+        try {
+            conn = getConn();
+            countRunStats(conn, runStatsData);
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return runStatsData;
+    }
+
+    /**
+     * Deletes up to max random users (ru:*) with their orders and holdings, in one
+     * transaction.
+     *
+     * @return the number of users deleted
+     */
+    public int deleteRandomUsers(int max) throws Exception {
+        List<Integer> deleted = deleteInBatch(getRandomAccountsSQL, max, removeOrdersForAccountSQL,
+                removeHoldingsForAccountSQL, removeAccountSQL);
+        if (!deleted.isEmpty())
+            accountIDs.values().removeAll(new HashSet<Integer>(deleted));
+        return deleted.size();
+    }
+
+    /**
+     * Deletes up to max cancelled orders, in one transaction.
+     *
+     * @return the number of orders deleted
+     */
+    public int deleteCancelledOrders(int max) throws Exception {
+        return deleteInBatch(getCancelledOrdersSQL, max, removeOrderSQL).size();
+    }
+
+    /**
+     * Deletes up to max closed orders whose holding has been sold, in one
+     * transaction. Open orders without a holding yet are left alone.
+     *
+     * @return the number of orders deleted
+     */
+    public int deleteSoldOrders(int max) throws Exception {
+        return deleteInBatch(getSoldOrdersSQL, max, removeOrderSQL).size();
+    }
+
+    /**
+     * Returns the run statistics counters and their reconciliations.
+     */
+    public Map<String, Object> getRunStatsStatistics() {
+        return runStats.getStatistics();
+    }
+
     /**
      *
      * @see TradeDBServices#recreateDBTables(Object[],PrintWriter)
@@ -501,10 +675,11 @@ public class PortfoliosService {
         } finally {
             releaseConn(conn);
         }
+        accountIDs.clear();
 
         //
         // (Re-)initialize the key generator
-        KeySequenceDirect.initialize(getConn());
+        KeySequenceDirect.initialize(getKeySequenceConn());
         return true;
     }
 
@@ -513,114 +688,195 @@ public class PortfoliosService {
      * @see TradeServices#buy(String, String, double, int)
      *
      */
-    public OrderDataBean buy(String userID, String symbol, double quantity, Integer mode) throws Exception {
+    public OrderDataBean buy(final String userID, final String symbol, final double quantity, final Integer mode)
+            throws Exception {
         //
-        // Mode is ignored for now. Later it will be used for async order processing
-        Connection conn = null;
-        OrderDataBean orderData = null;
-
-        try {
+        // In the asynchronous mode the order is created "open" and completed by
+        // the orderProcessor after this transaction commits
+        final boolean async = isAsynch(mode);
 
-            conn = getConn();
-
-            AccountDataBean accountData = getAccountData(conn, userID);
+        //
+        // Ask quotes microservice (or its local replica) for the data instead of
+        // accessing directly. This is done before the transaction, which may be run
+        // as part of a group
+        final QuoteDataBean quoteData = quoteReplica.getQuote(symbol);
+        final AccountBalanceDataBean balanceChange = new AccountBalanceDataBean();
+
+        OrderDataBean orderData = runOrderTransaction("buy", conn -> {
+            Integer accountID = getAccountID(conn, userID);
+            if ((accountID == null)) {
+                throw new NotFoundException("Unable to find account for userID: " + userID);
+            }
+            AccountDataBean accountData = new AccountDataBean();
+            accountData.setAccountID(accountID);
 
             // Construct the order data
-            orderData = new OrderDataBean();
-            orderData.setOrderFee(TradeConfig.getOrderFee("buy"));
-            orderData.setAccountID(accountData.getAccountID());
-            orderData.setSymbol(symbol);
-            orderData.setQuantity(quantity);
-            orderData.setOrderType("buy");
-            orderData.setOrderStatus("open");
+            OrderDataBean order = new OrderDataBean();
+            order.setOrderFee(TradeConfig.getOrderFee("buy"));
+            order.setAccountID(accountData.getAccountID());
+            order.setSymbol(symbol);
+            order.setQuantity(quantity);
+            order.setOrderType("buy");
+            order.setOrderStatus("open");
+
+            if (async)
+                return createOrder(conn, accountData, quoteData, null, "buy", quantity, "open");
+            else
+                return buy(conn, accountData, order, quoteData, mode, balanceChange);
+        }, order -> runStats.orderPlaced(userID, "buy", order.getOrderID(), async));
+        balancePublisher.publish(balanceChange);
+
+        if (async)
+            orderProcessor.submit(orderData.getOrderID(), this::completeOrder);
 
-            //
-            // Async processing would create and return the order as indicated
-            // above, publish an order created event, then process the rest of
-            // the order below this comment
-
-            //
-            // Ask quotes microservice for the data instead of accessing directly
-            QuoteDataBean quoteData = quotesService.getQuote(symbol);
+        return orderData;
+    }
 
-            orderData = buy(conn, accountData, orderData, quoteData, mode);
+    /**
+     *
+     * @see TradeServices#sell(String, Integer, Integer)
+     *
+     */
+    public OrderDataBean sell(final String userID, final Integer holdingID, final Integer mode) throws Exception {
+        // In the asynchronous mode the order is created "open" and completed by
+        // the orderProcessor after this transaction commits
+        final boolean async = isAsynch(mode);
 
+        //
+        // Look up the symbol held so the quote can be fetched before the
+        // transaction; the holding is read again inside it
+        HoldingDataBean heldData = null;
+        Connection conn = null;
+        long heldSince = 0;
+        try {
+            conn = getConn();
+            heldSince = System.nanoTime();
+            heldData = getHoldingData(conn, holdingID.intValue());
             commit(conn);
-
-            return orderData;
-
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
         } finally {
             releaseConn(conn);
+            if (conn != null)
+                holdTimes.record("sell.lookupHolding", System.nanoTime() - heldSince);
+        }
+        if (heldData == null) {
+            throw new NotFoundException("Unable to find holding for holdingID: " + holdingID);
         }
 
-    }
-
-    /**
-     *
-     * @see TradeServices#sell(String, Integer, Integer)
-     *
-     */
-    public OrderDataBean sell(String userID, Integer holdingID, Integer mode) throws Exception {
-        // Mode is ignored for now. Later it will be used for async order processing
-        Connection conn = null;
-        OrderDataBean orderData = null;
-
-        /*
-         * total = (quantity * purchasePrice) + orderFee
-         */
-        BigDecimal total;
+        //
+        // Ask quotes microservice (or its local replica) for the data instead of
+        // accessing directly
+        final QuoteDataBean quoteData = quoteReplica.getQuote(heldData.getQuoteID());
+        if (quoteData == null) {
+            throw new NotFoundException("Unable to find quote for symbol: " + heldData.getQuoteID());
+        }
 
-        try {
-            conn = getConn();
-            AccountDataBean accountData = getAccountData(conn, userID);
-            if ((accountData == null)) {
+        final AccountBalanceDataBean balanceChange = new AccountBalanceDataBean();
+        OrderDataBean orderData = runOrderTransaction("sell", txConn -> {
+            Integer accountID = getAccountID(txConn, userID);
+            if ((accountID == null)) {
                 throw new NotFoundException("Unable to find account for userID: " + userID);
             }
+            AccountDataBean accountData = new AccountDataBean();
+            accountData.setAccountID(accountID);
 
-            HoldingDataBean holdingData = getHoldingData(conn, holdingID.intValue());
+            HoldingDataBean holdingData = getHoldingData(txConn, holdingID.intValue());
             if (holdingData == null) {
                 throw new NotFoundException("Unable to find holding for holdingID: " + holdingID);
             }
-            //
-            // Ask quotes microservice for the data instead of accessing directly
-            QuoteDataBean quoteData = quotesService.getQuote(holdingData.getQuoteID());
-            if (quoteData == null) {
-                throw new NotFoundException("Unable to find quote for symbol: " + holdingData.getQuoteID());
-            }
 
             double quantity = holdingData.getQuantity();
-            orderData = createOrder(conn, accountData, quoteData, holdingData, "sell", quantity);
 
-            // Set the holdingSymbol purchaseDate to selling to signify the sell is
-            // "inflight"
-            updateHoldingStatus(conn, holdingData.getHoldingID(), holdingData.getQuoteID());
+            if (async) {
+                OrderDataBean order = createOrder(txConn, accountData, quoteData, holdingData, "sell", quantity,
+                        "open");
 
-            // UPDATE -- account should be credited during completeOrder
+                // Set the holdingSymbol purchaseDate to selling to signify the sell is
+                // "inflight"
+                updateHoldingStatus(txConn, holdingData.getHoldingID(), holdingData.getQuoteID());
+                return order;
+            }
+
+            //
+            // The order is written once, already closed, since it is completed in
+            // this same transaction
+            OrderDataBean order = createOrder(txConn, accountData, quoteData, null, "sell", quantity, "closed");
+
+            /*
+             * total = (quantity * purchasePrice) - orderFee
+             */
             BigDecimal price = quoteData.getPrice();
-            BigDecimal orderFee = orderData.getOrderFee();
-            total = (new BigDecimal(quantity).multiply(price)).subtract(orderFee);
+            BigDecimal orderFee = order.getOrderFee();
+            BigDecimal total = (new BigDecimal(quantity).multiply(price)).subtract(orderFee);
 
-            creditAccountBalance(conn, accountData, total);
+            creditAccountBalance(txConn, accountData, total, balanceChange);
 
-            completeOrder(conn, orderData.getOrderID());
+            removeHolding(txConn, holdingData.getHoldingID().intValue(), order.getOrderID().intValue());
 
-            orderData = getOrderData(conn, orderData.getOrderID().intValue());
+            return order;
+        }, order -> runStats.orderPlaced(userID, "sell", order.getOrderID(), async));
+        balancePublisher.publish(balanceChange);
 
-            commit(conn);
+        if (async)
+            orderProcessor.submit(orderData.getOrderID(), this::completeOrder);
 
-        } catch (Exception e) {
-            rollBack(conn, e);
-            throw e;
-        } finally {
-            releaseConn(conn);
-        }
+        return orderData;
+    }
 
+    /**
+     * Completes an order placed in the asynchronous order processing mode: the
+     * account is charged (buy) or credited (sell) at the order price, the holding
+     * is created or removed, and the order moves to the "closed" state.
+     */
+    public OrderDataBean completeOrder(final Integer orderID) throws Exception {
+        final AccountBalanceDataBean balanceChange = new AccountBalanceDataBean();
+        OrderDataBean orderData = runOrderTransaction("completeOrder",
+                conn -> completeOrder(conn, orderID, balanceChange), order -> runStats.orderCompleted(orderID));
+        balancePublisher.publish(balanceChange);
         return orderData;
     }
 
+    /**
+     * Returns the hit and miss counters of the quote replica and whether its
+     * quote stream is connected.
+     */
+    public Map<String, Object> getQuoteReplicaStatistics() {
+        return quoteReplica.getStatistics();
+    }
+
+    /**
+     * Returns the number of groups committed by the group committer and the
+     * units of work they held.
+     */
+    public Map<String, Object> getGroupCommitStatistics() {
+        return groupCommitter.getStatistics();
+    }
+
+    /**
+     * Returns the queue depth, order counters and completion latency of the
+     * asynchronous order processor.
+     */
+    public Map<String, Object> getOrderProcessorStatistics() {
+        return orderProcessor.getStatistics();
+    }
+
+    /**
+     * Returns a stream of the account balances changed by orders from now on.
+     */
+    public Multi<AccountBalanceDataBean> streamBalanceChanges() {
+        return balancePublisher.subscribe();
+    }
+
+    /**
+     * Returns the number of balance changes published and the subscribers of the
+     * balance stream.
+     */
+    public Map<String, Object> getBalancePublisherStatistics() {
+        return balancePublisher.getStatistics();
+    }
+
     /**
      *
      * @see TradeServices#getOrders(String)
@@ -631,8 +887,13 @@ public class PortfoliosService {
         Connection conn = null;
         try {
             conn = getConn();
-            PreparedStatement stmt = getStatement(conn, getOrdersByUserSQL);
-            stmt.setString(1, userID);
+            Integer accountID = getAccountID(conn, userID);
+            if (accountID == null) {
+                commit(conn);
+                return orderDataBeans;
+            }
+            PreparedStatement stmt = getStatement(conn, getOrdersByAccountSQL);
+            stmt.setInt(1, accountID.intValue());
 
             ResultSet rs = stmt.executeQuery();
 
@@ -677,8 +938,13 @@ public class PortfoliosService {
             // the closed orders, transitions them to the completed state, and returns the
             // list
             // of completed orders.
-            PreparedStatement stmt = getStatement(conn, getClosedOrdersSQL);
-            stmt.setString(1, userID);
+            Integer accountID = getAccountID(conn, userID);
+            if (accountID == null) {
+                commit(conn);
+                return orderDataBeans;
+            }
+            PreparedStatement stmt = getStatement(conn, getClosedOrdersByAccountSQL);
+            stmt.setInt(1, accountID.intValue());
 
             ResultSet rs = stmt.executeQuery();
 
@@ -711,8 +977,13 @@ public class PortfoliosService {
         Connection conn = null;
         try {
             conn = getConn();
-            PreparedStatement stmt = getStatement(conn, getHoldingsForUserSQL);
-            stmt.setString(1, userID);
+            Integer accountID = getAccountID(conn, userID);
+            if (accountID == null) {
+                commit(conn);
+                return holdingDataBeans;
+            }
+            PreparedStatement stmt = getStatement(conn, getHoldingsForAccountSQL);
+            stmt.setInt(1, accountID.intValue());
 
             ResultSet rs = stmt.executeQuery();
 
@@ -753,8 +1024,14 @@ public class PortfoliosService {
         return accountData;
     }
 
-    private void creditAccountBalance(Connection conn, AccountDataBean accountData, BigDecimal credit)
-            throws Exception {
+    /*
+     * Credits the account and, when the balance stream has subscribers, fills in
+     * balanceChange with the new balance, to be published once the transaction
+     * commits. The update has locked the row, so the balance read back is the one
+     * committed and the version follows the commit order of the account.
+     */
+    private void creditAccountBalance(Connection conn, AccountDataBean accountData, BigDecimal credit,
+            AccountBalanceDataBean balanceChange) throws Exception {
         PreparedStatement stmt = getStatement(conn, creditAccountBalanceSQL);
 
         stmt.setBigDecimal(1, credit);
@@ -763,6 +1040,20 @@ public class PortfoliosService {
         stmt.executeUpdate();
         stmt.close();
 
+        if (balanceChange == null || !balancePublisher.hasSubscribers())
+            return;
+
+        stmt = getStatement(conn, getAccountBalanceSQL);
+        stmt.setInt(1, accountData.getAccountID().intValue());
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next()) {
+            balanceChange.setUserID(rs.getString("profile_userid"));
+            balanceChange.setBalance(rs.getBigDecimal("balance"));
+            balanceChange.setOpenBalance(rs.getBigDecimal("openbalance"));
+            balanceChange.setVersion(balancePublisher.nextVersion());
+        }
+        rs.close();
+        stmt.close();
     }
 
     /**
@@ -771,35 +1062,42 @@ public class PortfoliosService {
      *
      */
     private OrderDataBean buy(Connection conn, AccountDataBean accountData, OrderDataBean orderData,
-            QuoteDataBean quoteData, Integer mode) throws Exception {
-        // Mode is ignored for now. Later it will be used for async order processing
+            QuoteDataBean quoteData, Integer mode, AccountBalanceDataBean balanceChange) throws Exception {
+        // Completes the order synchronously; the asynchronous mode is handled by the public buy
+        //
+        // Everything needed is already in memory, so each row is written once: the
+        // holding, the order (already closed and pointing at the holding) and the
+        // account balance
 
         /*
          * total = (quantity * purchasePrice) + orderFee
          */
         BigDecimal total;
 
-        HoldingDataBean holdingData = null; // the completeOrder operation will create the holding and associate it with
-                                            // the order
+        double quantity = orderData.getQuantity();
+        BigDecimal price = quoteData.getPrice().setScale(FinancialUtils.SCALE, FinancialUtils.ROUND);
+
+        HoldingDataBean holdingData = createHolding(conn, accountData.getAccountID().intValue(),
+                quoteData.getSymbol(), quantity, price);
 
-        orderData = createOrder(conn, accountData, quoteData, holdingData, "buy", orderData.getQuantity());
+        orderData = createOrder(conn, accountData, quoteData, holdingData, "buy", quantity, "closed");
 
-        // Update -- account should be credited during completeOrder
-        BigDecimal price = quoteData.getPrice();
         BigDecimal orderFee = orderData.getOrderFee();
-        total = (new BigDecimal(orderData.getQuantity()).multiply(price)).add(orderFee);
+        total = (new BigDecimal(quantity).multiply(quoteData.getPrice())).add(orderFee);
 
         // subtract total from account balance
-        creditAccountBalance(conn, accountData, total.negate());
-
-        completeOrder(conn, orderData.getOrderID());
-
-        orderData = getOrderData(conn, orderData.getOrderID().intValue());
+        creditAccountBalance(conn, accountData, total.negate(), balanceChange);
 
         return orderData;
     }
 
-    private OrderDataBean completeOrder(Connection conn, Integer orderID) throws Exception {
+    /*
+     * Completes an open order: charges or credits the account at the order price,
+     * creates or removes the holding and closes the order. The order is read once
+     * and closed with a single update.
+     */
+    private OrderDataBean completeOrder(Connection conn, Integer orderID, AccountBalanceDataBean balanceChange)
+            throws Exception {
         OrderDataBean orderData = null;
 
         PreparedStatement stmt = getStatement(conn, getOrderSQL);
@@ -813,6 +1111,11 @@ public class PortfoliosService {
             throw new NotFoundException("Unable to find order with ID: " + orderID);
         }
         orderData = getOrderDataFromResultSet(rs);
+        int holdingID = rs.getInt("holding_holdingID");
+        boolean hasHolding = !rs.wasNull();
+
+        rs.close();
+        stmt.close();
 
         String orderType = orderData.getOrderType();
         String orderStatus = orderData.getOrderStatus();
@@ -824,28 +1127,16 @@ public class PortfoliosService {
             throw new ClientErrorException("Attempt to complete an order that is already complete",
                     Response.Status.CONFLICT);
 
-        int accountID = rs.getInt("account_accountID");
-        String quoteID = rs.getString("quote_symbol");
-        int holdingID = rs.getInt("holding_holdingID");
-
+        int accountID = orderData.getAccountID().intValue();
+        String quoteID = orderData.getSymbol();
         BigDecimal price = orderData.getPrice();
         double quantity = orderData.getQuantity();
 
-        // get the data for the account and quote
-        // the holding will be created for a buy or extracted for a sell
-
-        /*
-         * Use the AccountID and Quote Symbol from the Order AccountDataBean accountData
-         * = getAccountData(accountID, conn); QuoteDataBean quoteData =
-         * getQuoteData(conn, quoteID);
-         */
+        AccountDataBean accountData = new AccountDataBean();
+        accountData.setAccountID(orderData.getAccountID());
+        BigDecimal total = new BigDecimal(quantity).multiply(price);
 
-        String userID = getAccountProfileData(conn, new Integer(accountID)).getUserID();
-
-        HoldingDataBean holdingData = null;
-
-//        Log.debug("PortfoliosService:completeOrder()--> Completing Order " + orderData.getOrderID() + "\n\t Order info: "
-//                + orderData + "\n\t Account info: " + accountID + "\n\t Quote info: " + quoteID);
+        Timestamp completionDate = new Timestamp(System.currentTimeMillis());
 
         // if (order.isBuy())
         if (orderType.compareToIgnoreCase("buy") == 0) {
@@ -853,9 +1144,11 @@ public class PortfoliosService {
              * Complete a Buy operation - create a new Holding for the Account - deduct the
              * Order cost from the Account balance
              */
+            creditAccountBalance(conn, accountData, total.add(orderData.getOrderFee()).negate(), balanceChange);
 
-            holdingData = createHolding(conn, accountID, quoteID, quantity, price);
-            updateOrderHolding(conn, orderID.intValue(), holdingData.getHoldingID().intValue());
+            HoldingDataBean holdingData = createHolding(conn, accountID, quoteID, quantity, price);
+            closeOrder(conn, orderID.intValue(), completionDate, holdingData.getHoldingID());
+            orderData.setHoldingID(holdingData.getHoldingID());
         }
 
         // if (order.isSell()) {
@@ -864,65 +1157,228 @@ public class PortfoliosService {
              * Complete a Sell operation - remove the Holding from the Account - deposit the
              * Order proceeds to the Account balance
              */
-            holdingData = getHoldingData(conn, holdingID);
-            if (holdingData == null) {
-                throw new Exception("PortfoliosService:completeOrder:sell -- user: " + userID
+            if (!hasHolding || (getHoldingData(conn, holdingID) == null)) {
+                throw new Exception("PortfoliosService:completeOrder:sell -- account: " + accountID
                         + " already sold holding: " + holdingID);
-            } else
-                removeHolding(conn, holdingID, orderID.intValue());
+            }
+            creditAccountBalance(conn, accountData, total.subtract(orderData.getOrderFee()), balanceChange);
+
+            removeHolding(conn, holdingID, orderID.intValue());
+            updateOrderStatus(conn, orderID, "closed");
         }
 
         orderData.setOrderStatus("closed");
-        updateOrderStatus(conn, orderData.getOrderID(), orderData.getOrderStatus());
+        orderData.setCompletionDate(completionDate);
+
+        return orderData;
+    }
+
+    /*
+     * Runs the database work of an order and then counts it with committed. The
+     * run stats counters are not reconciled between the commit and the count.
+     */
+    private <T> T runOrderTransaction(final String operation, final GroupCommitter.UnitOfWork<T> work,
+            final Consumer<T> committed) throws Exception {
+        runStats.beginUpdate();
+        try {
+            T result = runOrderTransaction(operation, work);
+            committed.accept(result);
+            return result;
+        } finally {
+            runStats.endUpdate();
+        }
+    }
 
-//        Log.debug("PortfoliosService:completeOrder()--> Completed Order " + orderData.getOrderID() + "\n\t Order info: "
-//                + orderData + "\n\t Account info: " + accountID + "\n\t Quote info: " + quoteID + "\n\t Holding info: "
-//                + holdingData);
+    /*
+     * Runs the database work of an order in its own transaction, or as part of
+     * the next group when group commit is enabled, and records how long it held
+     * the connection. In a group the connection is shared, so only the unit's own
+     * work is timed.
+     */
+    private <T> T runOrderTransaction(final String operation, final GroupCommitter.UnitOfWork<T> work)
+            throws Exception {
+        if (groupCommitter.isEnabled()) {
+            return groupCommitter.execute(groupConn -> {
+                long start = System.nanoTime();
+                try {
+                    return work.execute(groupConn);
+                } finally {
+                    holdTimes.record(operation, System.nanoTime() - start);
+                }
+            });
+        }
+
+        Connection conn = null;
+        long heldSince = 0;
+        try {
+            conn = getConn();
+            heldSince = System.nanoTime();
+            T result = work.execute(conn);
+            commit(conn);
+            return result;
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+            if (conn != null)
+                holdTimes.record(operation, System.nanoTime() - heldSince);
+        }
+    }
+
+    /*
+     * Counts the holdings and the orders of the trade users.
+     */
+    private void countRunStats(Connection conn, RunStatsDataBean runStatsData) throws Exception {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+
+        // count holdings for trade users
+        // imported accountejb into portfolios microservice to do the inner join across
+        // the accountejb
+        // (in this microservice) instead of the accountejb (in the accounts
+        // microservice). As a result of this,
+        // here were no changes to the sql statement
+        stmt = getStatement(conn,
+                "select count(holdingid) as \"holdingCount\" from holdingejb h where h.account_accountid in "
+                        + "(select accountid from accountejb a where a.profile_userid like 'uid:%')");
+
+        rs = stmt.executeQuery();
+        rs.next();
+        int holdingCount = rs.getInt("holdingCount");
+        runStatsData.setHoldingCount(holdingCount);
+        stmt.close();
+        rs.close();
 
+        // count orders for trade users
+        // imported accountejb into portfolios microservice to do the inner join across
+        // the accountejb
+        // (in this microservice) instead of the accountejb (in the accounts
+        // microservice). As a result of this,
+        // here were no changes to the sql statement
+        stmt = getStatement(conn,
+                "select count(orderid) as \"orderCount\" from orderejb o where o.account_accountid in "
+                        + "(select accountid from accountejb a where a.profile_userid like 'uid:%')");
+
+        rs = stmt.executeQuery();
+        rs.next();
+        int orderCount = rs.getInt("orderCount");
+        runStatsData.setOrderCount(orderCount);
+        stmt.close();
         rs.close();
+
+        // count orders by type for trade users
+        // imported accountejb into portfolios microservice to do the inner join across
+        // the accountejb
+        // (in this microservice) instead of the accountejb (in the accounts
+        // microservice). As a result of this,
+        // here were no changes to the sql statement
+        stmt = getStatement(conn,
+                "select count(orderid) \"buyOrderCount\"from orderejb o where (o.account_accountid in "
+                        + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
+                        + " (o.orderType='buy')");
+
+        rs = stmt.executeQuery();
+        rs.next();
+        int buyOrderCount = rs.getInt("buyOrderCount");
+        runStatsData.setBuyOrderCount(buyOrderCount);
         stmt.close();
+        rs.close();
 
-// public (buy/sell) method responsible for transaction demarcation
-//        commit(conn);
+        // count orders by type for trade users
+        // imported accountejb into portfolios microservice to do the inner join across
+        // the accountejb
+        // (in this microservice) instead of the accountejb (in the accounts
+        // microservice). As a result of this,
+        // here were no changes to the sql statement
+        stmt = getStatement(conn,
+                "select count(orderid) \"sellOrderCount\"from orderejb o where (o.account_accountid in "
+                        + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
+                        + " (o.orderType='sell')");
+
+        rs = stmt.executeQuery();
+        rs.next();
+        int sellOrderCount = rs.getInt("sellOrderCount");
+        runStatsData.setSellOrderCount(sellOrderCount);
+        stmt.close();
+        rs.close();
 
-        // signify this order for user userID is complete
-        /*
-         * TradeAction tradeAction = new TradeAction(this);
-         * tradeAction.orderCompleted(userID, orderID);
-         */
+        // count open orders by type for trade users
+        // imported accountejb into portfolios microservice to do the inner join across
+        // the accountejb
+        // (in this microservice) instead of the accountejb (in the accounts
+        // microservice). As a result of this,
+        // here were no changes to the sql statement
+        stmt = getStatement(conn,
+                "select count(orderid) \"openOrderCount\"from orderejb o where (o.account_accountid in "
+                        + "(select accountid from accountejb a where a.profile_userid like 'uid:%')) AND "
+                        + " (o.orderStatus='open')");
+
+        rs = stmt.executeQuery();
+        rs.next();
+        int openOrderCount = rs.getInt("openOrderCount");
+        runStatsData.setOpenOrderCount(openOrderCount);
 
-        return orderData;
+        stmt.close();
+        rs.close();
     }
 
-    private AccountProfileDataBean getAccountProfileData(Connection conn, Integer accountID) throws Exception {
-        PreparedStatement stmt = getStatement(conn, getAccountProfileForAccountSQL);
-        stmt.setInt(1, accountID.intValue());
-
-        ResultSet rs = stmt.executeQuery();
+    /*
+     * Selects up to max ids and runs each delete statement for each of them, in
+     * JDBC batches.
+     */
+    private List<Integer> deleteInBatch(String selectSQL, int max, String... deleteSQLs) throws Exception {
+        List<Integer> ids = new ArrayList<Integer>();
+        Connection conn = null;
+        try {
+            conn = getConn();
+            PreparedStatement stmt = getStatement(conn, selectSQL);
+            stmt.setMaxRows(max);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next())
+                ids.add(rs.getInt(1));
+            rs.close();
+            stmt.close();
 
-        AccountProfileDataBean accountProfileData = getAccountProfileDataFromResultSet(rs);
-        stmt.close();
-        return accountProfileData;
+            if (!ids.isEmpty()) {
+                for (String deleteSQL : deleteSQLs) {
+                    stmt = getStatement(conn, deleteSQL);
+                    for (Integer id : ids) {
+                        stmt.setInt(1, id.intValue());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    stmt.close();
+                }
+            }
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+        return ids;
     }
 
-    // changed this code to get the account profile from the portfolios table
-    // (actually it is called account)
-    // in this microservice instead of having to make a remote call to the accounts
-    // which would vialote best practices
-    // for hirarchical call tree. kept this method to isolate the rest of this
-    // microservice from changes.
-    private AccountProfileDataBean getAccountProfileDataFromResultSet(ResultSet rs) throws Exception {
-        AccountProfileDataBean profileData = null;
+    private static boolean isAsynch(Integer mode) {
+        return (mode != null) && (mode.intValue() == TradeConfig.ASYNCH_2PHASE);
+    }
 
-        if (!rs.next())
-            Log.debug("PortfoliosService:getAccountProfileData() - cannot find profile; result set is empty");
-        else {
-            // code change to populate the account profile with the data required by this
-            // microservice
-            profileData = new AccountProfileDataBean();
-            profileData.setUserID(rs.getString("profile_userID"));
+    /*
+     * Resolves the accountID of the user, reading it from the database only the
+     * first time. Returns null if the user has no account.
+     */
+    private Integer getAccountID(Connection conn, String userID) throws Exception {
+        Integer accountID = accountIDs.get(userID);
+        if (accountID == null) {
+            AccountDataBean accountData = getAccountData(conn, userID);
+            if (accountData != null) {
+                accountID = accountData.getAccountID();
+                accountIDs.put(userID, accountID);
+            }
         }
-        return profileData;
+        return accountID;
     }
 
     private AccountDataBean getAccountData(Connection conn, String userID) throws Exception {
@@ -967,8 +1423,8 @@ public class PortfoliosService {
         Timestamp purchaseDate = new Timestamp(System.currentTimeMillis());
         PreparedStatement stmt = getStatement(conn, createHoldingSQL);
 
-        Integer holdingID = KeySequenceDirect.getNextID("holding");
-        stmt.setInt(1, holdingID.intValue());
+        int holdingID = KeySequenceDirect.getNextID("holding");
+        stmt.setInt(1, holdingID);
         stmt.setTimestamp(2, purchaseDate);
         stmt.setBigDecimal(3, purchasePrice);
         stmt.setDouble(4, quantity);
@@ -978,16 +1434,37 @@ public class PortfoliosService {
 
         stmt.close();
 
-        return getHoldingData(conn, holdingID.intValue());
+        return new HoldingDataBean(holdingID, quantity, purchasePrice, purchaseDate, symbol);
+    }
+
+    /*
+     * Deletes the accounts with ids in [offset, offset + limit) with their
+     * orders and holdings.
+     */
+    private void removeAccountRange(Connection conn, int offset, int limit) throws Exception {
+        for (String sql : new String[] { removeOrderRangeSQL, removeHoldingRangeSQL, removeAccountRangeSQL }) {
+            PreparedStatement stmt = getStatement(conn, sql);
+            stmt.setInt(1, offset);
+            stmt.setInt(2, offset + limit);
+            stmt.executeUpdate();
+            stmt.close();
+        }
     }
 
     private void removeHolding(Connection conn, int holdingID, int orderID) throws Exception {
         PreparedStatement stmt = getStatement(conn, removeHoldingSQL);
 
         stmt.setInt(1, holdingID);
-        stmt.executeUpdate();
+        int removed = stmt.executeUpdate();
         stmt.close();
 
+        // a concurrent sell of the same holding got there first; fail so this
+        // order's credit rolls back with it
+        if (removed != 1) {
+            throw new NotFoundException("Unable to find holding for holdingID: " + holdingID
+                    + " - already sold, order: " + orderID);
+        }
+
         // set the HoldingID to NULL for the purchase and sell order now that
         // the holding as been removed
         stmt = getStatement(conn, removeHoldingFromOrderSQL);
@@ -998,32 +1475,45 @@ public class PortfoliosService {
 
     }
 
+    /*
+     * Inserts the order and returns it as written. An order created "closed" is
+     * stamped with its completion date.
+     */
     private OrderDataBean createOrder(Connection conn, AccountDataBean accountData, QuoteDataBean quoteData,
-            HoldingDataBean holdingData, String orderType, double quantity) throws Exception {
+            HoldingDataBean holdingData, String orderType, double quantity, String orderStatus) throws Exception {
 
         Timestamp currentDate = new Timestamp(System.currentTimeMillis());
+        Timestamp completionDate = orderStatus.equals("closed") ? currentDate : null;
+        BigDecimal price = quoteData.getPrice().setScale(FinancialUtils.SCALE, FinancialUtils.ROUND);
+        BigDecimal orderFee = TradeConfig.getOrderFee(orderType);
 
         PreparedStatement stmt = getStatement(conn, createOrderSQL);
 
-        Integer orderID = KeySequenceDirect.getNextID("order");
-        stmt.setInt(1, orderID.intValue());
+        int orderID = KeySequenceDirect.getNextID("order");
+        stmt.setInt(1, orderID);
         stmt.setString(2, orderType);
-        stmt.setString(3, "open");
+        stmt.setString(3, orderStatus);
         stmt.setTimestamp(4, currentDate);
-        stmt.setDouble(5, quantity);
-        stmt.setBigDecimal(6, quoteData.getPrice().setScale(FinancialUtils.SCALE, FinancialUtils.ROUND));
-        stmt.setBigDecimal(7, TradeConfig.getOrderFee(orderType));
-        stmt.setInt(8, accountData.getAccountID().intValue());
+        stmt.setTimestamp(5, completionDate);
+        stmt.setDouble(6, quantity);
+        stmt.setBigDecimal(7, price);
+        stmt.setBigDecimal(8, orderFee);
+        stmt.setInt(9, accountData.getAccountID().intValue());
         if (holdingData == null)
-            stmt.setNull(9, java.sql.Types.INTEGER);
+            stmt.setNull(10, java.sql.Types.INTEGER);
         else
-            stmt.setInt(9, holdingData.getHoldingID().intValue());
-        stmt.setString(10, quoteData.getSymbol());
+            stmt.setInt(10, holdingData.getHoldingID().intValue());
+        stmt.setString(11, quoteData.getSymbol());
         stmt.executeUpdate();
 
         stmt.close();
 
-        return getOrderData(conn, orderID.intValue());
+        OrderDataBean orderData = new OrderDataBean(orderID, orderType, orderStatus, currentDate, completionDate,
+                quantity, price, orderFee, quoteData.getSymbol());
+        orderData.setAccountID(accountData.getAccountID());
+        if (holdingData != null)
+            orderData.setHoldingID(holdingData.getHoldingID());
+        return orderData;
     }
 
     private HoldingDataBean getHoldingData(Connection conn, int holdingID) throws Exception {
@@ -1044,24 +1534,6 @@ public class PortfoliosService {
         return holdingData;
     }
 
-    private OrderDataBean getOrderData(Connection conn, int orderID) throws Exception {
-        OrderDataBean orderData = null;
-
-        PreparedStatement stmt = getStatement(conn, getOrderSQL);
-        stmt.setInt(1, orderID);
-        ResultSet rs = stmt.executeQuery();
-
-        if (!rs.next())
-            Log.debug("PortfoliosService:getOrderData() - unable to find order with ID " + orderID);
-        else
-            orderData = getOrderDataFromResultSet(rs);
-
-        rs.close();
-        stmt.close();
-
-        return orderData;
-    }
-
     // Set Timestamp to zero to denote sell is inflight
     // UPDATE -- could add a "status" attribute to holding
     private void updateHoldingStatus(Connection conn, Integer holdingID, String symbol) throws Exception {
@@ -1084,11 +1556,13 @@ public class PortfoliosService {
         stmt.close();
     }
 
-    private void updateOrderHolding(Connection conn, int orderID, int holdingID) throws Exception {
-        PreparedStatement stmt = getStatement(conn, updateOrderHoldingSQL);
+    private void closeOrder(Connection conn, int orderID, Timestamp completionDate, int holdingID) throws Exception {
+        PreparedStatement stmt = getStatement(conn, closeOrderSQL);
 
-        stmt.setInt(1, holdingID);
-        stmt.setInt(2, orderID);
+        stmt.setString(1, "closed");
+        stmt.setTimestamp(2, completionDate);
+        stmt.setInt(3, holdingID);
+        stmt.setInt(4, orderID);
         stmt.executeUpdate();
         stmt.close();
     }
@@ -1186,6 +1660,23 @@ public class PortfoliosService {
     private Connection getConn() throws Exception {
 //        if (datasource == null) getDataSource();
 
+        dbLimiter.acquire();
+        try {
+            Connection conn = datasource.getConnection();
+            conn.setAutoCommit(false);
+
+            return conn;
+        } catch (Exception e) {
+            dbLimiter.release();
+            throw e;
+        }
+    }
+
+    /*
+     * Allocate a connection for the key generator. The key generator keeps it until
+     * it is re-initialized, so it is not counted by the limiter.
+     */
+    private Connection getKeySequenceConn() throws Exception {
         Connection conn = datasource.getConnection();
         conn.setAutoCommit(false);
 
@@ -1218,6 +1709,8 @@ public class PortfoliosService {
                 String exceptionAsString = sw.toString();
                 Log.debug("PortfoliosService:releaseConn() - Ignored exception closing a connection: \n"
                         + exceptionAsString);
+            } finally {
+                dbLimiter.release();
             }
         }
     }
@@ -1232,12 +1725,6 @@ public class PortfoliosService {
     // - Kept the sql statements for the portfolios microservices; removed the
     // others
 
-// Changed this query to get the portfolio (it is then used to construct profile data)
-//    private final static String getAccountProfileForAccountSQL =
-//            "select * from accountprofileejb ap where ap.userid = "
-//                + "(select profile_userid from accountejb a where a.accountid=?)";
-    private final static String getAccountProfileForAccountSQL = "select * from accountejb a where a.accountid=?";
-
 // Refactored this SQL it worked but was ereally incorrectly coded.
 // Note that account already has a userid so there was no reason to have an
 // inner join. The sql should have been written like the following to start.
@@ -1248,16 +1735,42 @@ public class PortfoliosService {
 //                + "( select userid from accountprofileejb ap where ap.userid = ?)";
     private static final String getAccountForUserSQL = "select * from accountejb where profile_userid = ?";
 
+    private static final String getAccountSQL = "select accountid from accountejb where accountid = ?";
+
     private static final String createHoldingSQL = "insert into holdingejb "
             + "( holdingid, purchaseDate, purchasePrice, quantity, quote_symbol, account_accountid ) "
             + "VALUES (  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ? )";
 
     private static final String createOrderSQL = "insert into orderejb "
-            + "( orderid, ordertype, orderstatus, opendate, quantity, price, orderfee, account_accountid,  holding_holdingid, quote_symbol) "
-            + "VALUES (  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ?  , ? , ? , ?)";
+            + "( orderid, ordertype, orderstatus, opendate, completiondate, quantity, price, orderfee, account_accountid,  holding_holdingid, quote_symbol) "
+            + "VALUES (  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ?  ,  ?  , ? , ? , ?)";
 
     private static final String removeHoldingSQL = "delete from holdingejb where holdingid = ?";
 
+    private static final String getRandomAccountsSQL = "select accountid from accountejb where profile_userid like 'ru:%'";
+
+    private static final String removeOrdersForAccountSQL = "delete from orderejb where account_accountid = ?";
+
+    private static final String removeHoldingsForAccountSQL = "delete from holdingejb where account_accountid = ?";
+
+    private static final String removeAccountSQL = "delete from accountejb where accountid = ?";
+
+    private static final String removeOrderRangeSQL = "delete from orderejb "
+            + "where account_accountid >= ? and account_accountid < ?";
+
+    private static final String removeHoldingRangeSQL = "delete from holdingejb "
+            + "where account_accountid >= ? and account_accountid < ?";
+
+    private static final String removeAccountRangeSQL = "delete from accountejb "
+            + "where accountid >= ? and accountid < ?";
+
+    private static final String getCancelledOrdersSQL = "select orderid from orderejb where orderstatus = 'cancelled'";
+
+    private static final String getSoldOrdersSQL = "select orderid from orderejb "
+            + "where holding_holdingid is null and orderstatus = 'closed'";
+
+    private static final String removeOrderSQL = "delete from orderejb where orderid = ?";
+
     private static final String removeHoldingFromOrderSQL = "update orderejb set holding_holdingid=null where holding_holdingid = ?";
 
     private static final String getHoldingSQL = "select * from holdingejb h where h.holdingid = ?";
@@ -1280,10 +1793,10 @@ public class PortfoliosService {
     // call
     //
     // No changes required
-    private static final String getHoldingsForUserSQL = "select * from holdingejb h where h.account_accountid = "
-            + "(select a.accountid from accountejb a where a.profile_userid = ?)";
-    // private static final String getHoldingsForAccountSQL = "select * from
-    // holdingejb h where h.account_accountid = ?";
+    //
+    // updated: the accountid is now resolved through the accountIDs cache, so the
+    // subquery on profile_userid is no longer needed
+    private static final String getHoldingsForAccountSQL = "select * from holdingejb h where h.account_accountid = ?";
 
     private static final String getOrderSQL = "select * from orderejb o where o.orderid = ?";
 
@@ -1305,20 +1818,17 @@ public class PortfoliosService {
     // call
     //
     // No changes required
-    private static final String getOrdersByUserSQL = "select * from orderejb o where o.account_accountid = "
-            + "(select a.accountid from accountejb a where a.profile_userid = ?)";
-    // private static final String getOrdersByAccountSQL = "select * from orderejb o
-    // where o.account_accountid = ?";
+    //
+    // updated: the accountid is now resolved through the accountIDs cache
+    private static final String getOrdersByAccountSQL = "select * from orderejb o where o.account_accountid = ?";
 
     // updated on 2018-06-20
     // - Moved this SQL from the accounts into the portfolios where it is used (high
     // cohesion)
-    private static final String getClosedOrdersSQL = "select * from orderejb o "
-            + "where o.orderstatus = 'closed' AND o.account_accountid = "
-            + "(select a.accountid from accountejb a where a.profile_userid = ?)";
-    // private static final String getClosedOrdersByAccountSQL = "select * from
-    // orderejb o "
-    // + "where o.orderstatus = 'closed' AND o.account_accountid = ?";
+    //
+    // updated: the accountid is now resolved through the accountIDs cache
+    private static final String getClosedOrdersByAccountSQL = "select * from orderejb o "
+            + "where o.orderstatus = 'closed' AND o.account_accountid = ?";
 
 // removed unused SQL
 //    private static final String getAllOrdersSQL =
@@ -1334,12 +1844,15 @@ public class PortfoliosService {
     private static final String updateOrderStatusSQL = "update orderejb set " + "orderstatus = ?, completiondate = ? "
             + "where orderid = ?";
 
-    private static final String updateOrderHoldingSQL = "update orderejb set " + "holding_holdingID = ? "
-            + "where orderid = ?";
+    private static final String closeOrderSQL = "update orderejb set "
+            + "orderstatus = ?, completiondate = ?, holding_holdingID = ? " + "where orderid = ?";
 
     private static final String creditAccountBalanceSQL = "update accountejb set " + "balance = balance + ? "
             + "where accountid = ?";
 
+    private static final String getAccountBalanceSQL = "select profile_userid, balance, openbalance from accountejb "
+            + "where accountid = ?";
+
     private static boolean initialized = false;
 
     public static synchronized void init() {
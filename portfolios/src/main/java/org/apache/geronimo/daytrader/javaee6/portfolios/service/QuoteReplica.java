@@ -0,0 +1,165 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.subscription.Cancellable;
+
+/**
+ * A local copy of the quotes that orders are priced with, kept current by the
+ * quote stream of the quotes microservice, so buy and sell do not need a remote
+ * call per order.
+ *
+ * A quote is served from the replica only while the stream is connected and
+ * only if it was received within max-staleness-millis; otherwise it is fetched
+ * from the quotes microservice and kept. When the stream drops the replica is
+ * emptied, since the changes missed while it was down are unknown, and the
+ * stream is reconnected with a growing delay.
+ *
+ * Note: an order may be priced with a quote that has changed in the quotes
+ * database but whose change has not arrived yet. With the replica disabled
+ * every quote is fetched remotely, as before.
+ */
+
+@ApplicationScoped
+public class QuoteReplica {
+
+    @Inject
+    @RestClient
+    QuotesRemoteCallService quotesService;
+
+    @ConfigProperty(name = "daytrader.portfolios.quote-replica.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.portfolios.quote-replica.max-staleness-millis", defaultValue = "5000")
+    long maxStalenessMillis;
+
+    private static final Duration FIRST_RECONNECT_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RECONNECT_DELAY = Duration.ofSeconds(30);
+
+    private static final class Entry {
+        final QuoteDataBean quoteData;
+        final long receivedAt;
+
+        Entry(QuoteDataBean quoteData, long receivedAt) {
+            this.quoteData = quoteData;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> quotes = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean connected = false;
+    private Cancellable subscription;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled)
+            return;
+
+        // every change, uncoalesced, so the replica is never a tick behind
+        subscription = quotesService.streamQuotes(0)
+                .onSubscribe().invoke(s -> connected = true)
+                .onCompletion().failWith(() -> new IllegalStateException("quote stream closed"))
+                .onFailure().invoke(this::disconnected)
+                .onFailure().retry().withBackOff(FIRST_RECONNECT_DELAY, MAX_RECONNECT_DELAY).indefinitely()
+                .subscribe().with(this::changed);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (subscription != null)
+            subscription.cancel();
+    }
+
+    /**
+     * Returns the quote for the symbol from the replica when it is current, or
+     * from the quotes microservice otherwise.
+     */
+    public QuoteDataBean getQuote(String symbol) {
+        if (!enabled)
+            return quotesService.getQuote(symbol);
+
+        Entry entry = quotes.get(symbol);
+        long now = System.nanoTime();
+        if (entry != null && connected
+                && now - entry.receivedAt <= TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis)) {
+            hits.incrementAndGet();
+            return entry.quoteData;
+        }
+
+        misses.incrementAndGet();
+        final QuoteDataBean quoteData = quotesService.getQuote(symbol);
+        if (quoteData != null && connected) {
+            // keep a change that arrived while the quote was being fetched; the
+            // fetched quote is dated from before the call, as it may be that old
+            final Entry fetched = new Entry(quoteData, now);
+            quotes.merge(symbol, fetched, (current, update) -> (current.receivedAt - now > 0) ? current : update);
+        }
+        return quoteData;
+    }
+
+    private void changed(QuoteDataBean quoteData) {
+        changes.incrementAndGet();
+        quotes.put(quoteData.getSymbol(), new Entry(quoteData, System.nanoTime()));
+    }
+
+    private void disconnected(Throwable t) {
+        connected = false;
+        quotes.clear();
+        disconnects.incrementAndGet();
+        Log.debug("QuoteReplica - quote stream disconnected, reconnecting: " + t);
+    }
+
+    /**
+     * Returns whether the stream is connected, the number of quotes held, and the
+     * hit, miss, change and disconnect counters.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("maxStalenessMillis", maxStalenessMillis);
+        stats.put("connected", connected);
+        stats.put("size", quotes.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("changes", changes.get());
+        stats.put("disconnects", disconnects.get());
+        return stats;
+    }
+}
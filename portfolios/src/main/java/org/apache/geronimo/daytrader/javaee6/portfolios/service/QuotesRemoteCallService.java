@@ -21,11 +21,15 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
 // Daytrader
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * The remote call service to the quotes microservice.
@@ -48,4 +52,15 @@ public interface QuotesRemoteCallService {
     @Produces(MediaType.APPLICATION_JSON)
     public QuoteDataBean getQuote(@PathParam("symbol") String symbol);
 
+    /**
+     * Streams the quotes created or updated from now on; with a tickMillis of 0
+     * every change is sent as it is written.
+     *
+     */
+    @GET
+    @Path("/quotes/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<QuoteDataBean> streamQuotes(@QueryParam("tickMillis") int tickMillis);
+
 }
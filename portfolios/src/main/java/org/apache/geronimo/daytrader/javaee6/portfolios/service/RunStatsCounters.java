@@ -0,0 +1,325 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.apache.geronimo.daytrader.javaee6.portfolios.utils.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Keeps the run statistics of the portfolios in memory, so resetTrade does not
+ * count the order and holding tables of the trade users (uid:*) each time.
+ *
+ * The counters are updated by the order and registration paths once their
+ * transactions have committed. A single thread reconciles them with the
+ * database every reconcile-interval-millis, correcting whatever drift a restart
+ * or a failure between commit and update has left. Orders, builds and resets
+ * hold off a reconciliation from before they commit until they have been
+ * counted, and a reconciliation holds them off while it counts, so a row is
+ * never in both the count and a later update. The same thread runs the
+ * cleanup that resetTrade used to run inline: the random users (ru:*) and their
+ * orders and holdings, the cancelled orders and the closed orders whose holding
+ * has been sold are deleted cleanup-batch-size rows per transaction, and the
+ * counters are reconciled right after.
+ *
+ * Note: the cancelled and deleted order counts returned by resetTrade are those
+ * of the cleanups run since the previous resetTrade, as the cleanup it asks for
+ * runs after it has returned. With the counters disabled resetTrade counts and
+ * cleans up in the database, as before.
+ */
+
+@ApplicationScoped
+public class RunStatsCounters {
+
+    @Inject
+    PortfoliosService portfoliosService;
+
+    @ConfigProperty(name = "daytrader.portfolios.run-stats.counters.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.portfolios.run-stats.reconcile-interval-millis", defaultValue = "60000")
+    long reconcileIntervalMillis;
+
+    @ConfigProperty(name = "daytrader.portfolios.run-stats.cleanup-batch-size", defaultValue = "500")
+    int cleanupBatchSize;
+
+    // the rows of the trade users, as resetTrade counted them
+    private final AtomicLong holdings = new AtomicLong();
+    private final AtomicLong orders = new AtomicLong();
+    private final AtomicLong buyOrders = new AtomicLong();
+    private final AtomicLong sellOrders = new AtomicLong();
+    private final AtomicLong openOrders = new AtomicLong();
+
+    // since the previous resetTrade
+    private final AtomicLong newUsers = new AtomicLong();
+    private final AtomicLong cancelledOrders = new AtomicLong();
+    private final AtomicLong deletedOrders = new AtomicLong();
+
+    // the open orders of the trade users, with their type, so their completion
+    // can be counted without looking up who placed them
+    private final ConcurrentHashMap<Integer, String> openOrderTypes = new ConcurrentHashMap<Integer, String>();
+
+    // shared by the updates from before their commit until they are counted,
+    // exclusive to a reconciliation while it counts
+    private final ReentrantReadWriteLock counting = new ReentrantReadWriteLock();
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean cleanupRequested = false;
+    private volatile boolean running = false;
+    private Thread reconciler;
+
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+    private final AtomicLong cleanups = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastReconciledAt = 0;
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled)
+            return;
+
+        running = true;
+        reconciler = new Thread(new Runnable() {
+            public void run() {
+                reconcileLoop();
+            }
+        }, "RunStatsCounters");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (reconciler != null)
+            reconciler.interrupt();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Holds off reconciliation until {@link #endUpdate()}; call it before the
+     * transaction whose rows are then counted.
+     */
+    public void beginUpdate() {
+        if (enabled)
+            counting.readLock().lock();
+    }
+
+    public void endUpdate() {
+        if (enabled)
+            counting.readLock().unlock();
+    }
+
+    private static boolean isTradeUser(String userID) {
+        return (userID != null) && userID.startsWith("uid:");
+    }
+
+    /**
+     * Counts an order that has been committed, closed or open.
+     */
+    public void orderPlaced(String userID, String orderType, Integer orderID, boolean open) {
+        if (!enabled || !isTradeUser(userID))
+            return;
+
+        orders.incrementAndGet();
+        (orderType.equals("buy") ? buyOrders : sellOrders).incrementAndGet();
+        if (open) {
+            openOrders.incrementAndGet();
+            openOrderTypes.put(orderID, orderType);
+        } else {
+            holdingChanged(orderType);
+        }
+    }
+
+    /**
+     * Counts the completion of an open order that has been committed.
+     */
+    public void orderCompleted(Integer orderID) {
+        String orderType = enabled ? openOrderTypes.remove(orderID) : null;
+        if (orderType == null)
+            return;
+
+        openOrders.decrementAndGet();
+        holdingChanged(orderType);
+    }
+
+    private void holdingChanged(String orderType) {
+        if (orderType.equals("buy"))
+            holdings.incrementAndGet();
+        else
+            holdings.decrementAndGet();
+    }
+
+    /**
+     * Counts the accounts registered.
+     */
+    public void registered(String userID) {
+        if (enabled && userID != null && userID.startsWith("ru:"))
+            newUsers.incrementAndGet();
+    }
+
+    /**
+     * Counts the holdings and closed buy orders written by tradeBuildDB.
+     */
+    public void built(int holdingCount) {
+        if (!enabled)
+            return;
+        holdings.addAndGet(holdingCount);
+        orders.addAndGet(holdingCount);
+        buyOrders.addAndGet(holdingCount);
+    }
+
+    /**
+     * Returns the run statistics and starts the count of new users and deleted
+     * orders over, then has the cleanup run in the background.
+     */
+    public RunStatsDataBean resetRunStats() {
+        RunStatsDataBean runStatsData = new RunStatsDataBean();
+        runStatsData.setHoldingCount((int) holdings.get());
+        runStatsData.setOrderCount((int) orders.get());
+        runStatsData.setBuyOrderCount((int) buyOrders.get());
+        runStatsData.setSellOrderCount((int) sellOrders.get());
+        runStatsData.setOpenOrderCount((int) openOrders.get());
+        runStatsData.setNewUserCount((int) newUsers.getAndSet(0));
+        runStatsData.setCancelledOrderCount((int) cancelledOrders.getAndSet(0));
+        runStatsData.setDeletedOrderCount((int) deletedOrders.getAndSet(0));
+
+        cleanupRequested = true;
+        wakeUps.release();
+        return runStatsData;
+    }
+
+    /**
+     * Zeroes the counters once the tables have been emptied.
+     */
+    public void clear() {
+        openOrderTypes.clear();
+        for (AtomicLong counter : new AtomicLong[] { holdings, orders, buyOrders, sellOrders, openOrders, newUsers,
+                cancelledOrders, deletedOrders })
+            counter.set(0);
+    }
+
+    private void reconcileLoop() {
+        while (running) {
+            try {
+                wakeUps.tryAcquire(reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+                if (cleanupRequested) {
+                    cleanupRequested = false;
+                    cleanUp();
+                }
+                reconcile();
+            } catch (InterruptedException e) {
+                if (!running)
+                    break;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                Log.error("RunStatsCounters - reconciliation failed, retrying in " + reconcileIntervalMillis + " ms",
+                        e);
+            }
+        }
+    }
+
+    private void cleanUp() throws Exception {
+        int deleted;
+        do {
+            deleted = portfoliosService.deleteRandomUsers(cleanupBatchSize);
+        } while (deleted == cleanupBatchSize && running);
+        do {
+            deleted = portfoliosService.deleteCancelledOrders(cleanupBatchSize);
+            cancelledOrders.addAndGet(deleted);
+        } while (deleted == cleanupBatchSize && running);
+        do {
+            deleted = portfoliosService.deleteSoldOrders(cleanupBatchSize);
+            deletedOrders.addAndGet(deleted);
+        } while (deleted == cleanupBatchSize && running);
+        cleanups.incrementAndGet();
+    }
+
+    /*
+     * Counts while no update is between its commit and its count, so the counters
+     * and the database agree unless they have drifted, and moves each counter to
+     * the database's count. Updates wait for the count to finish.
+     */
+    private void reconcile() throws Exception {
+        counting.writeLock().lock();
+        try {
+            RunStatsDataBean counted = portfoliosService.countRunStats();
+            long[] actual = { counted.getHoldingCount(), counted.getOrderCount(), counted.getBuyOrderCount(),
+                    counted.getSellOrderCount(), counted.getOpenOrderCount() };
+            AtomicLong[] counters = { holdings, orders, buyOrders, sellOrders, openOrders };
+
+            for (int i = 0; i < counters.length; i++) {
+                long drift = actual[i] - counters[i].get();
+                if (drift != 0) {
+                    counters[i].addAndGet(drift);
+                    corrections.addAndGet(Math.abs(drift));
+                }
+            }
+        } finally {
+            counting.writeLock().unlock();
+        }
+        reconciliations.incrementAndGet();
+        lastReconciledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the counters, the open orders followed, and how many
+     * reconciliations and cleanups have run and how far off the counters were.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("reconcileIntervalMillis", reconcileIntervalMillis);
+        stats.put("cleanupBatchSize", cleanupBatchSize);
+        stats.put("running", running);
+        stats.put("holdings", holdings.get());
+        stats.put("orders", orders.get());
+        stats.put("buyOrders", buyOrders.get());
+        stats.put("sellOrders", sellOrders.get());
+        stats.put("openOrders", openOrders.get());
+        stats.put("newUsers", newUsers.get());
+        stats.put("cancelledOrders", cancelledOrders.get());
+        stats.put("deletedOrders", deletedOrders.get());
+        stats.put("openOrdersFollowed", openOrderTypes.size());
+        stats.put("reconciliations", reconciliations.get());
+        stats.put("corrections", corrections.get());
+        stats.put("cleanups", cleanups.get());
+        stats.put("failures", failures.get());
+        stats.put("lastReconciledAt", lastReconciledAt);
+        return stats;
+    }
+}
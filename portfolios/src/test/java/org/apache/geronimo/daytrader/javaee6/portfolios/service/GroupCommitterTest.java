@@ -0,0 +1,288 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.portfolios.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sql.DataSource;
+
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the group committer against a fake database that keeps the rows written
+ * by each unit of work and honours savepoints, commit and rollback.
+ */
+public class GroupCommitterTest {
+
+    private final FakeDatabase db = new FakeDatabase();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private GroupCommitter committer;
+
+    @BeforeEach
+    void setUp() {
+        committer = new GroupCommitter();
+        committer.datasource = db.dataSource();
+        committer.enabled = true;
+        committer.timeoutMillis = 10000;
+    }
+
+    @AfterEach
+    void tearDown() {
+        committer.stop();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void failingUnitOnlyFailsItsCaller() throws Exception {
+        start(4, 5000);
+        final IllegalArgumentException rejected = new IllegalArgumentException("rejected");
+        final Error broken = new Error("broken");
+
+        Future<String> a = submit(conn -> write("a"));
+        Future<String> b = submit(conn -> {
+            write("b");
+            throw rejected;
+        });
+        Future<String> c = submit(conn -> {
+            write("c");
+            throw broken;
+        });
+        Future<String> d = submit(conn -> write("d"));
+
+        assertEquals("a", a.get());
+        assertSame(rejected, failure(b));
+        assertSame(broken, failure(c));
+        assertEquals("d", d.get());
+        assertEquals(Arrays.asList("a", "d"), db.committed);
+        assertEquals(1L, committer.getStatistics().get("groups"));
+        assertEquals(2L, committer.getStatistics().get("failedUnits"));
+    }
+
+    @Test
+    void failedCommitFailsEveryCaller() throws Exception {
+        start(2, 5000);
+        db.failCommit = true;
+
+        Future<String> a = submit(conn -> write("a"));
+        Future<String> b = submit(conn -> write("b"));
+
+        assertTrue(failure(a) instanceof SQLException);
+        assertTrue(failure(b) instanceof SQLException);
+        assertTrue(db.committed.isEmpty());
+        assertEquals(1L, committer.getStatistics().get("failedCommits"));
+
+        // the committer carries on with the next group
+        db.failCommit = false;
+        committer.maxBatch = 1;
+        assertEquals("c", committer.execute(conn -> write("c")));
+        assertEquals(Arrays.asList("c"), db.committed);
+    }
+
+    @Test
+    void errorOutsideAUnitDoesNotStrandTheCallers() throws Exception {
+        start(1, 0);
+        db.failConnect = new Error("no connection");
+
+        assertThrows(Error.class, () -> committer.execute(conn -> write("a")));
+        assertEquals("b", committer.execute(conn -> write("b")));
+        assertEquals(Arrays.asList("b"), db.committed);
+    }
+
+    @Test
+    void groupConnectionTakesALimiterPermit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 100);
+        committer.setConcurrencyLimiter(limiter);
+        start(1, 0);
+
+        // with the only permit taken the group cannot get its connection
+        limiter.acquire();
+        assertThrows(SQLTransientConnectionException.class, () -> committer.execute(conn -> write("a")));
+        limiter.release();
+
+        assertEquals("b", committer.execute(conn -> write("b")));
+        assertEquals(2L, ((Number) limiter.getStatistics().get("acquired")).longValue());
+        assertEquals(0L, ((Number) limiter.getStatistics().get("inUse")).longValue());
+    }
+
+    @Test
+    void callerGivesUpAfterTheTimeout() throws Exception {
+        start(1, 0);
+        committer.timeoutMillis = 200;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> busy = submit(conn -> {
+            started.countDown();
+            release.await();
+            return write("a");
+        });
+        started.await();
+
+        // the second unit stays queued behind the first group and is withdrawn
+        TimeoutException e = assertThrows(TimeoutException.class, () -> committer.execute(conn -> write("b")));
+        assertTrue(e.getMessage().contains("not started"));
+
+        // the first had been taken into a group, so its caller waits for the
+        // group's outcome past the timeout
+        Thread.sleep(300);
+        assertFalse(busy.isDone());
+        release.countDown();
+        assertEquals("a", busy.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a"), db.committed);
+    }
+
+    @Test
+    void stopFailsQueuedWork() throws Exception {
+        start(1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> busy = submit(conn -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+            return write("a");
+        });
+        started.await();
+        List<Future<String>> queued = new ArrayList<Future<String>>();
+        for (int i = 0; i < 3; i++)
+            queued.add(submit(conn -> write("b")));
+        while (((Number) committer.getStatistics().get("queued")).intValue() < 3)
+            Thread.sleep(10);
+
+        committer.stop();
+
+        assertTrue(failure(busy) instanceof InterruptedException);
+        for (Future<String> pending : queued)
+            assertTrue(failure(pending) instanceof IllegalStateException);
+        assertThrows(IllegalStateException.class, () -> committer.execute(conn -> write("c")));
+        assertTrue(db.committed.isEmpty());
+    }
+
+    private void start(int maxBatch, long windowMillis) {
+        committer.maxBatch = maxBatch;
+        committer.windowMillis = windowMillis;
+        committer.start();
+    }
+
+    private Future<String> submit(GroupCommitter.UnitOfWork<String> work) {
+        return callers.submit(() -> committer.execute(work));
+    }
+
+    private String write(String row) {
+        db.pending.add(row);
+        return row;
+    }
+
+    private static Throwable failure(Future<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("unit of work did not fail");
+    }
+
+    /*
+     * Rows written since the last commit are pending; a rollback to a savepoint
+     * drops the rows written after it.
+     */
+    private static final class FakeDatabase {
+        final List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> pending = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean failCommit;
+        volatile Error failConnect;
+
+        DataSource dataSource() {
+            return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                    new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                        if (!method.getName().equals("getConnection"))
+                            throw new UnsupportedOperationException(method.getName());
+                        Error error = failConnect;
+                        if (error != null) {
+                            failConnect = null;
+                            throw error;
+                        }
+                        return connection();
+                    });
+        }
+
+        private Connection connection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "setAutoCommit":
+                        case "releaseSavepoint":
+                        case "close":
+                            return null;
+                        case "setSavepoint":
+                            return new Mark(pending.size());
+                        case "rollback":
+                            int size = (args == null) ? 0 : ((Mark) args[0]).size;
+                            while (pending.size() > size)
+                                pending.remove(pending.size() - 1);
+                            return null;
+                        case "commit":
+                            if (failCommit)
+                                throw new SQLException("commit failed");
+                            committed.addAll(pending);
+                            pending.clear();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    private static final class Mark implements Savepoint {
+        final int size;
+
+        Mark(int size) {
+            this.size = size;
+        }
+
+        public int getSavepointId() {
+            return size;
+        }
+
+        public String getSavepointName() {
+            return null;
+        }
+    }
+}
@@ -17,10 +17,16 @@
 
 package org.apache.geronimo.daytrader.javaee6.quotes.controller;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.GET;
@@ -32,15 +38,24 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 // Daytrader
 import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 // DayTrader
 import org.apache.geronimo.daytrader.javaee6.quotes.service.QuotesService;
 import org.apache.geronimo.daytrader.javaee6.quotes.utils.Log;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * API endpoints are documented using Swagger UI.
@@ -72,6 +87,9 @@ public class QuotesController {
     @Inject
     private QuotesService quotesService;
 
+    @Inject
+    ObjectMapper mapper;
+
     //
     // Quotes Related Endpoints
     //
@@ -107,7 +125,14 @@ public class QuotesController {
     }
 
     /**
-     * REST call to get all quotes.
+     * REST call to get all quotes, or the quotes for a comma separated list of
+     * symbols, e.g. /quotes?symbols=s:1,s:2,s:3
+     *
+     * When a limit is given the quotes are returned a page at a time, ordered by
+     * symbol. If there may be more quotes the response carries an
+     * X-Continuation-Token header; pass it back as the "after" parameter to get
+     * the next page. Without a limit all quotes are streamed as they are read
+     * from the database.
      *
      * Notes: added params attribute to request mapping to resolve ambigous mapping
      *
@@ -116,35 +141,65 @@ public class QuotesController {
     @Path("/quotes")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getAllQuotes(@QueryParam(value = "limit") Integer limit,
-            @QueryParam(value = "offset") Integer offset) {
+            @QueryParam(value = "offset") Integer offset, @QueryParam(value = "symbols") String symbols,
+            @QueryParam(value = "after") String after) {
         Log.traceEnter("QuotesController.getAllQuotes()");
 
         Collection<QuoteDataBean> quotes = null;
 
         try {
-            //
-            // - TODO: Currently get all quotes returns all resources. It is never a good
-            // idea to
-            // return all resources. So, refactor this method to take in the parameters
-            // limit &
-            // offset change the SQL query to use those values, e.g.
-            //
-            // SELECT * FROM quoteejb
-            // ORDER BY symbol
-            // LIMIT limit OFFSET offset;
-            //
-            // Note this offset pagination mechanism uses well known keywords from SQL
-            // databases
-            quotes = quotesService.getAllQuotes();
-            if (quotes != null) {
+            if (symbols != null) {
+                quotes = quotesService.getQuotes(parseSymbols(symbols));
                 Log.traceExit("QuotesController.getAllQuotes()");
-                // TODO Auto-generated method stub
                 return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quotes).build();
-            } else {
+            }
+
+            if (limit == null) {
+                StreamingOutput stream = output -> {
+                    JsonGenerator generator = mapper.getFactory().createGenerator(output);
+                    try {
+                        quotesService.streamAllQuotes(generator);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        // - the status has already been sent; all we can do is log and abort
+                        Log.error("QuotesController.getAllQuotes() - streaming failed", e);
+                        throw new IOException(e);
+                    } finally {
+                        generator.close();
+                    }
+                };
                 Log.traceExit("QuotesController.getAllQuotes()");
-                // TODO Auto-generated method stub
-                return Response.status(Status.NO_CONTENT).header("Cache-Control", "no-cache").entity(quotes).build();
+                return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stream).build();
+            }
+
+            if ((limit < 1) || ((offset != null) && (offset < 0))) {
+                Log.traceExit("QuotesController.getAllQuotes()");
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+
+            String afterSymbol = null;
+            if (after != null) {
+                try {
+                    afterSymbol = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    Log.traceExit("QuotesController.getAllQuotes()");
+                    return Response.status(Status.BAD_REQUEST).build();
+                }
+            }
+
+            quotes = quotesService.getQuotesPage(afterSymbol, (offset == null) ? 0 : offset, limit);
+
+            ResponseBuilder response = Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quotes);
+            if (quotes.size() == limit) {
+                QuoteDataBean last = null;
+                for (QuoteDataBean quoteData : quotes)
+                    last = quoteData;
+                response.header("X-Continuation-Token",
+                        Base64.getUrlEncoder().withoutPadding().encodeToString(last.getSymbol().getBytes(StandardCharsets.UTF_8)));
             }
+            Log.traceExit("QuotesController.getAllQuotes()");
+            return response.build();
         } catch (Throwable t) {
             Log.error("QuotesController.getAllQuotes()", t);
             // TODO Auto-generated method stub
@@ -152,6 +207,37 @@ public class QuotesController {
         }
     }
 
+    /**
+     * REST call to stream the quotes created or updated from now on, as
+     * server-sent events carrying one quote each, e.g.
+     * /quotes/stream?symbols=s:1,s:2 to watch some symbols only.
+     *
+     * The changes to a symbol are coalesced over a tick of tickMillis
+     * (daytrader.quotes.publish.tick-millis by default), so only its latest
+     * quote is sent once per tick; tickMillis=0 sends every change. A client that
+     * falls too far behind is disconnected and should reconnect.
+     *
+     */
+    @GET
+    @Path("/quotes/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<QuoteDataBean> streamQuotes(@QueryParam(value = "symbols") String symbols,
+            @QueryParam(value = "tickMillis") Integer tickMillis) {
+        Log.traceEnter("QuotesController.streamQuotes()");
+
+        if ((tickMillis != null) && (tickMillis < 0)) {
+            Log.traceExit("QuotesController.streamQuotes()");
+            throw new BadRequestException("tickMillis must not be negative");
+        }
+
+        Multi<QuoteDataBean> quotes = quotesService
+                .streamQuoteChanges((symbols == null) ? null : parseSymbols(symbols), tickMillis);
+
+        Log.traceExit("QuotesController.streamQuotes()");
+        return quotes;
+    }
+
     /**
      * REST call to create a quote provided in the request body.
      *
@@ -214,6 +300,33 @@ public class QuotesController {
         }
     }
 
+    /**
+     * REST call to update the price and volume of several quotes at once, e.g.
+     * with the quote changes of the trades completed by a web instance since its
+     * last call. Returns the quotes that were changed.
+     */
+    @PATCH
+    @Path("/quotes")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates) {
+        Log.traceEnter("QuotesController.updateQuotePriceVolumes()");
+
+        if (updates == null) {
+            Log.traceExit("QuotesController.updateQuotePriceVolumes()");
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        try {
+            Collection<QuoteDataBean> quotes = quotesService.updateQuotePriceVolumes(updates);
+            Log.traceExit("QuotesController.updateQuotePriceVolumes()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(quotes).build();
+        } catch (Throwable t) {
+            Log.error("QuotesController.updateQuotePriceVolumes()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     //
     // Markets Related Endpoints
     //
@@ -246,20 +359,21 @@ public class QuotesController {
     //
 
     /**
-     * REST call to create the specified number of quotes
+     * REST call to create the specified number of quotes, with the prices
+     * generated from seed when one is given
      *
      */
     @POST
     @Path("/admin/tradeBuildDB")
     public Response tradeBuildDB(@QueryParam(value = "limit") Integer limit,
-            @QueryParam(value = "offset") Integer offset) {
+            @QueryParam(value = "offset") Integer offset, @QueryParam(value = "seed") Long seed) {
         Log.traceEnter("QuotesController.tradeBuildDB()");
 
         Boolean success = false;
 
         try {
             // Create the sample quotes
-            success = quotesService.tradeBuildDB(limit, offset);
+            success = quotesService.tradeBuildDB(limit, offset, seed);
             Log.traceExit("QuotesController.tradeBuildDB()");
             // TODO Auto-generated method stub
             return Response.status(Status.CREATED).header("Cache-Control", "no-cache").entity(success).build();
@@ -321,6 +435,89 @@ public class QuotesController {
         }
     }
 
+    /**
+     * REST call to get the hit, miss and eviction counters of the quote cache
+     *
+     */
+    @GET
+    @Path("/admin/quoteCache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getQuoteCacheStatistics() {
+        Log.traceEnter("QuotesController.getQuoteCacheStatistics()");
+
+        try {
+            Map<String, Object> statistics = quotesService.getQuoteCacheStatistics();
+            Log.traceExit("QuotesController.getQuoteCacheStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(statistics).build();
+        } catch (Throwable t) {
+            Log.error("QuotesController.getQuoteCacheStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of quote updates received and of row updates
+     * written for them
+     *
+     */
+    @GET
+    @Path("/admin/quoteUpdates")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getQuoteUpdateStatistics() {
+        Log.traceEnter("QuotesController.getQuoteUpdateStatistics()");
+
+        try {
+            Map<String, Object> statistics = quotesService.getQuoteUpdateStatistics();
+            Log.traceExit("QuotesController.getQuoteUpdateStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(statistics).build();
+        } catch (Throwable t) {
+            Log.error("QuotesController.getQuoteUpdateStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of quotes published on the quote stream and its
+     * subscribers
+     *
+     */
+    @GET
+    @Path("/admin/quoteStream")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getQuoteStreamStatistics() {
+        Log.traceEnter("QuotesController.getQuoteStreamStatistics()");
+
+        try {
+            Map<String, Object> statistics = quotesService.getQuotePublisherStatistics();
+            Log.traceExit("QuotesController.getQuoteStreamStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(statistics).build();
+        } catch (Throwable t) {
+            Log.error("QuotesController.getQuoteStreamStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST call to get the number of database connections in use, their peak, and
+     * the time requests waited for one
+     *
+     */
+    @GET
+    @Path("/admin/connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getConnectionStatistics() {
+        Log.traceEnter("QuotesController.getConnectionStatistics()");
+
+        try {
+            Map<String, Object> stats = quotesService.getConnectionStatistics();
+            Log.traceExit("QuotesController.getConnectionStatistics()");
+            return Response.status(Status.OK).header("Cache-Control", "no-cache").entity(stats).build();
+        } catch (Throwable t) {
+            Log.error("QuotesController.getConnectionStatistics()", t);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     //
     // Private helper functions
     //
@@ -332,4 +529,16 @@ public class QuotesController {
 //		return responseHeaders;
 //	}
 
+    /**
+     * Splits a comma separated list of symbols, dropping blanks and duplicates.
+     */
+    private static Collection<String> parseSymbols(String symbols) {
+        Collection<String> result = new LinkedHashSet<String>();
+        for (String symbol : symbols.split(",")) {
+            symbol = symbol.trim();
+            if (symbol.length() > 0)
+                result.add(symbol);
+        }
+        return result;
+    }
 }
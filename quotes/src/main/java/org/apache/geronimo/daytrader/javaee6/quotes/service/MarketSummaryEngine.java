@@ -0,0 +1,195 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.direct.FinancialUtils;
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+
+/**
+ * Maintains the market summary for the Trade Stock Index (TSIA) incrementally.
+ *
+ * The TSIA is made up of the symbols matching 's:1__' (s:100 to s:199). The
+ * engine is seeded once from the database and then kept current by the quotes
+ * service every time it writes one of those quotes. It keeps running sums of
+ * price, open price and volume, and keeps the index members ordered by change so
+ * the top gainers and losers are read off either end. The summary itself is
+ * rebuilt only after a change, so reads do not touch the database.
+ */
+
+@ApplicationScoped
+public class MarketSummaryEngine {
+
+    private static final int TOP_COUNT = 5;
+
+    // ordered by change, then symbol so that two quotes never compare equal
+    private static final Comparator<QuoteDataBean> BY_CHANGE = new Comparator<QuoteDataBean>() {
+        @Override
+        public int compare(QuoteDataBean q1, QuoteDataBean q2) {
+            int result = Double.compare(q1.getChange(), q2.getChange());
+            return (result != 0) ? result : q1.getSymbol().compareTo(q2.getSymbol());
+        }
+    };
+
+    private final Map<String, QuoteDataBean> members = new HashMap<String, QuoteDataBean>();
+    private final TreeSet<QuoteDataBean> byChange = new TreeSet<QuoteDataBean>(BY_CHANGE);
+
+    private BigDecimal sumPrice = FinancialUtils.ZERO;
+    private BigDecimal sumOpen = FinancialUtils.ZERO;
+    private double sumVolume = 0.0;
+
+    private boolean seeded = false;
+    private MarketSummaryDataBean summary = null;
+
+    // bumped by every reset, so rows read before a reset are not seeded after it
+    private long generation = 0;
+
+    /**
+     * Returns true if the symbol is one of the symbols that make up the TSIA, i.e.
+     * it matches the SQL pattern 's:1__'
+     */
+    public static boolean isTSIASymbol(String symbol) {
+        return (symbol != null) && (symbol.length() == 5) && symbol.startsWith("s:1");
+    }
+
+    public synchronized boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Returns the current generation; take it before reading the rows to seed
+     * the engine with.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Seeds the engine with the TSIA quotes read from the database. Quotes that
+     * were written while the rows were being read are newer than the rows, so
+     * they are kept. Rows read before a reset are ignored.
+     *
+     * @param generation the generation taken before the rows were read
+     */
+    public synchronized void seed(long generation, Collection<QuoteDataBean> quotes) {
+        if (generation != this.generation)
+            return;
+
+        for (QuoteDataBean quoteData : quotes) {
+            if (!members.containsKey(quoteData.getSymbol()))
+                add(quoteData);
+        }
+        seeded = true;
+        summary = null;
+    }
+
+    /**
+     * Applies a quote that has just been written. Quotes outside of the TSIA are
+     * ignored.
+     */
+    public void update(QuoteDataBean quoteData) {
+        if ((quoteData == null) || !isTSIASymbol(quoteData.getSymbol()))
+            return;
+
+        synchronized (this) {
+            QuoteDataBean oldQuoteData = members.get(quoteData.getSymbol());
+            if (oldQuoteData != null)
+                remove(oldQuoteData);
+            add(quoteData);
+            summary = null;
+        }
+    }
+
+    /**
+     * Discards all state; the engine is seeded again on the next read.
+     */
+    public synchronized void reset() {
+        members.clear();
+        byChange.clear();
+        sumPrice = FinancialUtils.ZERO;
+        sumOpen = FinancialUtils.ZERO;
+        sumVolume = 0.0;
+        seeded = false;
+        summary = null;
+        generation++;
+    }
+
+    /**
+     * Returns the current market summary, or null if the engine has not been
+     * seeded yet.
+     */
+    public synchronized MarketSummaryDataBean getMarketSummary() {
+        if (!seeded)
+            return null;
+
+        if (summary == null) {
+            Collection<QuoteDataBean> topGainers = new ArrayList<QuoteDataBean>(TOP_COUNT);
+            Collection<QuoteDataBean> topLosers = new ArrayList<QuoteDataBean>(TOP_COUNT);
+
+            Iterator<QuoteDataBean> gainers = byChange.descendingIterator();
+            while (gainers.hasNext() && topGainers.size() < TOP_COUNT)
+                topGainers.add(gainers.next());
+
+            Iterator<QuoteDataBean> losers = byChange.iterator();
+            while (losers.hasNext() && topLosers.size() < TOP_COUNT)
+                topLosers.add(losers.next());
+
+            BigDecimal TSIA = FinancialUtils.ZERO;
+            BigDecimal openTSIA = FinancialUtils.ZERO;
+            if (!members.isEmpty()) {
+                BigDecimal count = new BigDecimal(members.size());
+                TSIA = sumPrice.divide(count, MathContext.DECIMAL64);
+                openTSIA = sumOpen.divide(count, MathContext.DECIMAL64);
+            }
+            summary = new MarketSummaryDataBean(TSIA, openTSIA, sumVolume, topGainers, topLosers);
+        }
+        return summary;
+    }
+
+    private void add(QuoteDataBean quoteData) {
+        members.put(quoteData.getSymbol(), quoteData);
+        byChange.add(quoteData);
+        sumPrice = sumPrice.add(valueOf(quoteData.getPrice()));
+        sumOpen = sumOpen.add(valueOf(quoteData.getOpen()));
+        sumVolume += quoteData.getVolume();
+    }
+
+    private void remove(QuoteDataBean quoteData) {
+        members.remove(quoteData.getSymbol());
+        byChange.remove(quoteData);
+        sumPrice = sumPrice.subtract(valueOf(quoteData.getPrice()));
+        sumOpen = sumOpen.subtract(valueOf(quoteData.getOpen()));
+        sumVolume -= quoteData.getVolume();
+    }
+
+    private static BigDecimal valueOf(BigDecimal value) {
+        return (value == null) ? FinancialUtils.ZERO : value;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * A bounded, in-process cache of quotes keyed by symbol.
+ *
+ * Quotes are populated on first read and refreshed by the quotes service
+ * whenever it writes a quote, so hot symbols are served without a round trip
+ * to the database. Reads take no lock; each entry only records when it was
+ * last read. When the cache grows past max-size, one writer evicts the least
+ * recently used tenth of the entries in a single pass, so the eviction is
+ * approximate LRU and its cost is spread over many inserts.
+ *
+ * Note: the cache is local to this process. It is only coherent as long as all
+ * writes to quoteejb go through this instance of the quotes microservice.
+ */
+
+@ApplicationScoped
+public class QuoteCache {
+
+    @ConfigProperty(name = "daytrader.quotes.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.quotes.cache.max-size", defaultValue = "10000")
+    int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+        final QuoteDataBean quoteData;
+        volatile long lastAccess = System.nanoTime();
+
+        Entry(QuoteDataBean quoteData) {
+            this.quoteData = quoteData;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> quotes = new ConcurrentHashMap<String, Entry>();
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    /**
+     * Returns the cached quote for the symbol, or null if it is not cached.
+     */
+    public QuoteDataBean get(String symbol) {
+        if (!enabled)
+            return null;
+
+        Entry entry = quotes.get(symbol);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        hits.incrementAndGet();
+        return entry.quoteData;
+    }
+
+    /**
+     * Caches a quote that was read from the database. An entry that was written
+     * concurrently by an update is newer than the row read, so it is kept.
+     */
+    public void populate(QuoteDataBean quoteData) {
+        if (!enabled || quoteData == null)
+            return;
+
+        quotes.putIfAbsent(quoteData.getSymbol(), new Entry(quoteData));
+        evictIfFull();
+    }
+
+    /**
+     * Replaces the cached quote with the one just written to the database.
+     */
+    public void refresh(QuoteDataBean quoteData) {
+        if (!enabled || quoteData == null)
+            return;
+
+        quotes.put(quoteData.getSymbol(), new Entry(quoteData));
+        evictIfFull();
+    }
+
+    public void invalidate(String symbol) {
+        quotes.remove(symbol);
+    }
+
+    public void clear() {
+        quotes.clear();
+    }
+
+    /*
+     * Evicts the least recently read entries down to nine tenths of max-size.
+     * Only one thread evicts at a time; the others carry on, the cache being a
+     * little over size meanwhile.
+     */
+    private void evictIfFull() {
+        if (quotes.size() <= maxSize || !evicting.tryLock())
+            return;
+
+        try {
+            int excess = quotes.size() - (maxSize - maxSize / 10);
+            if (excess <= 0)
+                return;
+
+            long[] lastAccesses = new long[quotes.size()];
+            int count = 0;
+            for (Entry entry : quotes.values()) {
+                if (count == lastAccesses.length)
+                    break;
+                lastAccesses[count++] = entry.lastAccess;
+            }
+            Arrays.sort(lastAccesses, 0, count);
+            final long cutoff = lastAccesses[Math.min(excess, count) - 1];
+
+            for (Map.Entry<String, Entry> candidate : quotes.entrySet()) {
+                if (excess == 0)
+                    break;
+                if (candidate.getValue().lastAccess - cutoff <= 0
+                        && quotes.remove(candidate.getKey(), candidate.getValue())) {
+                    evictions.incrementAndGet();
+                    excess--;
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters along with the current size.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("maxSize", maxSize);
+        stats.put("size", quotes.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import java.nio.BufferOverflowException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+
+/**
+ * Publishes every quote the quotes service writes to the subscribers of the
+ * quote stream (the price-change events TradeConfig.publishQuotePriceChange
+ * once stood for).
+ *
+ * A subscriber may ask for some symbols only, and may ask for the changes to be
+ * coalesced: only the latest quote of each symbol is then kept, and sent at the
+ * end of a tick if the subscriber has asked for more, so a client watching a
+ * busy symbol gets at most one event per tick rather than one per trade. While
+ * the client asks for nothing, newer quotes overwrite the ones it has not taken.
+ *
+ * Quotes are published once their transaction has committed, so subscribers
+ * never see a write that was rolled back. Since commits of the same symbol can
+ * finish out of order, each write takes a ticket while it still holds the row
+ * lock, and a quote older than the last one published for its symbol is
+ * dropped.
+ *
+ * A subscriber that is sent every change gets its own bounded buffer. If it
+ * falls more than buffer-size quotes behind it is failed rather than slowing
+ * down the writers; it is expected to reconnect and treat what it held as
+ * stale.
+ */
+
+@ApplicationScoped
+public class QuotePublisher {
+
+    @ConfigProperty(name = "daytrader.quotes.publish.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.quotes.publish.buffer-size", defaultValue = "1000")
+    int bufferSize;
+
+    private static final class Change {
+        final QuoteDataBean quoteData;
+        final long ticket;
+
+        Change(QuoteDataBean quoteData, long ticket) {
+            this.quoteData = quoteData;
+            this.ticket = ticket;
+        }
+    }
+
+    /*
+     * Holds the latest change of each symbol the subscriber has not been sent yet.
+     * Only one thread drains at a time, so the subscriber never gets an older
+     * change of a symbol after a newer one, even when the writers race.
+     */
+    private final class Subscriber {
+        final MultiEmitter<? super QuoteDataBean> emitter;
+        final Set<String> symbols;
+        final boolean coalescing;
+
+        final ConcurrentHashMap<String, Change> pending = new ConcurrentHashMap<String, Change>();
+        // the ticket of the last change sent for each symbol; only used while draining
+        final Map<String, Long> sent = new HashMap<String, Long>();
+        final AtomicInteger draining = new AtomicInteger();
+
+        Subscriber(MultiEmitter<? super QuoteDataBean> emitter, Set<String> symbols, boolean coalescing) {
+            this.emitter = emitter;
+            this.symbols = symbols;
+            this.coalescing = coalescing;
+        }
+
+        void send(QuoteDataBean quoteData, long ticket) {
+            if (symbols != null && !symbols.contains(quoteData.getSymbol()))
+                return;
+
+            final Change change = new Change(quoteData, ticket);
+            pending.compute(quoteData.getSymbol(), (symbol, waiting) -> {
+                if (waiting == null)
+                    return change;
+                coalesced.incrementAndGet();
+                return waiting.ticket > ticket ? waiting : change;
+            });
+            if (!coalescing)
+                drain();
+        }
+
+        /*
+         * Sends the pending changes; a coalescing subscriber is only sent as many as
+         * it has asked for, the rest stay pending and may be overwritten.
+         */
+        void drain() {
+            if (draining.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            do {
+                for (String symbol : pending.keySet()) {
+                    if (emitter.isCancelled() || (coalescing && emitter.requested() <= 0))
+                        break;
+                    Change change = pending.remove(symbol);
+                    if (change == null)
+                        continue;
+
+                    Long last = sent.get(symbol);
+                    if (last != null && last > change.ticket) {
+                        stale.incrementAndGet();
+                        continue;
+                    }
+                    sent.put(symbol, change.ticket);
+                    emitter.emit(change.quoteData);
+                }
+                missed = draining.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    private final AtomicLong tickets = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> lastTickets = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong subscriptions = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    /**
+     * Returns the ticket that orders a write among the writes of its symbol; take
+     * it while the quote's row is locked.
+     */
+    public long nextTicket() {
+        return tickets.incrementAndGet();
+    }
+
+    /**
+     * Sends the committed quote to every subscriber, unless a later write of the
+     * same symbol has already been sent. The quote must not be modified once it
+     * has been published.
+     *
+     * @param ticket the ticket taken for the write by {@link #nextTicket()}
+     */
+    public void publish(final QuoteDataBean quoteData, final long ticket) {
+        if (!enabled || subscribers.isEmpty())
+            return;
+
+        // only the decision is made under the symbol's entry; sending happens
+        // outside it, so a slow subscriber does not hold up writers of other symbols
+        long last = lastTickets.merge(quoteData.getSymbol(), ticket, Math::max);
+        if (last != ticket) {
+            stale.incrementAndGet();
+            return;
+        }
+        published.incrementAndGet();
+        for (Subscriber subscriber : subscribers)
+            subscriber.send(quoteData, ticket);
+    }
+
+    /**
+     * Returns a stream of the quotes written from now on.
+     *
+     * @param symbols    the symbols to send, or null for all of them
+     * @param tickMillis the length of a tick at the end of which the latest
+     *                   changes are sent as far as the subscriber asks for them,
+     *                   or 0 to send every change as it is written
+     */
+    public Multi<QuoteDataBean> subscribe(final Set<String> symbols, long tickMillis) {
+        if (!enabled)
+            return Multi.createFrom().empty();
+
+        final boolean coalescing = tickMillis > 0;
+        Multi<QuoteDataBean> quotes = Multi.createFrom().<QuoteDataBean>emitter(emitter -> {
+            final Subscriber subscriber = new Subscriber(emitter, symbols, coalescing);
+            subscriptions.incrementAndGet();
+            subscribers.add(subscriber);
+
+            final ScheduledFuture<?> ticks = coalescing
+                    ? Infrastructure.getDefaultWorkerPool().scheduleAtFixedRate(subscriber::drain, tickMillis,
+                            tickMillis, TimeUnit.MILLISECONDS)
+                    : null;
+            emitter.onTermination(() -> {
+                subscribers.remove(subscriber);
+                if (ticks != null)
+                    ticks.cancel(false);
+            });
+        }, bufferSize);
+
+        // the emitter fails a subscriber whose buffer is full with a BufferOverflowException
+        return quotes.onFailure(BufferOverflowException.class).invoke(t -> overflows.incrementAndGet());
+    }
+
+    /**
+     * Returns the number of quotes published and of current and past subscribers,
+     * how many changes were coalesced away or dropped as stale, and how many
+     * subscribers were dropped for falling behind.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("bufferSize", bufferSize);
+        stats.put("subscribers", subscribers.size());
+        stats.put("subscriptions", subscriptions.get());
+        stats.put("published", published.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("stale", stale.get());
+        stats.put("overflows", overflows.get());
+        return stats;
+    }
+}
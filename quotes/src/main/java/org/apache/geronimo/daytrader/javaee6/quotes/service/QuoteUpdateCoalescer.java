@@ -0,0 +1,191 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Merges concurrent price and volume updates to the same symbol into one
+ * update of its row.
+ *
+ * An update of a symbol nobody else is writing is written at once. An update
+ * that arrives while the symbol is being written opens a batch and waits up to
+ * window-millis, or until max-pending updates have joined, for others; it
+ * would have waited for the row lock anyway. The change factors of the batch
+ * are multiplied together and the volumes added, and the first caller writes
+ * the result in one update; every caller in the batch gets the quote as it is
+ * after that update. A hot symbol then takes one row lock per batch instead of
+ * one per trade, and a quiet one pays no window.
+ *
+ * Note: the penny stock and split rules are applied once per batch, to the
+ * price before the batch, rather than once per trade.
+ */
+
+@ApplicationScoped
+public class QuoteUpdateCoalescer {
+
+    /**
+     * Writes one update of a quote.
+     */
+    public interface QuoteUpdater {
+        QuoteDataBean update(String symbol, BigDecimal changeFactor, double sharesTraded) throws Exception;
+    }
+
+    @ConfigProperty(name = "daytrader.quotes.update-coalescing.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "daytrader.quotes.update-coalescing.window-millis", defaultValue = "5")
+    long windowMillis;
+
+    @ConfigProperty(name = "daytrader.quotes.update-coalescing.max-pending", defaultValue = "16")
+    int maxPending;
+
+    private static final class Batch {
+        final CountDownLatch full = new CountDownLatch(1);
+        final CompletableFuture<QuoteDataBean> result = new CompletableFuture<QuoteDataBean>();
+        BigDecimal changeFactor = BigDecimal.ONE;
+        double sharesTraded;
+        int count;
+
+        void add(BigDecimal changeFactor, double sharesTraded) {
+            this.changeFactor = this.changeFactor.multiply(changeFactor, MathContext.DECIMAL64);
+            this.sharesTraded += sharesTraded;
+            count++;
+        }
+    }
+
+    // - the batches waiting to be written, by symbol
+    private final Map<String, Batch> pending = new HashMap<String, Batch>();
+    // - the number of batches being written, by symbol; guarded by pending
+    private final Map<String, Integer> writing = new HashMap<String, Integer>();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the update to the symbol's current batch and waits for the batch to be
+     * written.
+     *
+     * @return the quote after the batch was written
+     * @throws Exception the exception thrown writing the batch
+     */
+    public QuoteDataBean update(String symbol, BigDecimal changeFactor, double sharesTraded, QuoteUpdater updater)
+            throws Exception {
+        updates.incrementAndGet();
+
+        Batch batch;
+        boolean leader;
+        boolean contended = false;
+        synchronized (pending) {
+            batch = pending.get(symbol);
+            leader = (batch == null);
+            if (leader) {
+                batch = new Batch();
+                // only hold a window open if there is a write to wait behind
+                contended = writing.containsKey(symbol);
+                if (contended)
+                    pending.put(symbol, batch);
+                else
+                    writing.merge(symbol, 1, Integer::sum);
+            }
+            batch.add(changeFactor, sharesTraded);
+            if (batch.count >= maxPending) {
+                pending.remove(symbol);
+                batch.full.countDown();
+            }
+        }
+
+        if (leader)
+            write(symbol, batch, updater, contended);
+
+        try {
+            return batch.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw (Error) cause;
+        }
+    }
+
+    private void write(String symbol, Batch batch, QuoteUpdater updater, boolean contended) {
+        if (contended) {
+            try {
+                batch.full.await(windowMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // write what has been collected so far
+                Thread.currentThread().interrupt();
+            }
+
+            // no update joins the batch once it is out of the map
+            synchronized (pending) {
+                if (pending.get(symbol) == batch)
+                    pending.remove(symbol);
+                writing.merge(symbol, 1, Integer::sum);
+            }
+        }
+
+        writes.incrementAndGet();
+        try {
+            batch.result.complete(updater.update(symbol, batch.changeFactor, batch.sharesTraded));
+        } catch (Throwable t) {
+            failedWrites.incrementAndGet();
+            batch.result.completeExceptionally(t);
+        } finally {
+            synchronized (pending) {
+                writing.computeIfPresent(symbol, (key, count) -> (count == 1) ? null : count - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of updates received and of row updates written for them.
+     */
+    public Map<String, Object> getStatistics() {
+        long writeCount = writes.get();
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("windowMillis", windowMillis);
+        stats.put("maxPending", maxPending);
+        stats.put("updates", updates.get());
+        stats.put("writes", writeCount);
+        stats.put("avgUpdatesPerWrite", (writeCount == 0) ? 0.0 : (double) updates.get() / writeCount);
+        stats.put("failedWrites", failedWrites.get());
+        return stats;
+    }
+}
@@ -32,23 +32,36 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
 import javax.ws.rs.InternalServerErrorException;
-import javax.ws.rs.NotFoundException;
 
 import org.apache.geronimo.daytrader.javaee6.core.beans.MarketSummaryDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
 import org.apache.geronimo.daytrader.javaee6.core.beans.RunStatsDataBean;
+import org.apache.geronimo.daytrader.javaee6.core.direct.BatchWriter;
+import org.apache.geronimo.daytrader.javaee6.core.direct.ConcurrencyLimiter;
 import org.apache.geronimo.daytrader.javaee6.core.direct.FinancialUtils;
+import org.apache.geronimo.daytrader.javaee6.core.direct.SampleData;
 import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
 
 //- Each microservice has its own log
 
 import org.apache.geronimo.daytrader.javaee6.quotes.utils.Log;
 import org.apache.geronimo.daytrader.javaee6.utils.TradeConfig;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.smallrye.mutiny.Multi;
 
 /**
  * A microservice to retrieve real time stock quotes.
@@ -66,7 +79,46 @@ public class QuotesService {
     @Inject
     private DataSource datasource;
 
-    private static BigDecimal ZERO = new BigDecimal(0.0);
+    // - Bounds and measures the connections in use at the same time (0 = measure only)
+    @ConfigProperty(name = "daytrader.quotes.db.max-concurrency", defaultValue = "0")
+    int dbMaxConcurrency;
+
+    @ConfigProperty(name = "daytrader.quotes.db.acquire-timeout-millis", defaultValue = "5000")
+    long dbAcquireTimeoutMillis;
+
+    private ConcurrencyLimiter dbLimiter;
+
+    // - tradeBuildDB writes its rows in JDBC batches of batch-size, committing every commit-interval rows
+    @ConfigProperty(name = "daytrader.quotes.build.batch-size", defaultValue = "500")
+    int buildBatchSize;
+
+    @ConfigProperty(name = "daytrader.quotes.build.commit-interval", defaultValue = "10000")
+    int buildCommitInterval;
+
+    // - Hot quotes are served from an in-process cache kept current by the writes below
+    @Inject
+    QuoteCache quoteCache;
+
+    // - The market summary is kept current by the same writes
+    @Inject
+    MarketSummaryEngine marketSummaryEngine;
+
+    // - Subscribers of the quote stream (e.g. the portfolios quote replica) get the same writes
+    @Inject
+    QuotePublisher quotePublisher;
+
+    @ConfigProperty(name = "daytrader.quotes.stream.fetch-size", defaultValue = "100")
+    int streamFetchSize;
+
+    @ConfigProperty(name = "daytrader.quotes.publish.tick-millis", defaultValue = "250")
+    long streamTickMillis;
+
+    // - Optionally merges concurrent updates of the same symbol into one
+    @Inject
+    QuoteUpdateCoalescer quoteUpdateCoalescer;
+
+    // - Whether quotes are updated with UPDATE ... RETURNING; null until the first update
+    private volatile Boolean updateReturning;
 
     /**
      * Zero arg constructor for QuotesService
@@ -76,6 +128,19 @@ public class QuotesService {
             init();
     }
 
+    @PostConstruct
+    void createLimiter() {
+        dbLimiter = new ConcurrencyLimiter("quotes", dbMaxConcurrency, dbAcquireTimeoutMillis);
+    }
+
+    /**
+     * Returns the limit and the current and peak number of connections in use. The
+     * peak is the pool size needed to serve the load seen so far without waiting.
+     */
+    public Map<String, Object> getConnectionStatistics() {
+        return dbLimiter.getStatistics();
+    }
+
     /**
      * 
      * QuotesService#tradeBuildDB(int,int)
@@ -84,29 +149,83 @@ public class QuotesService {
      * Generate sample data is a formal business operation in the Trade application.
      */
     public Boolean tradeBuildDB(int limit, int offset) throws Exception {
+        return tradeBuildDB(limit, offset, null);
+    }
+
+    /**
+     * Creates the quotes s:offset to s:(offset + limit - 1). With a seed the
+     * quotes get the same prices whichever ranges they are built in, so ranges
+     * past the first may be built at the same time; the range at offset 0 empties
+     * the table and must be built on its own.
+     *
+     * @param seed the seed of the sample data, or null for random data
+     */
+    public Boolean tradeBuildDB(int limit, int offset, Long seed) throws Exception {
         int index = offset;
         if (index == 0)
             resetTrade(true); // delete any rows from db prior to repopulating
 
+        // The quotes are written straight to the table in batches on one
+        // connection; no one holds or subscribes to quotes that do not exist yet,
+        // only the market summary has to be recomputed. A range may be built again
+        // after a failed attempt, so whatever an earlier attempt left in it is
+        // deleted first, in the same transaction
         Connection conn = null;
+        BatchWriter writer = null;
         try {
             conn = getConn();
+            if (offset > 0)
+                removeQuoteRange(conn, offset, limit);
+            writer = new BatchWriter(conn, buildBatchSize, buildCommitInterval);
+            PreparedStatement stmt = writer.prepare(createQuoteSQL);
             for (int i = 0; i < limit; i++) {
                 String symbol = "s:" + index;
                 String companyName = "S" + index + " Incorporated";
-                createQuote(symbol, companyName, new java.math.BigDecimal(TradeConfig.rndPrice()));
+                BigDecimal price = new BigDecimal(SampleData.forRow(seed, index).price())
+                        .setScale(FinancialUtils.SCALE, FinancialUtils.ROUND);
+                stmt.setString(1, symbol); // symbol
+                stmt.setString(2, companyName); // companyName
+                stmt.setDouble(3, 0.0); // volume
+                stmt.setBigDecimal(4, price); // price
+                stmt.setBigDecimal(5, price); // open
+                stmt.setBigDecimal(6, price); // low
+                stmt.setBigDecimal(7, price); // high
+                stmt.setDouble(8, 0.0); // change
+                writer.addRow(stmt);
                 index++;
             }
-            commit(conn);
+            writer.commit();
+
+            // the range's rows were replaced; readers must not get the old ones
+            for (int i = offset; i < offset + limit; i++)
+                quoteCache.invalidate("s:" + i);
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
         } finally {
+            if (writer != null)
+                writer.close();
             releaseConn(conn);
+            marketSummaryEngine.reset();
         }
         return true;
     }
 
+    /*
+     * Deletes the quotes s:offset to s:(offset + limit - 1).
+     */
+    private void removeQuoteRange(Connection conn, int offset, int limit) throws Exception {
+        PreparedStatement stmt = getStatement(conn, removeQuoteSQL);
+        for (int i = 0; i < limit; i++) {
+            stmt.setString(1, "s:" + (offset + i));
+            stmt.addBatch();
+            if ((i + 1) % buildBatchSize == 0)
+                stmt.executeBatch();
+        }
+        stmt.executeBatch();
+        stmt.close();
+    }
+
     /**
      * 
      * @see TradeServices#resetTrade(boolean)
@@ -130,6 +249,8 @@ public class QuotesService {
                 stmt.executeUpdate();
                 stmt.close();
                 commit(conn);
+                quoteCache.clear();
+                marketSummaryEngine.reset();
             } catch (Exception e) {
                 rollBack(conn, e);
                 throw e;
@@ -250,6 +371,8 @@ public class QuotesService {
         } finally {
             releaseConn(conn);
         }
+        quoteCache.clear();
+        marketSummaryEngine.reset();
 
         return true;
     }
@@ -264,80 +387,35 @@ public class QuotesService {
         // Later you can select the exchange, e.g. NYSE, NASDAQ, AMEX to get
         // the top gainers and losers in that exchange
 
-        MarketSummaryDataBean marketSummaryData = null;
-        Connection conn = null;
-        try {
-            conn = getConn();
-            PreparedStatement stmt = getStatement(conn, getTSIAQuotesOrderByChangeSQL,
-                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-
-            // - Collection is a raw type; should be parameterized
-            Collection<QuoteDataBean> topGainersData = new ArrayList<QuoteDataBean>(5);
-            Collection<QuoteDataBean> topLosersData = new ArrayList<QuoteDataBean>(5);
-
-            ResultSet rs = stmt.executeQuery();
-
-            int count = 0;
-            while (rs.next() && (count++ < 5)) {
-                QuoteDataBean quoteData = getQuoteDataFromResultSet(rs);
-                topLosersData.add(quoteData);
-            }
-
-            stmt.close();
-            stmt = getStatement(conn, "select * from quoteejb q where q.symbol like 's:1__' order by q.change1 DESC",
-                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            rs = stmt.executeQuery();
-
-            count = 0;
-            while (rs.next() && (count++ < 5)) {
-                QuoteDataBean quoteData = getQuoteDataFromResultSet(rs);
-                topGainersData.add(quoteData);
-            }
-
-            stmt.close();
-
-            BigDecimal TSIA = ZERO;
-            BigDecimal openTSIA = ZERO;
-            double volume = 0.0;
-
-            if ((topGainersData.size() > 0) || (topLosersData.size() > 0)) {
-
-                stmt = getStatement(conn, getTSIASQL);
-                rs = stmt.executeQuery();
-
-                if (!rs.next())
-                    throw new NotFoundException("Error with getTSIASQL -- no results");
-                else
-                    TSIA = rs.getBigDecimal("TSIA");
-                stmt.close();
-
-                stmt = getStatement(conn, getOpenTSIASQL);
-                rs = stmt.executeQuery();
-
-                if (!rs.next())
-                    throw new NotFoundException("Error with getOpenTSIASQL -- no results");
-                else
-                    openTSIA = rs.getBigDecimal("openTSIA");
-                stmt.close();
+        // The summary is maintained incrementally by marketSummaryEngine; the
+        // database is only read to seed it on first use and after a reset. Rows
+        // read across a reset are discarded and read again
+        MarketSummaryDataBean marketSummaryData = marketSummaryEngine.getMarketSummary();
+        while (marketSummaryData == null) {
+            long generation = marketSummaryEngine.getGeneration();
+            Collection<QuoteDataBean> quotes = new ArrayList<QuoteDataBean>();
+            Connection conn = null;
+            try {
+                conn = getConn();
+                PreparedStatement stmt = getStatement(conn, getTSIAQuotesSQL);
 
-                stmt = getStatement(conn, getTSIATotalVolumeSQL);
-                rs = stmt.executeQuery();
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    quotes.add(getQuoteDataFromResultSet(rs));
+                }
 
-                if (!rs.next())
-                    throw new NotFoundException("Error with getTSIATotalVolumeSQL -- no results");
-                else
-                    volume = rs.getDouble("totalVolume");
                 stmt.close();
+                commit(conn);
             }
-            commit(conn);
-            marketSummaryData = new MarketSummaryDataBean(TSIA, openTSIA, volume, topGainersData, topLosersData);
-        }
 
-        catch (Exception e) {
-            rollBack(conn, e);
-            throw e;
-        } finally {
-            releaseConn(conn);
+            catch (Exception e) {
+                rollBack(conn, e);
+                throw e;
+            } finally {
+                releaseConn(conn);
+            }
+            marketSummaryEngine.seed(generation, quotes);
+            marketSummaryData = marketSummaryEngine.getMarketSummary();
         }
         return marketSummaryData;
 
@@ -353,8 +431,15 @@ public class QuotesService {
         try {
             conn = getConn();
             quoteData = createQuote(conn, symbol, companyName, price);
+            long ticket = quotePublisher.nextTicket();
+            quoteCache.refresh(quoteData);
+            marketSummaryEngine.update(quoteData);
             commit(conn);
+            quotePublisher.publish(quoteData, ticket);
         } catch (Exception e) {
+            quoteCache.invalidate(symbol);
+            if (MarketSummaryEngine.isTSIASymbol(symbol))
+                marketSummaryEngine.reset();
             rollBack(conn, e);
             throw e;
         } finally {
@@ -367,13 +452,17 @@ public class QuotesService {
      * @see TradeServices#getQuote(String)
      */
     public QuoteDataBean getQuote(String symbol) throws Exception {
-        QuoteDataBean quoteData = null;
+        QuoteDataBean quoteData = quoteCache.get(symbol);
+        if (quoteData != null)
+            return quoteData;
+
         Connection conn = null;
 
         try {
             conn = getConn();
             quoteData = getQuote(conn, symbol);
             commit(conn);
+            quoteCache.populate(quoteData);
         } catch (Exception e) {
             rollBack(conn, e);
             throw e;
@@ -383,6 +472,46 @@ public class QuotesService {
         return quoteData;
     }
 
+    /**
+     * Returns the quotes for the given symbols in the order requested. Duplicate
+     * symbols are returned once and unknown symbols are skipped. Symbols that are
+     * not cached are read with a single query.
+     */
+    public Collection<QuoteDataBean> getQuotes(Collection<String> symbols) throws Exception {
+        Map<String, QuoteDataBean> quotes = new LinkedHashMap<String, QuoteDataBean>();
+        Collection<String> missing = new ArrayList<String>();
+        for (String symbol : new LinkedHashSet<String>(symbols)) {
+            QuoteDataBean quoteData = quoteCache.get(symbol);
+            quotes.put(symbol, quoteData);
+            if (quoteData == null)
+                missing.add(symbol);
+        }
+
+        if (!missing.isEmpty()) {
+            Connection conn = null;
+            try {
+                conn = getConn();
+                for (QuoteDataBean quoteData : getQuotes(conn, missing)) {
+                    quotes.put(quoteData.getSymbol(), quoteData);
+                    quoteCache.populate(quoteData);
+                }
+                commit(conn);
+            } catch (Exception e) {
+                rollBack(conn, e);
+                throw e;
+            } finally {
+                releaseConn(conn);
+            }
+        }
+
+        Collection<QuoteDataBean> result = new ArrayList<QuoteDataBean>(quotes.size());
+        for (QuoteDataBean quoteData : quotes.values()) {
+            if (quoteData != null)
+                result.add(quoteData);
+        }
+        return result;
+    }
+
     /**
      * @see TradeServices#getAllQuotes(String)
      */
@@ -415,6 +544,89 @@ public class QuotesService {
         return quotes;
     }
 
+    /**
+     * Returns a page of quotes ordered by symbol. The page starts after the given
+     * symbol, or at the first symbol if it is null. The offset is only applied to
+     * the first page and is kept for clients of the old offset based API.
+     */
+    public Collection<QuoteDataBean> getQuotesPage(String afterSymbol, int offset, int limit) throws Exception {
+        Collection<QuoteDataBean> quotes = new ArrayList<QuoteDataBean>(limit);
+
+        Connection conn = null;
+        try {
+            conn = getConn();
+
+            PreparedStatement stmt;
+            if (afterSymbol == null) {
+                stmt = getStatement(conn, getQuotesPageSQL);
+            } else {
+                stmt = getStatement(conn, getQuotesPageAfterSQL);
+                stmt.setString(1, afterSymbol);
+                offset = 0;
+            }
+            stmt.setMaxRows(offset + limit);
+
+            ResultSet rs = stmt.executeQuery();
+
+            int count = 0;
+            while (rs.next()) {
+                if (count++ < offset)
+                    continue;
+                quotes.add(getQuoteDataFromResultSet(rs));
+            }
+
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+
+        return quotes;
+    }
+
+    /**
+     * Writes all quotes, ordered by symbol, to the generator as a JSON array. Rows
+     * are fetched from the database streamFetchSize at a time and written as they
+     * are read, so memory use does not grow with the size of the table.
+     *
+     * @return the number of quotes written
+     */
+    public int streamAllQuotes(JsonGenerator generator) throws Exception {
+        int count = 0;
+
+        Connection conn = null;
+        try {
+            conn = getConn();
+
+            // - PostgreSQL only honours the fetch size with autocommit off (see getConn)
+            PreparedStatement stmt = getStatement(conn, getQuotesPageSQL);
+            stmt.setFetchSize(streamFetchSize);
+
+            ResultSet rs = stmt.executeQuery();
+
+            generator.writeStartArray();
+            while (rs.next()) {
+                generator.writeObject(getQuoteDataFromResultSet(rs));
+                count++;
+            }
+            generator.writeEndArray();
+            generator.flush();
+
+            stmt.close();
+            commit(conn);
+        } catch (Exception e) {
+            rollBack(conn, e);
+            throw e;
+        } finally {
+            releaseConn(conn);
+        }
+
+        return count;
+    }
+
     /**
      * 
      * @see TradeServices#updateQuotePriceVolumeInt(String,BigDecimal,double)
@@ -426,30 +638,77 @@ public class QuotesService {
 //        if (TradeConfig.getUpdateQuotePrices() == false)
 //            return new QuoteDataBean();
 
+        if (quoteUpdateCoalescer.isEnabled())
+            return quoteUpdateCoalescer.update(symbol, changeFactor, sharesTraded, this::writeQuotePriceVolume);
+
+        return writeQuotePriceVolume(symbol, changeFactor, sharesTraded);
+    }
+
+    /**
+     * Applies a batch of quote updates, each as updateQuotePriceVolumeInt would,
+     * and returns the quotes they changed. An update that fails is logged and
+     * skipped, as it has no bearing on the others; an unknown symbol is skipped.
+     */
+    public Collection<QuoteDataBean> updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates) {
+        Collection<QuoteDataBean> quotes = new ArrayList<QuoteDataBean>(updates.size());
+        for (QuoteUpdateDataBean update : updates) {
+            try {
+                QuoteDataBean quoteData = updateQuotePriceVolumeInt(update.getSymbol(), update.getChangeFactor(),
+                        update.getSharesTraded());
+                if (quoteData != null)
+                    quotes.add(quoteData);
+            } catch (Exception e) {
+                Log.error("QuotesService:updateQuotePriceVolumes -- update failed for " + update.getSymbol(), e);
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Returns the number of quote updates received and of row updates written for
+     * them.
+     */
+    public Map<String, Object> getQuoteUpdateStatistics() {
+        return quoteUpdateCoalescer.getStatistics();
+    }
+
+    /*
+     * Writes one update of the quote's price and volume in its own transaction
+     */
+    private QuoteDataBean writeQuotePriceVolume(String symbol, BigDecimal changeFactor, double sharesTraded)
+            throws Exception {
+
         QuoteDataBean quoteData = null;
         Connection conn = null;
+        long ticket = 0;
 
         try {
             conn = getConn();
 
-            quoteData = getQuoteForUpdate(conn, symbol);
-            BigDecimal oldPrice = quoteData.getPrice();
-            double newVolume = quoteData.getVolume() + sharesTraded;
-
-            if (oldPrice.equals(TradeConfig.PENNY_STOCK_PRICE)) {
-                changeFactor = TradeConfig.PENNY_STOCK_RECOVERY_MIRACLE_MULTIPLIER;
-            } else if (oldPrice.compareTo(TradeConfig.MAXIMUM_STOCK_PRICE) > 0) {
-                changeFactor = TradeConfig.MAXIMUM_STOCK_SPLIT_MULTIPLIER;
+            if (supportsUpdateReturning(conn))
+                quoteData = updateQuotePriceVolumeReturning(conn, symbol, changeFactor, sharesTraded);
+            else
+                quoteData = updateQuotePriceVolumeLocked(conn, symbol, changeFactor, sharesTraded);
+
+            if (quoteData == null) {
+                Log.debug("QuotesService:updateQuotePriceVolumeInt() -- quote not found for symbol: " + symbol);
+            } else {
+                // refresh and take the publish ticket while the row lock is still
+                // held so concurrent updates reach the cache and the subscribers in
+                // the same order they reach the database; subscribers only get the
+                // quote once it has committed
+                quoteCache.refresh(quoteData);
+                marketSummaryEngine.update(quoteData);
+                ticket = quotePublisher.nextTicket();
             }
-
-            BigDecimal newPrice = changeFactor.multiply(oldPrice).setScale(2, BigDecimal.ROUND_HALF_UP);
-
-            updateQuotePriceVolume(conn, quoteData.getSymbol(), newPrice, newVolume);
-            quoteData = getQuote(conn, symbol);
-
             commit(conn);
+            if (quoteData != null)
+                quotePublisher.publish(quoteData, ticket);
 
         } catch (Exception e) {
+            quoteCache.invalidate(symbol);
+            if (MarketSummaryEngine.isTSIASymbol(symbol))
+                marketSummaryEngine.reset();
             rollBack(conn, e);
             throw e;
         } finally {
@@ -458,6 +717,33 @@ public class QuotesService {
         return quoteData;
     }
 
+    /**
+     * Returns the hit, miss and eviction counters of the quote cache.
+     */
+    public Map<String, Object> getQuoteCacheStatistics() {
+        return quoteCache.getStatistics();
+    }
+
+    /**
+     * Returns a stream of the quotes created or updated from now on.
+     *
+     * @param symbols    the symbols to stream, or null for all of them
+     * @param tickMillis the tick over which the changes to a symbol are coalesced
+     *                   into one, 0 to stream every change, or null for the
+     *                   configured default
+     */
+    public Multi<QuoteDataBean> streamQuoteChanges(Collection<String> symbols, Integer tickMillis) {
+        return quotePublisher.subscribe((symbols == null) ? null : new HashSet<String>(symbols),
+                (tickMillis == null) ? streamTickMillis : tickMillis.longValue());
+    }
+
+    /**
+     * Returns the counters of the quote stream.
+     */
+    public Map<String, Object> getQuotePublisherStatistics() {
+        return quotePublisher.getStatistics();
+    }
+
     // Private helper functions
 
     // added private method so it could be called by any number of top-level
@@ -482,6 +768,29 @@ public class QuotesService {
         return new QuoteDataBean(symbol, companyName, volume, price, price, price, price, change);
     }
 
+    private Collection<QuoteDataBean> getQuotes(Connection conn, Collection<String> symbols) throws Exception {
+        Collection<QuoteDataBean> quotes = new ArrayList<QuoteDataBean>(symbols.size());
+
+        // - "in" with one parameter per symbol works on both Derby and PostgreSQL
+        StringBuilder sql = new StringBuilder(getQuotesSQL).append("(");
+        for (int i = 0; i < symbols.size(); i++)
+            sql.append((i == 0) ? "?" : ", ?");
+        sql.append(")");
+
+        PreparedStatement stmt = getStatement(conn, sql.toString());
+        int index = 1;
+        for (String symbol : symbols)
+            stmt.setString(index++, symbol);
+
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) {
+            quotes.add(getQuoteDataFromResultSet(rs));
+        }
+
+        stmt.close();
+        return quotes;
+    }
+
     private QuoteDataBean getQuote(Connection conn, String symbol) throws Exception {
         QuoteDataBean quoteData = null;
         PreparedStatement stmt = getStatement(conn, getQuoteSQL);
@@ -499,17 +808,31 @@ public class QuotesService {
         return quoteData;
     }
 
-    private QuoteDataBean getQuoteForUpdate(Connection conn, String symbol) throws Exception {
+    /*
+     * Updates the quote in one statement: the database applies the penny stock and
+     * split rules, rounds the new price half up, adds the volume and returns the
+     * row. The row lock is only held for that statement and the commit.
+     */
+    private QuoteDataBean updateQuotePriceVolumeReturning(Connection conn, String symbol, BigDecimal changeFactor,
+            double sharesTraded) throws Exception {
         QuoteDataBean quoteData = null;
-        PreparedStatement stmt = getStatement(conn, getQuoteForUpdateSQL);
-        stmt.setString(1, symbol); // symbol
+        PreparedStatement stmt = getStatement(conn, updateQuotePriceVolumeReturningSQL);
+
+        // the new price is computed twice, once for price and once for change1,
+        // since both are evaluated against the row as it was before the update
+        int index = 1;
+        for (int i = 0; i < 2; i++) {
+            stmt.setBigDecimal(index++, TradeConfig.PENNY_STOCK_PRICE);
+            stmt.setBigDecimal(index++, TradeConfig.PENNY_STOCK_RECOVERY_MIRACLE_MULTIPLIER);
+            stmt.setBigDecimal(index++, TradeConfig.MAXIMUM_STOCK_PRICE);
+            stmt.setBigDecimal(index++, TradeConfig.MAXIMUM_STOCK_SPLIT_MULTIPLIER);
+            stmt.setBigDecimal(index++, changeFactor);
+        }
+        stmt.setDouble(index++, sharesTraded);
+        stmt.setString(index++, symbol);
 
         ResultSet rs = stmt.executeQuery();
-
-        if (!rs.next())
-            Log.debug("QuotesService:getQuoteForUpdate() -- quote not found for symbol: " + symbol);
-
-        else
+        if (rs.next())
             quoteData = getQuoteDataFromResultSet(rs);
 
         stmt.close();
@@ -517,15 +840,65 @@ public class QuotesService {
         return quoteData;
     }
 
-    private void updateQuotePriceVolume(Connection conn, String symbol, BigDecimal newPrice, double newVolume)
-            throws Exception {
+    /*
+     * Updates the quote on databases without UPDATE ... RETURNING (Derby): the row
+     * is locked by adding the volume, then read, the new price computed here and
+     * written, and the quote returned is built from the price written rather than
+     * read back.
+     *
+     * The volume update takes the lock rather than a select ... for update, since
+     * at read committed Derby releases the lock of the select as soon as its cursor
+     * is closed, and concurrent updates of the symbol would be lost.
+     */
+    private QuoteDataBean updateQuotePriceVolumeLocked(Connection conn, String symbol, BigDecimal changeFactor,
+            double sharesTraded) throws Exception {
+        if (updateQuoteVolume(conn, symbol, sharesTraded) == 0)
+            return null;
+
+        QuoteDataBean quoteData = getQuote(conn, symbol);
+        BigDecimal oldPrice = quoteData.getPrice();
+
+        if (oldPrice.equals(TradeConfig.PENNY_STOCK_PRICE)) {
+            changeFactor = TradeConfig.PENNY_STOCK_RECOVERY_MIRACLE_MULTIPLIER;
+        } else if (oldPrice.compareTo(TradeConfig.MAXIMUM_STOCK_PRICE) > 0) {
+            changeFactor = TradeConfig.MAXIMUM_STOCK_SPLIT_MULTIPLIER;
+        }
+
+        BigDecimal newPrice = changeFactor.multiply(oldPrice).setScale(2, BigDecimal.ROUND_HALF_UP);
+
+        updateQuotePrice(conn, symbol, newPrice);
+
+        quoteData.setPrice(newPrice);
+        quoteData.setChange(newPrice.subtract(quoteData.getOpen()).doubleValue());
+        return quoteData;
+    }
+
+    private boolean supportsUpdateReturning(Connection conn) throws Exception {
+        if (updateReturning == null)
+            updateReturning = conn.getMetaData().getDatabaseProductName().startsWith("PostgreSQL");
+        return updateReturning;
+    }
+
+    private int updateQuoteVolume(Connection conn, String symbol, double sharesTraded) throws Exception {
 
-        PreparedStatement stmt = getStatement(conn, updateQuotePriceVolumeSQL);
+        PreparedStatement stmt = getStatement(conn, updateQuoteVolumeSQL);
+
+        stmt.setDouble(1, sharesTraded);
+        stmt.setString(2, symbol);
+
+        int count = stmt.executeUpdate();
+        stmt.close();
+
+        return count;
+    }
+
+    private void updateQuotePrice(Connection conn, String symbol, BigDecimal newPrice) throws Exception {
+
+        PreparedStatement stmt = getStatement(conn, updateQuotePriceSQL);
 
         stmt.setBigDecimal(1, newPrice);
         stmt.setBigDecimal(2, newPrice);
-        stmt.setDouble(3, newVolume);
-        stmt.setString(4, symbol);
+        stmt.setString(3, symbol);
 
         stmt.executeUpdate();
         stmt.close();
@@ -614,10 +987,16 @@ public class QuotesService {
     private Connection getConn() throws Exception {
 //        if (datasource == null) getDataSource();
 
-        Connection conn = datasource.getConnection();
-        conn.setAutoCommit(false);
+        dbLimiter.acquire();
+        try {
+            Connection conn = datasource.getConnection();
+            conn.setAutoCommit(false);
 
-        return conn;
+            return conn;
+        } catch (Exception e) {
+            dbLimiter.release();
+            throw e;
+        }
     }
 
     /*
@@ -646,6 +1025,8 @@ public class QuotesService {
                 String exceptionAsString = sw.toString();
                 Log.debug(
                         "QuotesService:releaseConn() - Ignored exception closing a connection: \n" + exceptionAsString);
+            } finally {
+                dbLimiter.release();
             }
         }
     }
@@ -669,28 +1050,30 @@ public class QuotesService {
 
     private static final String getQuoteSQL = "select * from quoteejb q where q.symbol=?";
 
+    private static final String removeQuoteSQL = "delete from quoteejb where symbol = ?";
+
+    private static final String getQuotesSQL = "select * from quoteejb q where q.symbol in ";
+
     private static final String getAllQuotesSQL = "select * from quoteejb q";
 
-    private static final String getQuoteForUpdateSQL = "select * from quoteejb q where q.symbol=? For Update";
+    private static final String getQuotesPageSQL = "select * from quoteejb q order by q.symbol";
 
-    private static final String getTSIAQuotesOrderByChangeSQL = "select * from quoteejb q "
-            + "where q.symbol like 's:1__' order by q.change1";
+    private static final String getQuotesPageAfterSQL = "select * from quoteejb q where q.symbol > ? order by q.symbol";
 
-    private static final String getTSIASQL = "select SUM(price)/count(*) as TSIA from quoteejb q "
-            + "where q.symbol like 's:1__'";
+    private static final String getTSIAQuotesSQL = "select * from quoteejb q where q.symbol like 's:1__'";
 
-    private static final String getOpenTSIASQL = "select SUM(open1)/count(*) as openTSIA from quoteejb q "
-            + "where q.symbol like 's:1__'";
+    private static final String updateQuoteVolumeSQL = "update quoteejb set " + "volume = volume + ? "
+            + "where symbol = ?";
 
-    private static final String getTSIATotalVolumeSQL = "select SUM(volume) as totalVolume from quoteejb q "
-            + "where q.symbol like 's:1__'";
+    private static final String updateQuotePriceSQL = "update quoteejb set " + "price = ?, change1 = ? - open1 "
+            + "where symbol = ?";
 
-    // - The value of the field is never used
-    // private static final String updateQuoteVolumeSQL =
-    // "update quoteejb set " + "volume = volume + ? " + "where symbol = ?";
+    // - PostgreSQL; round() rounds half away from zero, the same as ROUND_HALF_UP for prices
+    private static final String newPriceSQL = "round(case when price = ? then ? when price > ? then ? else ? end * price, 2)";
 
-    private static final String updateQuotePriceVolumeSQL = "update quoteejb set "
-            + "price = ?, change1 = ? - open1, volume = ? " + "where symbol = ?";
+    private static final String updateQuotePriceVolumeReturningSQL = "update quoteejb set "
+            + "price = " + newPriceSQL + ", change1 = " + newPriceSQL + " - open1, volume = volume + ? "
+            + "where symbol = ? returning *";
 
     private static boolean initialized = false;
 
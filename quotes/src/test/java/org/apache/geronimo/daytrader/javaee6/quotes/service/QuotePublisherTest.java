@@ -0,0 +1,115 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+
+/**
+ * Publishes quotes to subscribers that ask for them at their own pace.
+ */
+public class QuotePublisherTest {
+
+    private QuotePublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        publisher = new QuotePublisher();
+        publisher.enabled = true;
+        publisher.bufferSize = 4;
+    }
+
+    @Test
+    void slowCoalescingSubscriberGetsTheLatestQuotes() throws Exception {
+        AssertSubscriber<QuoteDataBean> slow = publisher.subscribe(null, 200)
+                .subscribe().withSubscriber(AssertSubscriber.create(1));
+
+        // far more changes than the buffer holds, while the subscriber asks for one
+        for (int i = 1; i <= 1000; i++)
+            publish("s:" + (i % 10), i);
+        slow.awaitItems(1);
+        // later ticks send nothing until the subscriber asks for more
+        Thread.sleep(500);
+        assertEquals(1, slow.getItems().size());
+        assertNull(slow.getFailure());
+
+        slow.request(100);
+        slow.awaitItems(10);
+        Thread.sleep(500);
+        slow.assertNotTerminated();
+
+        // one quote of each symbol, the last one written
+        List<QuoteDataBean> items = slow.getItems();
+        assertEquals(10, items.size());
+        Map<String, BigDecimal> latest = new HashMap<String, BigDecimal>();
+        for (QuoteDataBean quoteData : items)
+            latest.put(quoteData.getSymbol(), quoteData.getPrice());
+        assertEquals(10, latest.size());
+        for (Map.Entry<String, BigDecimal> entry : latest.entrySet()) {
+            int symbol = Integer.parseInt(entry.getKey().substring(2));
+            assertEquals(new BigDecimal(990 + (symbol == 0 ? 10 : symbol)), entry.getValue());
+        }
+        assertEquals(990L, publisher.getStatistics().get("coalesced"));
+        slow.cancel();
+    }
+
+    @Test
+    void subscriberSentEveryChangeFailsWhenItFallsBehind() {
+        AssertSubscriber<QuoteDataBean> slow = publisher.subscribe(null, 0)
+                .subscribe().withSubscriber(AssertSubscriber.create(1));
+
+        // the buffer holds at least buffer-size quotes; the emitter may round it up
+        for (int i = 1; i <= 100; i++)
+            publish("s:" + i, i);
+        // the failure follows the quotes that did fit
+        slow.request(100);
+        assertTrue(slow.getFailure() instanceof BufferOverflowException);
+        assertEquals(1L, publisher.getStatistics().get("overflows"));
+    }
+
+    @Test
+    void staleQuoteIsNotSent() {
+        AssertSubscriber<QuoteDataBean> all = publisher.subscribe(null, 0)
+                .subscribe().withSubscriber(AssertSubscriber.create(10));
+
+        publish("s:1", 2);
+        publish("s:1", 1);
+        assertEquals(1, all.getItems().size());
+        assertEquals(new BigDecimal(2), all.getItems().get(0).getPrice());
+        assertEquals(1L, publisher.getStatistics().get("stale"));
+    }
+
+    private void publish(String symbol, long ticket) {
+        QuoteDataBean quoteData = new QuoteDataBean(symbol);
+        quoteData.setPrice(new BigDecimal(ticket));
+        publisher.publish(quoteData, ticket);
+    }
+}
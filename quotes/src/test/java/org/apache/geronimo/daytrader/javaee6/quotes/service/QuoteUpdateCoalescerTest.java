@@ -0,0 +1,104 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.quotes.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.daytrader.javaee6.entities.QuoteDataBean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the coalescer against an updater that records the volume of each write.
+ */
+public class QuoteUpdateCoalescerTest {
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final List<Double> written = new ArrayList<Double>();
+    private QuoteUpdateCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new QuoteUpdateCoalescer();
+        coalescer.enabled = true;
+        coalescer.windowMillis = 10000;
+        coalescer.maxPending = 3;
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void uncontendedUpdateIsWrittenAtOnce() throws Exception {
+        long start = System.nanoTime();
+        coalescer.update("s:1", BigDecimal.ONE, 1, this::record);
+        coalescer.update("s:1", BigDecimal.ONE, 2, this::record);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(2, written.size());
+    }
+
+    @Test
+    void updatesArrivingDuringAWriteAreBatched() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<QuoteDataBean> first = callers.submit(() -> coalescer.update("s:1", BigDecimal.ONE, 1,
+                (symbol, changeFactor, sharesTraded) -> {
+                    writing.countDown();
+                    release.await();
+                    return record(symbol, changeFactor, sharesTraded);
+                }));
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // the batch is written once max-pending updates have joined
+        List<Future<QuoteDataBean>> batched = new ArrayList<Future<QuoteDataBean>>();
+        for (int i = 0; i < 3; i++)
+            batched.add(callers.submit(() -> coalescer.update("s:1", BigDecimal.ONE, 10, this::record)));
+        while (!coalescer.getStatistics().get("updates").equals(4L))
+            Thread.sleep(10);
+        release.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        for (Future<QuoteDataBean> update : batched)
+            update.get(10, TimeUnit.SECONDS);
+        synchronized (written) {
+            assertEquals(2, written.size());
+            assertTrue(written.contains(30.0));
+        }
+    }
+
+    private QuoteDataBean record(String symbol, BigDecimal changeFactor, double sharesTraded) {
+        synchronized (written) {
+            written.add(sharesTraded);
+        }
+        return new QuoteDataBean(symbol);
+    }
+}
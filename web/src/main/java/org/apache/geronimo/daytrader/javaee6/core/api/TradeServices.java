@@ -169,6 +169,16 @@ public interface TradeServices extends Remote {
      */
     public QuoteDataBean getQuote(String symbol) throws Exception, RemoteException;
 
+   /**
+     * Return a {@link java.util.Collection} of {@link QuoteDataBean} describing
+     * the current quotes for the given stock symbols, fetched in one request.
+     * Duplicate symbols are returned once and unknown symbols are skipped.
+     *
+     * @param symbols the stock symbols to retrieve the current Quotes
+     * @return A collection of QuoteDataBean
+     */
+    public Collection<QuoteDataBean> getQuotes(Collection<String> symbols) throws Exception, RemoteException;
+
    /**
      * Return a {@link java.util.Collection} of {@link QuoteDataBean} 
      * describing all current quotes
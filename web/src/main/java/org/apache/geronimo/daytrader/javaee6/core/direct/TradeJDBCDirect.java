@@ -18,11 +18,13 @@
 package org.apache.geronimo.daytrader.javaee6.core.direct;
 
 import org.apache.geronimo.daytrader.javaee6.web.service.GatewayRemoteCallService;
+import org.apache.geronimo.daytrader.javaee6.web.service.QuoteUpdateSender;
 
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.rmi.RemoteException;
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.geronimo.daytrader.javaee6.core.api.*;
 import org.apache.geronimo.daytrader.javaee6.core.beans.*;
@@ -42,6 +44,8 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
 
 	private static GatewayRemoteCallService tradesGateway = new GatewayRemoteCallService();	
 	
+	private static QuoteUpdateSender quoteUpdates = new QuoteUpdateSender(tradesGateway);
+	
 	/**
      * Zero arg constructor for TradeJDBCDirect
      */
@@ -60,6 +64,7 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
         		Log.trace("TradeJDBCDirect:init -- *** initializing");
         
         	TradeConfig.setPublishQuotePriceChange(false);
+        	quoteUpdates.start();
 
         	if (Log.doTrace())
         		Log.trace("TradeJDBCDirect:init -- +++ initialized");
@@ -75,6 +80,8 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
     		if (Log.doTrace()) 
     			Log.trace("TradesJDBCDirect:destroy -- *** destroying");
         
+    		quoteUpdates.stop();
+
     		if (Log.doTrace())
     			Log.trace("TradeJDBCDirect:destroy -- +++ destroyed");
         
@@ -84,16 +91,16 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
     	
     // added this method so microservices can create sample data
     // See TradeBuildDB#TradeBuildDB(PrintWriter, String)
-	public boolean tradeBuildDB(int maxUsers, int maxQuotes) throws Exception
+	public boolean tradeBuildDB(int limit, int offset, Long seed, int maxQuotes) throws Exception
 	{
-    	return tradesGateway.tradeBuildDB(maxUsers, maxQuotes);
+    	return tradesGateway.tradeBuildDB(limit, offset, seed, maxQuotes);
 	}
 	
     // added this method so microservices can create sample data
     // See TradeBuildDB#TradeBuildDB(PrintWriter, String)
-	public boolean quotesBuildDB(int limit, int offset) throws Exception
+	public boolean quotesBuildDB(int limit, int offset, Long seed) throws Exception
 	{
-    	return tradesGateway.quotesBuildDB(limit, offset);
+    	return tradesGateway.quotesBuildDB(limit, offset, seed);
 	}
     
 	@Override
@@ -198,6 +205,14 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
     	return tradesGateway.getQuote(symbol);
     }
 
+    /**
+     * @see TradeServices#getQuotes(Collection)
+     */
+    public Collection<QuoteDataBean> getQuotes(Collection<String> symbols) throws Exception 
+    {
+    	return tradesGateway.getQuotes(symbols);
+    }
+
     /**
      * @see TradeServices#getAllQuotes(String)
      */
@@ -263,6 +278,27 @@ public class TradeJDBCDirect implements TradeServices, TradeDBServices
     {
         return tradesGateway.updateQuotePriceVolume(symbol, changeFactor, sharesTraded);
     }
+
+    /**
+     * Queue an update of a quote's price and volume to be sent in the background
+     * 
+     * @return false if updates are sent synchronously, in which case nothing was
+     *         queued
+     * @see QuoteUpdateSender
+     */
+    public boolean queueQuotePriceVolumeUpdate(String symbol, BigDecimal changeFactor, double sharesTraded)
+    {
+        if (!quoteUpdates.isEnabled())
+            return false;
+
+        quoteUpdates.queue(symbol, changeFactor, sharesTraded);
+        return true;
+    }
+
+    public static Map<String, Object> getQuoteUpdateStatistics()
+    {
+        return quoteUpdates.getStatistics();
+    }
 	
  	// Public helper functions; over and above those defined in the subertypes
  	
@@ -0,0 +1,54 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.daytrader.javaee6.web;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.geronimo.daytrader.javaee6.core.direct.TradeJDBCDirect;
+import org.apache.geronimo.daytrader.javaee6.utils.Log;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reports, as JSON, the counters of the background sender of the quote updates
+ * that follow each buy and sell: the backlog waiting to be sent and the updates
+ * sent, dropped and lost.
+ *
+ * @see org.apache.geronimo.daytrader.javaee6.web.service.QuoteUpdateSender
+ */
+@WebServlet("/admin/quoteUpdates")
+public class QuoteUpdatesServlet extends HttpServlet {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try {
+            resp.setContentType("application/json");
+            resp.setHeader("Cache-Control", "no-cache");
+            mapper.writeValue(resp.getOutputStream(), TradeJDBCDirect.getQuoteUpdateStatistics());
+        } catch (Exception e) {
+            Log.error(e, "QuoteUpdatesServlet.doGet(...): general exception caught");
+            resp.sendError(500, e.toString());
+        }
+    }
+}
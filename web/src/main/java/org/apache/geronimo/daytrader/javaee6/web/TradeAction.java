@@ -217,7 +217,7 @@ public class TradeAction implements TradeServices {
         OrderDataBean orderData;
         orderData = trade.buy(userID, symbol, quantity, orderProcessingMode);
         //after the purchase or sell of a stock, update the stocks volume and price
-        updateQuotePriceVolume(symbol, TradeConfig.getRandomPriceChangeFactor(), quantity);
+        queueQuotePriceVolumeUpdate(symbol, TradeConfig.getRandomPriceChangeFactor(), quantity);
         return orderData;
     }
 
@@ -252,7 +252,7 @@ public class TradeAction implements TradeServices {
         orderData = trade.sell(userID, holdingID, orderProcessingMode);
         if (!(orderData.getOrderStatus().equalsIgnoreCase("cancelled")))
             //after the purchase or sell of a stock, update the stocks volume and price
-            updateQuotePriceVolume(orderData.getSymbol(), TradeConfig.getRandomPriceChangeFactor(), orderData.getQuantity());
+            queueQuotePriceVolumeUpdate(orderData.getSymbol(), TradeConfig.getRandomPriceChangeFactor(), orderData.getQuantity());
         return orderData;
     }
 
@@ -389,6 +389,21 @@ public class TradeAction implements TradeServices {
         return quoteData;
     }
 
+    /**
+     * Return a collection of {@link QuoteDataBean}describing the current quotes
+     * for the given stock symbols
+     *
+     * @param symbols the stock symbols to retrieve the current Quotes
+     * @return the collection of QuoteDataBean
+     */
+    public Collection<QuoteDataBean> getQuotes(Collection<String> symbols) throws Exception {
+        if (Log.doActionTrace())
+            Log.trace("TradeAction:getQuotes", symbols);
+        Collection<QuoteDataBean> quotes;
+        quotes = trade.getQuotes(symbols);
+        return quotes;
+    }
+
     /**
      * Update the stock quote price for the specified stock symbol
      *
@@ -409,6 +424,18 @@ public class TradeAction implements TradeServices {
         return quoteData;
     }
 
+    /**
+     * Update the stock quote price and volume after an order without waiting for
+     * it; the update is queued and sent in the background when the trade
+     * implementation supports it, or made synchronously otherwise.
+     */
+    private void queueQuotePriceVolumeUpdate(String symbol, BigDecimal changeFactor, double sharesTraded) throws Exception {
+        if (trade instanceof TradeJDBCDirect
+                && ((TradeJDBCDirect) trade).queueQuotePriceVolumeUpdate(symbol, changeFactor, sharesTraded))
+            return;
+        updateQuotePriceVolume(symbol, changeFactor, sharesTraded);
+    }
+
     /**
      * Return the portfolio of stock holdings for the specified customer as a
      * collection of HoldingDataBeans
@@ -547,6 +574,9 @@ public class TradeAction implements TradeServices {
     public RunStatsDataBean resetTrade(boolean deleteAll) throws Exception {
         RunStatsDataBean runStatsData;
         runStatsData = trade.resetTrade(deleteAll);
+        // a build checkpoint no longer describes emptied tables
+        if (deleteAll)
+            TradeBuildDB.discardCheckpoint();
         return runStatsData;
     }
     
@@ -23,8 +23,28 @@ package org.apache.geronimo.daytrader.javaee6.web;
 //  - Moved sample data generation into the microservices
 //  - Generate sample data is a formal business operation in the Trade application.
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
-//import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.geronimo.daytrader.javaee6.core.api.*;
 import org.apache.geronimo.daytrader.javaee6.core.direct.*;
@@ -43,9 +63,38 @@ import org.apache.geronimo.daytrader.javaee6.utils.*;
  * UserIDs of the form "uid:xxx" where xxx is a sequential number 
  * (e.g. uid:0, uid:1, etc.). New stocks are also created of the form "s:xxx",
  * again where xxx represents sequential numbers (e.g. s:1, s:2, etc.)
+ *
+ * The population is split into ranges of quotes and users that are built by a
+ * pool of workers; the ranges at offset 0 reset the tables and are built first.
+ * The data is generated from a fixed seed, so a user gets the same profile and
+ * holdings whichever range or worker builds it. Each range built is recorded in
+ * a checkpoint file, and an interrupted build run again with the same
+ * parameters builds only the ranges that are missing. A failed range may have
+ * left rows behind in some services (the accounts and the portfolios of a user
+ * range are written separately), so each service deletes what is already in a
+ * range before building it. The checkpoint is discarded when the tables are
+ * re-created or all rows are reset, and is not trusted if the first quote or
+ * user it records is no longer in the database. The size of the population is
+ * set with MAX_USERS and MAX_QUOTES on the configuration page.
+ *
+ * Configured with system properties:
+ * daytrader.web.build.workers (default 4), daytrader.web.build.quote-chunk
+ * (default 1000), daytrader.web.build.user-chunk (default 250),
+ * daytrader.web.build.seed (default 0), daytrader.web.build.checkpoint-file
+ * (default daytrader-build.checkpoint in java.io.tmpdir) and
+ * daytrader.web.build.resume (default true; false always starts over).
  */
 public class TradeBuildDB {
 
+    private static final int WORKERS = Integer.getInteger("daytrader.web.build.workers", 4);
+    private static final int QUOTE_CHUNK = Integer.getInteger("daytrader.web.build.quote-chunk", 1000);
+    private static final int USER_CHUNK = Integer.getInteger("daytrader.web.build.user-chunk", 250);
+    private static final Long SEED = Long.getLong("daytrader.web.build.seed", 0L);
+    private static final String CHECKPOINT_FILE = System.getProperty("daytrader.web.build.checkpoint-file",
+            new File(System.getProperty("java.io.tmpdir"), "daytrader-build.checkpoint").getPath());
+    private static final boolean RESUME = Boolean
+            .parseBoolean(System.getProperty("daytrader.web.build.resume", "true"));
+
     /**
      * Re-create the DayTrader db tables and populate them OR just populate a 
      * DayTrader DB, logging to the provided output stream
@@ -67,6 +116,7 @@ public class TradeBuildDB {
 
             // send the sql commands buffer to drop and recreate the Daytrader tables
             out.println("<BR>TradeBuildDB: **** Dropping and Recreating the DayTrader tables... ****</BR>");
+            discardCheckpoint();
             try 
             {
                 success = tradeDB.recreateDBTables(sqlBuffer, out);
@@ -89,60 +139,232 @@ public class TradeBuildDB {
             return;
         } // end of createDBTables
 
-        boolean success = false;
-        
-        TradeJDBCDirect tradesService = new TradeJDBCDirect();
-        
-        // Re-populate the quotes
-        out.println("<BR>TradeBuildDB: **** Creating " + TradeConfig.getMAX_QUOTES() + " Quotes ****</BR>");
-        try 
-        {
-        	int limit = 10;
-        	for (int offset = 0; offset < TradeConfig.getMAX_QUOTES(); offset+=limit) 
-        	{
-        		tradesService.quotesBuildDB(limit,offset);
-        		out.print("....." + "s:" + offset);
-        		if (offset % 100 == 0) 
-        		{
-        			out.println(" -<BR>");
-        			out.flush();
-        		}
-        	}
-        }
-        catch (Exception e)
-       	{
-        	out.println("<BR>TradeBuildDB: **** Unable to create Trade Quotes (s:0, s:1, ...) " +
-                    "please check for database consistency before continuing ****</BR></BODY>");
-        	return;        		
-       	} 
-        
-        // Re-populate the users
-        out.println("<BR>TradeBuildDB: **** Registering " + TradeConfig.getMAX_USERS() + " Users ****</BR>");
-        try
-        {
-        	int limit = 50;
-        	for (int offset = 0; offset < TradeConfig.getMAX_USERS(); offset+=limit) 
-        	{
-        		tradesService.tradeBuildDB(limit,offset);
-        		if (offset % limit == 0) 
-        		{
-        			String userID = "uid:" + offset;
-        			int holdings = tradesService.getHoldings(userID).size();
-            		out.print("Account# " + offset  + " userID=" + userID + " has " + holdings + " holdings." );
-        			out.println("<BR>");
-        			out.flush();
-        		}
-        	}
-        }
-        catch (Exception e)
-       	{
-        	out.println("<BR>TradeBuildDB: **** Unable to register Trade Users (uid:0, uid:1, ...) " +
-                    "please check for database consistency before continuing ****</BR></BODY>");
-        	return;        		
-       	} 
+        populate(out, new TradeJDBCDirect());
     	out.println("</BODY>");
-    	return;  
+    }
+
+    /**
+     * Builds the quotes and users in ranges on WORKERS threads, recording each
+     * range in the checkpoint file once it is done.
+     */
+    private void populate(java.io.PrintWriter out, final TradeJDBCDirect tradesService) throws Exception {
+
+        final int maxQuotes = TradeConfig.getMAX_QUOTES();
+        final int maxUsers = TradeConfig.getMAX_USERS();
+        List<Range> quoteRanges = Range.split("quotes", maxQuotes, QUOTE_CHUNK);
+        List<Range> userRanges = Range.split("users", maxUsers, USER_CHUNK);
+
+        String parameters = "quotes=" + maxQuotes + " users=" + maxUsers + " seed=" + SEED
+                + " quote-chunk=" + QUOTE_CHUNK + " user-chunk=" + USER_CHUNK;
+        Checkpoint checkpoint = Checkpoint.open(new File(CHECKPOINT_FILE), parameters, RESUME);
+        if (!checkpoint.getCompleted().isEmpty() && !isStillBuilt(tradesService, checkpoint.getCompleted())) {
+            out.println("<BR>TradeBuildDB: **** The database was reset since the last build, starting over ****</BR>");
+            checkpoint.delete();
+            checkpoint = Checkpoint.open(new File(CHECKPOINT_FILE), parameters, false);
+        }
+        if (!checkpoint.getCompleted().isEmpty())
+            out.println("<BR>TradeBuildDB: **** Resuming, " + checkpoint.getCompleted().size()
+                    + " ranges were built before (" + CHECKPOINT_FILE + ") ****</BR>");
+
+        out.println("<BR>TradeBuildDB: **** Creating " + maxQuotes + " Quotes and registering " + maxUsers
+                + " Users on " + WORKERS + " workers ****</BR>");
+        out.flush();
+
+        // The ranges at offset 0 empty the tables, so they are built before the
+        // others; the quotes and the users are in different services and are built
+        // at the same time
+        List<Range> first = new ArrayList<Range>();
+        List<Range> rest = new ArrayList<Range>();
+        for (List<Range> ranges : Arrays.asList(quoteRanges, userRanges)) {
+            for (Range range : ranges) {
+                if (!checkpoint.getCompleted().contains(range.toString()))
+                    (range.offset == 0 ? first : rest).add(range);
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        try {
+            long started = System.currentTimeMillis();
+            int total = quoteRanges.size() + userRanges.size();
+            if (!build(first, workers, tradesService, maxQuotes, checkpoint, total, out)
+                    || !build(rest, workers, tradesService, maxQuotes, checkpoint, total, out)) {
+                out.println("<BR>TradeBuildDB: **** Unable to create Trade Quotes (s:0, s:1, ...) or register Trade Users "
+                        + "(uid:0, uid:1, ...); build the database again to resume, "
+                        + "please check for database consistency before continuing ****</BR>");
+                return;
+            }
+            checkpoint.delete();
+            out.println("<BR>TradeBuildDB: **** DayTrader database built in "
+                    + (System.currentTimeMillis() - started) + " ms ****</BR>");
+        } finally {
+            workers.shutdownNow();
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * Deletes the checkpoint, so the next build starts over; to be called when
+     * the tables are re-created or emptied.
+     */
+    public static void discardCheckpoint() {
+        File file = new File(CHECKPOINT_FILE);
+        if (file.exists() && !file.delete())
+            Log.error("TradeBuildDB - Unable to delete the checkpoint " + file);
+    }
+
+    /*
+     * Whether the first quote and the first user of the ranges recorded as built
+     * are still in the database. The ranges at offset 0 are built first, and a
+     * reset of the tables since the checkpoint was written removes them.
+     */
+    private static boolean isStillBuilt(TradeJDBCDirect tradesService, Set<String> completed) {
+        try {
+            for (String range : completed) {
+                if (range.startsWith("quotes:0:") && tradesService.getQuote("s:0") == null)
+                    return false;
+                if (range.startsWith("users:0:") && tradesService.getAccountProfileData("uid:0") == null)
+                    return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.debug("TradeBuildDB - checkpointed rows not found, starting over: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Builds the ranges on the workers and reports each one as it completes.
+     * After a failure the ranges not started yet are cancelled.
+     *
+     * @return whether every range was built
+     */
+    private boolean build(List<Range> ranges, ExecutorService workers, final TradeJDBCDirect tradesService,
+            final int maxQuotes, Checkpoint checkpoint, int total, java.io.PrintWriter out) throws Exception {
+
+        CompletionService<Range> builds = new ExecutorCompletionService<Range>(workers);
+        List<Future<Range>> futures = new ArrayList<Future<Range>>();
+        for (final Range range : ranges) {
+            futures.add(builds.submit(new Callable<Range>() {
+                public Range call() throws Exception {
+                    long started = System.currentTimeMillis();
+                    if (range.kind.equals("quotes"))
+                        tradesService.quotesBuildDB(range.limit, range.offset, SEED);
+                    else
+                        tradesService.tradeBuildDB(range.limit, range.offset, SEED, maxQuotes);
+                    range.millis = System.currentTimeMillis() - started;
+                    return range;
+                }
+            }));
+        }
 
+        boolean success = true;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Range> future = builds.take();
+            try {
+                Range range = future.get();
+                checkpoint.completed(range.toString());
+                out.println("TradeBuildDB: " + range.describe() + " built in " + range.millis + " ms ("
+                        + checkpoint.getCompleted().size() + " of " + total + ")<BR>");
+            } catch (CancellationException e) {
+                continue;
+            } catch (ExecutionException e) {
+                Log.error(e.getCause(), "TradeBuildDB - range failed");
+                out.println("<BR>TradeBuildDB: **** Failed: " + e.getCause() + " ****</BR>");
+                if (success) {
+                    success = false;
+                    for (Future<Range> other : futures)
+                        other.cancel(false);
+                }
+            }
+            out.flush();
+        }
+        return success;
+    }
+
+    /**
+     * The quotes or users offset to (offset + limit - 1).
+     */
+    private static final class Range {
+        final String kind;
+        final int offset;
+        final int limit;
+        volatile long millis;
+
+        Range(String kind, int offset, int limit) {
+            this.kind = kind;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        static List<Range> split(String kind, int count, int chunk) {
+            List<Range> ranges = new ArrayList<Range>();
+            for (int offset = 0; offset < count; offset += chunk)
+                ranges.add(new Range(kind, offset, Math.min(chunk, count - offset)));
+            return ranges;
+        }
+
+        String describe() {
+            String prefix = kind.equals("quotes") ? "s:" : "uid:";
+            return kind + " " + prefix + offset + " to " + prefix + (offset + limit - 1);
+        }
+
+        @Override
+        public String toString() {
+            return kind + ":" + offset + ":" + limit;
+        }
+    }
+
+    /**
+     * The ranges built so far, one per line after a line of build parameters. A
+     * checkpoint left by a build with other parameters is started over.
+     */
+    private static final class Checkpoint {
+        private final File file;
+        private final Set<String> completed = Collections.synchronizedSet(new HashSet<String>());
+        private final Writer writer;
+
+        private Checkpoint(File file, String parameters, boolean resume) throws IOException {
+            this.file = file;
+            if (resume && file.exists()) {
+                List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).equals(parameters))
+                    completed.addAll(lines.subList(1, lines.size()));
+            }
+            boolean append = !completed.isEmpty();
+            writer = new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8);
+            if (!append) {
+                writer.write(parameters + "\n");
+                writer.flush();
+            }
+        }
+
+        static Checkpoint open(File file, String parameters, boolean resume) throws IOException {
+            return new Checkpoint(file, parameters, resume);
+        }
+
+        Set<String> getCompleted() {
+            return completed;
+        }
+
+        synchronized void completed(String range) throws IOException {
+            writer.write(range + "\n");
+            writer.flush();
+            completed.add(range);
+        }
+
+        synchronized void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.debug("TradeBuildDB - Ignored exception closing the checkpoint: " + e);
+            }
+        }
+
+        synchronized void delete() {
+            close();
+            if (!file.delete())
+                Log.debug("TradeBuildDB - Unable to delete the checkpoint " + file);
+        }
     }
     
 }
@@ -20,7 +20,11 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.StringTokenizer;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -467,15 +471,17 @@ public class TradeServletAction {
             Collection holdingDataBeans = tAction.getHoldings(userID);
 
             // Walk through the collection of user
-            // holdings and creating a list of quotes
+            // holdings and fetch the quotes for the distinct
+            // symbols held in a single request
             if (holdingDataBeans.size() > 0) {
 
+                Collection<String> symbols = new LinkedHashSet<String>();
                 Iterator it = holdingDataBeans.iterator();
                 while (it.hasNext()) {
                     HoldingDataBean holdingData = (HoldingDataBean) it.next();
-                    QuoteDataBean quoteData = tAction.getQuote(holdingData.getQuoteID());
-                    quoteDataBeans.add(quoteData);
+                    symbols.add(holdingData.getQuoteID());
                 }
+                quoteDataBeans = tAction.getQuotes(symbols);
             } else {
                 results = results + ".  Your portfolio is empty.";
             }
@@ -525,6 +531,26 @@ public class TradeServletAction {
         // standalone "fragment", and thus is a candidate for
         // Edge caching.
         //
+        // The quotes are prefetched here in a single request and handed to
+        // displayQuote.jsp through the "quoteMap" request attribute; the
+        // fragment falls back to fetching its own quote if it is not there.
+        if (symbols != null) {
+            try {
+                Collection<String> symbolList = new LinkedHashSet<String>();
+                StringTokenizer st = new StringTokenizer(symbols, " ,");
+                while (st.hasMoreTokens())
+                    symbolList.add(st.nextToken());
+
+                if (!symbolList.isEmpty()) {
+                    Map<String, QuoteDataBean> quoteMap = new HashMap<String, QuoteDataBean>();
+                    for (QuoteDataBean quoteData : tAction.getQuotes(symbolList))
+                        quoteMap.put(quoteData.getSymbol(), quoteData);
+                    req.setAttribute("quoteMap", quoteMap);
+                }
+            } catch (Exception e) {
+                Log.error(e, "TradeServletAction.doQuotes(...)", "prefetching quotes failed for symbols = " + symbols);
+            }
+        }
 
         requestDispatch(ctx, req, resp, userID, TradeConfig.getPage(TradeConfig.QUOTE_PAGE));
     }
@@ -14,9 +14,15 @@
  *  See the License for the specific language governing permissions and
  *  limitations under the License.
  */
-
 package org.apache.geronimo.daytrader.javaee6.web.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
 import javax.annotation.PostConstruct;
 import javax.transaction.NotSupportedException;
 import javax.ws.rs.BadRequestException;
@@ -29,29 +35,84 @@ import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.RedirectionException;
 import javax.ws.rs.ServerErrorException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.NoContentException;
 
-import org.glassfish.jersey.client.ClientProperties;
-import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.databind.ObjectReader;
 
 //
 //Don't do any logging from the base remote call service unless you send it to its own logger;
 //otherwise the log messages will be written to the integration test and to the server log and
 //will cause server messages to be lost. For debugging, you will need the server log messages.
 
+/**
+ * Makes the remote calls to the gateway over a pool of keep-alive HTTP/1.1
+ * connections, shared by all callers.
+ *
+ * Configured with system properties:
+ * daytrader.web.gateway.max-connections (default 200),
+ * daytrader.web.gateway.max-connections-per-route (default 100, per gateway
+ * host), daytrader.web.gateway.connect-timeout-millis (default 5000),
+ * daytrader.web.gateway.read-timeout-millis (default 0, no limit, as the admin
+ * calls that build the database can run for minutes) and
+ * daytrader.web.gateway.pool-timeout-millis (default 5000, the longest a call
+ * waits for a pooled connection).
+ */
 public class BaseRemoteCallService {
     
-    static Client client;
+    private static final int MAX_CONNECTIONS = Integer.getInteger("daytrader.web.gateway.max-connections", 200);
+    private static final int MAX_CONNECTIONS_PER_ROUTE = Integer
+            .getInteger("daytrader.web.gateway.max-connections-per-route", 100);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("daytrader.web.gateway.connect-timeout-millis", 5000);
+    private static final int READ_TIMEOUT = Integer.getInteger("daytrader.web.gateway.read-timeout-millis", 0);
+    private static final int POOL_TIMEOUT = Integer.getInteger("daytrader.web.gateway.pool-timeout-millis", 5000);
+
+    // a pooled connection idle for longer is checked before it is reused
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    static PoolingHttpClientConnectionManager connectionManager;
+    static RequestConfig requestConfig;
+    static CloseableHttpClient client;
+
+    static final RemoteCallStatistics statistics = new RemoteCallStatistics();
 
     @PostConstruct
     public void getClient() {
-        // Jersey client doesn't support the Http PATCH method without this workaround
-        client = ClientBuilder.newClient()
-                .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true);
+        createClient();
+    }
+
+    private static synchronized void createClient() {
+        if (client != null)
+            return;
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(READ_TIMEOUT)
+                .setConnectionRequestTimeout(POOL_TIMEOUT)
+                .build();
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
     }
 
     public static String invokeEndpoint(String url, String method, String body) throws Exception
@@ -61,9 +122,76 @@ public class BaseRemoteCallService {
     
     public static String invokeEndpoint(String url, String method, String body, int connTimeOut) throws Exception
     {       	
-   		Response  response = sendRequest(url, method, body, connTimeOut);
-   		int responseCode = response.getStatus();
-   		
+        return invoke(url, method, body, connTimeOut,
+                entity -> (entity == null) ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Calls the endpoint and reads the response body into an object with the
+     * given reader as it arrives, without first copying it into a String.
+     */
+    public static <T> T invokeEndpoint(String url, String method, String body, final ObjectReader reader)
+            throws Exception
+    {
+        return invoke(url, method, body, -1, entity -> {
+            if (entity == null)
+            {
+                throw new NoContentException("No content from : " + url);
+            }
+            try (InputStream content = entity.getContent())
+            {
+                return reader.readValue(content);
+            }
+        });
+    }
+
+    /**
+     * Calls the endpoint and discards the response body without reading it
+     * into memory, so the connection can still be reused.
+     */
+    public static void invokeEndpointDiscardingResponse(String url, String method, String body) throws Exception
+    {
+        invoke(url, method, body, -1, entity -> {
+            EntityUtils.consume(entity);
+            return null;
+        });
+    }
+
+    private interface EntityReader<T>
+    {
+        T read(HttpEntity entity) throws IOException;
+    }
+
+    private static <T> T invoke(String url, String method, String body, int connTimeOut, EntityReader<T> entityReader)
+            throws Exception
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try (CloseableHttpResponse response = sendRequest(url, method, body, connTimeOut))
+        {
+            int responseCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+
+            if (responseCode >= 300)
+            {
+                // read what is left of an error response, so the connection can be reused
+                EntityUtils.consumeQuietly(entity);
+                checkResponseCode(url, responseCode);
+            }
+
+            T responseEntity = entityReader.read(entity);
+            failed = false;
+            return responseEntity;
+        }
+        finally
+        {
+            statistics.record(RemoteCallStatistics.routeOf(method, url), System.nanoTime() - start, failed);
+        }
+    }
+
+    private static void checkResponseCode(String url, int responseCode) throws Exception
+    {
    		// switch statement 
    		switch(responseCode)
    		{
@@ -117,22 +245,70 @@ public class BaseRemoteCallService {
        				throw new ServerErrorException("A server error from : " + url, responseCode);
        			}
    		}
-   		
-   		String responseEntity = response.readEntity(String.class);
-   		response.close();
-        return responseEntity;
     }
 
-    public static Response sendRequest(String url, String method, String body, int connTimeOut) 
+    public static CloseableHttpResponse sendRequest(String url, String method, String body, int connTimeOut) 
+    		throws IOException
     {
-        Invocation.Builder request = client.target(url).request();
+        if (client == null)
+        {
+            createClient();
+        }
+
+        RequestBuilder request = RequestBuilder.create(method).setUri(url)
+                .setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+
+        if (body != null)
+        {
+            request.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        }
 
         if (connTimeOut > 0)
         {
-            request.property(ClientProperties.CONNECT_TIMEOUT, connTimeOut);
+            request.setConfig(RequestConfig.copy(requestConfig).setConnectTimeout(connTimeOut).build());
+        }
+
+        return client.execute(request.build());
+    }
+
+    /**
+     * Returns the pool settings, the connections leased, available and awaited
+     * in total and for each gateway host, and the latency histogram of each
+     * gateway route.
+     */
+    public static Map<String, Object> getStatistics()
+    {
+        if (client == null)
+        {
+            createClient();
         }
 
-        Response response = request.method(method, Entity.json(body));
-        return response;
+        Map<String, Object> pools = new TreeMap<String, Object>();
+        for (HttpRoute route : connectionManager.getRoutes())
+        {
+            pools.put(route.getTargetHost().toURI(), poolStatistics(connectionManager.getStats(route)));
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("maxConnections", MAX_CONNECTIONS);
+        stats.put("maxConnectionsPerRoute", MAX_CONNECTIONS_PER_ROUTE);
+        stats.put("connectTimeoutMillis", CONNECT_TIMEOUT);
+        stats.put("readTimeoutMillis", READ_TIMEOUT);
+        stats.put("poolTimeoutMillis", POOL_TIMEOUT);
+        stats.put("pool", poolStatistics(connectionManager.getTotalStats()));
+        stats.put("pools", pools);
+        stats.put("routes", statistics.getStatistics());
+        return stats;
+    }
+
+    private static Map<String, Object> poolStatistics(PoolStats poolStats)
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("leased", poolStats.getLeased());
+        stats.put("available", poolStats.getAvailable());
+        stats.put("pending", poolStats.getPending());
+        stats.put("max", poolStats.getMax());
+        stats.put("utilization", (poolStats.getMax() == 0) ? 0.0 : (double) poolStats.getLeased() / poolStats.getMax());
+        return stats;
     }
 }
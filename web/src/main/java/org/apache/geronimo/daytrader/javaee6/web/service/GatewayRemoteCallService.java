@@ -23,9 +23,11 @@ import org.apache.geronimo.daytrader.javaee6.web.utils.Log;
 
 // java
 import java.math.BigDecimal;
+import java.net.URLEncoder;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 
 // daytrader
 import org.apache.geronimo.daytrader.javaee6.core.api.*;
@@ -38,6 +40,7 @@ import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 /**
  * The remote call service to the trader gateway service.
@@ -63,6 +66,19 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false); // ignore properties that are not declared
 	}
 
+	// Readers for each response type, created once and reused; each call reads its 
+	// response straight from the connection with one of them
+	private static final ObjectReader runStatsReader = mapper.readerFor(RunStatsDataBean.class);
+	private static final ObjectReader booleanReader = mapper.readerFor(Boolean.class);
+	private static final ObjectReader accountReader = mapper.readerFor(AccountDataBean.class);
+	private static final ObjectReader profileReader = mapper.readerFor(AccountProfileDataBean.class);
+	private static final ObjectReader orderReader = mapper.readerFor(OrderDataBean.class);
+	private static final ObjectReader ordersReader = mapper.readerFor(new TypeReference<ArrayList<OrderDataBean>>(){ });
+	private static final ObjectReader holdingsReader = mapper.readerFor(new TypeReference<ArrayList<HoldingDataBean>>(){ });
+	private static final ObjectReader marketSummaryReader = mapper.readerFor(MarketSummaryDataBean.class);
+	private static final ObjectReader quoteReader = mapper.readerFor(QuoteDataBean.class);
+	private static final ObjectReader quotesReader = mapper.readerFor(new TypeReference<Collection<QuoteDataBean>>(){ });
+
 //
 //  - Naming convention based service discovery 
 	private static String gatewayServiceRoute = System.getenv("DAYTRADER_GATEWAY_SERVICE");
@@ -77,8 +93,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		{
 	    	String url = gatewayServiceRoute + "/admin/resetTrade?deleteAll=" + deleteAll;
 			Log.debug("GatewayRemoteCallService.resetTrade() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	    	RunStatsDataBean runStatsData = mapper.readValue(responseEntity,RunStatsDataBean.class);
+	    	RunStatsDataBean runStatsData = invokeEndpoint(url, "GET", null, runStatsReader); // Entity must be null for http method GET.
 	    	return runStatsData; 
 		}
 		
@@ -87,12 +102,12 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		 * @see TradeBuildDB#TradeBuildDB((java.io.PrintWriter, String)
 		 *
 		 */
-		public boolean tradeBuildDB(int limit, int offset) throws Exception 
+		public boolean tradeBuildDB(int limit, int offset, Long seed, int maxQuotes) throws Exception 
 		{
-	    	String url = gatewayServiceRoute + "/admin/tradeBuildDB?limit=" + limit + "&offset=" + offset;
+	    	String url = gatewayServiceRoute + "/admin/tradeBuildDB?limit=" + limit + "&offset=" + offset
+	    			+ (seed == null ? "" : "&seed=" + seed) + "&maxQuotes=" + maxQuotes;
 			Log.debug("GatewayRemoteCallService.tradeBuildDB() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "POST", "");
-	    	Boolean success = mapper.readValue(responseEntity,Boolean.class);
+	    	Boolean success = invokeEndpoint(url, "POST", "", booleanReader);
 	    	return success;
 		}
 		
@@ -102,12 +117,12 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		 * @see TradeBuildDB#TradeBuildDB((java.io.PrintWriter, String)
 		 *
 		 */
-		public boolean quotesBuildDB(int limit, int offset) throws Exception 
+		public boolean quotesBuildDB(int limit, int offset, Long seed) throws Exception 
 		{
-	    	String url = gatewayServiceRoute + "/admin/quotesBuildDB?limit=" + limit + "&offset=" + offset;
+	    	String url = gatewayServiceRoute + "/admin/quotesBuildDB?limit=" + limit + "&offset=" + offset
+	    			+ (seed == null ? "" : "&seed=" + seed);
 			Log.debug("GatewayRemoteCallService.quotesBuildDB() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "POST", "");
-	    	Boolean success = mapper.readValue(responseEntity,Boolean.class);
+	    	Boolean success = invokeEndpoint(url, "POST", "", booleanReader);
 	    	return success;
 		}
 
@@ -120,8 +135,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		{
 	    	String url = gatewayServiceRoute + "/admin/recreateDBTables";
 			Log.debug("GatewayRemoteCallService.recreateDBTables() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "POST", "");
-	    	Boolean success = mapper.readValue(responseEntity,Boolean.class);
+	    	Boolean success = invokeEndpoint(url, "POST", "", booleanReader);
 	    	return success;
 		}
 		
@@ -134,8 +148,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    {
 	    	String url = gatewayServiceRoute + "/accounts/" + userID;
 			Log.debug("GatewayRemoteCallService.getAccountData() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	    	AccountDataBean accountData = mapper.readValue(responseEntity,AccountDataBean.class);
+	    	AccountDataBean accountData = invokeEndpoint(url, "GET", null, accountReader); // Entity must be null for http method GET.
 	    	return accountData;
 	    }
 
@@ -148,8 +161,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 		{
 	    	String url = gatewayServiceRoute + "/accounts/" + userID + "/profiles";
 			Log.debug("GatewayRemoteCallService.getAccountProfileData() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	    	AccountProfileDataBean profileData = mapper.readValue(responseEntity,AccountProfileDataBean.class);
+	    	AccountProfileDataBean profileData = invokeEndpoint(url, "GET", null, profileReader); // Entity must be null for http method GET.
 	    	return profileData;     	
 		}
 
@@ -163,8 +175,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			String url = gatewayServiceRoute + "/accounts/" + profileData.getUserID() + "/profiles";
 			Log.debug("GatewayRemoteCallService#updateAccountProfile() - " + url);
 			String profileDataInString = mapper.writeValueAsString(profileData);
-		   	String responseEntity = invokeEndpoint(url, "PUT", profileDataInString);
-	        profileData = mapper.readValue(responseEntity, AccountProfileDataBean.class);
+		   	profileData = invokeEndpoint(url, "PUT", profileDataInString, profileReader);
 	        return profileData;
 	    }
 
@@ -177,8 +188,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    {    
 	    	String url = gatewayServiceRoute + "/login/" + userID;
 			Log.debug("GatewayRemoteCallService.login() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "PATCH", password);
-	    	AccountDataBean accountData = mapper.readValue(responseEntity,AccountDataBean.class);	    
+	    	AccountDataBean accountData = invokeEndpoint(url, "PATCH", password, accountReader);
 	    	return accountData;
 	    }
 
@@ -191,8 +201,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    {
 	    	String url = gatewayServiceRoute + "/logout/" + userID;
 			Log.debug("GatewayRemoteCallService.logout() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "PATCH", "");
-	    	mapper.readValue(responseEntity,Boolean.class);
+	    	invokeEndpoint(url, "PATCH", "", booleanReader);
 	    }
 		
 	   /**
@@ -219,8 +228,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			accountData.getProfile().setCreditCard(creditCard);
 			
 	    	String accountDataInString = mapper.writeValueAsString(accountData);
-	    	String responseEntity = invokeEndpoint(url, "POST", accountDataInString);
-	    	accountData = mapper.readValue(responseEntity,AccountDataBean.class);
+	    	accountData = invokeEndpoint(url, "POST", accountDataInString, accountReader);
 	    	return accountData;
 	    }
 	
@@ -241,8 +249,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    	String orderDataInString = mapper.writeValueAsString(orderData);
 	    	String url = gatewayServiceRoute + "/portfolios/" + userID + "/orders?mode=" + orderProcessingMode;
 			Log.debug("GatewayRemoteCallService.buy() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "POST", orderDataInString);
-	    	orderData = mapper.readValue(responseEntity,OrderDataBean.class);
+	    	orderData = invokeEndpoint(url, "POST", orderDataInString, orderReader);
 	    	return orderData;
 	    }
 
@@ -262,8 +269,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    	String orderDataInString = mapper.writeValueAsString(orderData);
 	    	String url = gatewayServiceRoute + "/portfolios/" + userID + "/orders?mode=" + orderProcessingMode;
 			Log.debug("GatewayRemoteCallService.sell() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "POST", orderDataInString);
-	    	orderData = mapper.readValue(responseEntity,OrderDataBean.class);
+	    	orderData = invokeEndpoint(url, "POST", orderDataInString, orderReader);
 	    	return orderData;
 	    }
 	      
@@ -277,8 +283,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			// Returns the orders for the given user
 	    	String url = gatewayServiceRoute + "/portfolios/" + userID + "/orders";
 			Log.debug("GatewayRemoteCallService.getOrders() - " + url);
-		   	String responseString = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-		   	Collection<OrderDataBean> orderCollection = mapper.readValue(responseString,new TypeReference<ArrayList<OrderDataBean>>(){ });
+		   	Collection<OrderDataBean> orderCollection = invokeEndpoint(url, "GET", null, ordersReader); // Entity must be null for http method GET.
 	        return orderCollection;
 	    }
 
@@ -299,8 +304,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			// REST call transitions closed orders to completed state and returns them.
 	    	String url = gatewayServiceRoute + "/portfolios/" + userID + "/orders?status=closed";
 			Log.debug("GatewayRemoteCallService.getClosedOrders() - " + url);
-		   	String responseString = invokeEndpoint(url, "PATCH", ""); // must pass a request body to the patch method 
-		   	Collection<OrderDataBean> orderCollection = mapper.readValue(responseString,new TypeReference<ArrayList<OrderDataBean>>(){ });
+		   	Collection<OrderDataBean> orderCollection = invokeEndpoint(url, "PATCH", "", ordersReader); // must pass a request body to the patch method 
 	        return orderCollection;
 	    }
 
@@ -314,8 +318,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			// Returns the holdings for the give user
 	    	String url = gatewayServiceRoute + "/portfolios/" + userID + "/holdings";
 			Log.debug("GatewayRemoteCallService.getHoldings() - " + url);
-		   	String responseString = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-		   	Collection<HoldingDataBean> holdings = mapper.readValue(responseString,new TypeReference<ArrayList<HoldingDataBean>>(){ });
+		   	Collection<HoldingDataBean> holdings = invokeEndpoint(url, "GET", null, holdingsReader); // Entity must be null for http method GET.
 			return holdings;
 	    }    
         
@@ -332,8 +335,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    	String exchange = "TSIA"; /* Trade Stock Index Average */
 	    	String url = gatewayServiceRoute + "/markets/" + exchange;   
 			Log.debug("GatewayRemoteCallService.getMarketSummary() - " + url);
-		   	String responseString = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	        MarketSummaryDataBean marketSummaryData = mapper.readValue(responseString,MarketSummaryDataBean.class);
+		   	MarketSummaryDataBean marketSummaryData = invokeEndpoint(url, "GET", null, marketSummaryReader); // Entity must be null for http method GET.
 	        return marketSummaryData;
 	    }
 	    
@@ -354,8 +356,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 			quoteData.setPrice(price);
 		
 	    	String quoteDataInString = mapper.writeValueAsString(quoteData);
-	    	String responseEntity = invokeEndpoint(url, "POST", quoteDataInString);
-	    	quoteData = mapper.readValue(responseEntity,QuoteDataBean.class);
+	    	quoteData = invokeEndpoint(url, "POST", quoteDataInString, quoteReader);
 	    	return quoteData;
 	    }
 
@@ -368,11 +369,33 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    {
 	    	String url = gatewayServiceRoute + "/quotes/" + symbol;  
 			Log.debug("GatewayRemoteCallService.getQuote() - " + url);
-		   	String responseString = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	        QuoteDataBean quoteData = mapper.readValue(responseString,QuoteDataBean.class);
+		   	QuoteDataBean quoteData = invokeEndpoint(url, "GET", null, quoteReader); // Entity must be null for http method GET.
 	        return quoteData;
 	    }
 
+		/**
+		 * 
+		 * @see TradeServices#getQuotes(Collection)
+		 *
+		 */
+	    public Collection<QuoteDataBean> getQuotes(Collection<String> symbols) throws Exception 
+	    {
+	    	if (symbols.isEmpty())
+	    		return new ArrayList<QuoteDataBean>();
+
+	    	StringBuilder symbolList = new StringBuilder();
+	    	for (String symbol : new LinkedHashSet<String>(symbols)) {
+	    		if (symbolList.length() > 0)
+	    			symbolList.append(',');
+	    		symbolList.append(symbol);
+	    	}
+
+	    	String url = gatewayServiceRoute + "/quotes?symbols=" + URLEncoder.encode(symbolList.toString(), "UTF-8");
+			Log.debug("GatewayRemoteCallService.getQuotes() - " + url);
+		   	Collection<QuoteDataBean> quoteCollection = invokeEndpoint(url, "GET", null, quotesReader); // Entity must be null for http method GET.
+	        return quoteCollection;
+	    }
+
 		/**
 		 * 
 		 * @see TradeServices#getAllQuotes(String)
@@ -390,8 +413,7 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    	
 	    	String url = gatewayServiceRoute + "/quotes?limit=" + limit + "&offset=" + offset;
 			Log.debug("GatewayRemoteCallService.getAllQuotes() - " + url);
-		   	String responseString = invokeEndpoint(url, "GET", null); // Entity must be null for http method GET.
-	        Collection<QuoteDataBean> quoteCollection = mapper.readValue(responseString,new TypeReference<Collection<QuoteDataBean>>(){ });
+		   	Collection<QuoteDataBean> quoteCollection = invokeEndpoint(url, "GET", null, quotesReader); // Entity must be null for http method GET.
 	        return quoteCollection;
 	    }
 
@@ -404,11 +426,23 @@ public class GatewayRemoteCallService extends BaseRemoteCallService
 	    {
 	    	String url = gatewayServiceRoute + "/quotes/" + symbol + "?price=" + price + "&volume=" + volume;
 			Log.debug("GatewayRemoteCallService.updateQuotePriceValume() - " + url);
-	    	String responseEntity = invokeEndpoint(url, "PATCH", "");
-	    	QuoteDataBean quoteData = mapper.readValue(responseEntity,QuoteDataBean.class);
+	    	QuoteDataBean quoteData = invokeEndpoint(url, "PATCH", "", quoteReader);
 	    	return quoteData;
 	    }
 
+		/**
+		 * Sends a batch of quote price and volume updates in one call. The quotes
+		 * returned are discarded unread; the caller does not wait for them.
+		 *
+		 */
+	    public void updateQuotePriceVolumes(Collection<QuoteUpdateDataBean> updates) throws Exception 
+	    {
+	    	String url = gatewayServiceRoute + "/quotes";
+			Log.debug("GatewayRemoteCallService.updateQuotePriceVolumes() - " + url + " (" + updates.size() + " updates)");
+	    	String updatesInString = mapper.writeValueAsString(updates);
+	    	invokeEndpointDiscardingResponse(url, "PATCH", updatesInString);
+	    }
+
 		/**
 		 * 
 		 * @see TradeServices#updateQuotePriceVolumeInt(String,BigDecimal,double,boolean)
@@ -0,0 +1,160 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.web.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.geronimo.daytrader.javaee6.core.beans.QuoteUpdateDataBean;
+import org.apache.geronimo.daytrader.javaee6.web.utils.Log;
+
+/**
+ * Sends the quote price and volume update that follows each buy and sell off
+ * the user's request path.
+ *
+ * Updates are put on a bounded queue and sent by a single sender thread, which
+ * takes whatever has accumulated, up to batch-size updates, and sends it with
+ * one bulk PATCH /quotes call. Under load the updates of many orders share one
+ * round trip; when idle an update is sent as soon as it is queued.
+ *
+ * When the queue is full the update is dropped and counted rather than making
+ * the order wait; a batch that fails is logged and counted, as a failed
+ * synchronous update always was. Either way the quote simply misses that one
+ * random price change.
+ *
+ * Configured with system properties:
+ * daytrader.web.quote-updates.async (default true; false sends each update
+ * synchronously, as before), daytrader.web.quote-updates.queue-capacity
+ * (default 10000) and daytrader.web.quote-updates.batch-size (default 100).
+ */
+public class QuoteUpdateSender implements Runnable {
+
+    private static final boolean ASYNC = Boolean
+            .parseBoolean(System.getProperty("daytrader.web.quote-updates.async", "true"));
+    private static final int QUEUE_CAPACITY = Integer.getInteger("daytrader.web.quote-updates.queue-capacity", 10000);
+    private static final int BATCH_SIZE = Integer.getInteger("daytrader.web.quote-updates.batch-size", 100);
+
+    private final GatewayRemoteCallService gateway;
+    private final BlockingQueue<QuoteUpdateDataBean> queue = new ArrayBlockingQueue<QuoteUpdateDataBean>(QUEUE_CAPACITY);
+    private Thread sender;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public QuoteUpdateSender(GatewayRemoteCallService gateway) {
+        this.gateway = gateway;
+    }
+
+    public boolean isEnabled() {
+        return ASYNC;
+    }
+
+    public synchronized void start() {
+        if (!ASYNC || sender != null)
+            return;
+
+        sender = new Thread(this, "QuoteUpdateSender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Stops the sender once the updates already queued have been sent.
+     */
+    public synchronized void stop() {
+        if (sender == null)
+            return;
+
+        sender.interrupt();
+        try {
+            sender.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender = null;
+    }
+
+    /**
+     * Queues an update of the quote's price and volume, or drops it if the queue
+     * is full. Never blocks.
+     */
+    public void queue(String symbol, BigDecimal changeFactor, double sharesTraded) {
+        if (queue.offer(new QuoteUpdateDataBean(symbol, changeFactor, sharesTraded)))
+            queued.incrementAndGet();
+        else
+            dropped.incrementAndGet();
+    }
+
+    public void run() {
+        List<QuoteUpdateDataBean> batch = new ArrayList<QuoteUpdateDataBean>(BATCH_SIZE);
+        boolean stopping = false;
+
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                if (!stopping)
+                    batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // drain what is left, then stop
+                stopping = true;
+            }
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+            if (!batch.isEmpty())
+                send(batch);
+            batch.clear();
+        }
+    }
+
+    private void send(List<QuoteUpdateDataBean> batch) {
+        batches.incrementAndGet();
+        try {
+            gateway.updateQuotePriceVolumes(batch);
+            sent.addAndGet(batch.size());
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            Log.error("QuoteUpdateSender.send() - " + batch.size() + " quote updates lost", e);
+        }
+    }
+
+    /**
+     * Returns the number of updates queued, sent, dropped because the queue was
+     * full and lost to failed calls, the number of calls made, and the backlog
+     * still waiting to be sent.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", ASYNC);
+        stats.put("queueCapacity", QUEUE_CAPACITY);
+        stats.put("batchSize", BATCH_SIZE);
+        stats.put("backlog", queue.size());
+        stats.put("queued", queued.get());
+        stats.put("sent", sent.get());
+        stats.put("batches", batches.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
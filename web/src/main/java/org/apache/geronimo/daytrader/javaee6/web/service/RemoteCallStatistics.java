@@ -0,0 +1,130 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.geronimo.daytrader.javaee6.web.service;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the latency of the remote calls made to each gateway route, e.g.
+ * "GET /portfolios/{id}/holdings", as a histogram with fixed buckets, so a
+ * slow route shows up without a profiler.
+ *
+ * The latency of a call runs from sending the request, including any wait for
+ * a pooled connection, until the whole response has been read.
+ */
+public class RemoteCallStatistics {
+
+    private static final long[] BUCKET_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && millis > BUCKET_MILLIS[bucket])
+                bucket++;
+            buckets.incrementAndGet(bucket);
+
+            count.incrementAndGet();
+            if (failed)
+                errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    public void record(String route, long nanos, boolean failed) {
+        Histogram histogram = histograms.get(route);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(route, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        histogram.record(nanos, failed);
+    }
+
+    /**
+     * Returns the route a call belongs to: the method and the path of the url,
+     * with the user id, symbol or exchange that follows the resource name (the
+     * second segment, except under /admin) replaced by {id}.
+     */
+    public static String routeOf(String method, String url) {
+        String path;
+        try {
+            path = URI.create(url).getRawPath();
+        } catch (IllegalArgumentException e) {
+            path = null;
+        }
+        if (path == null)
+            return method + " ?";
+
+        String[] segments = path.split("/");
+        StringBuilder route = new StringBuilder(method).append(' ');
+        for (int i = 1; i < segments.length; i++) {
+            route.append('/');
+            route.append((i == 2 && !"admin".equals(segments[1])) ? "{id}" : segments[i]);
+        }
+        return route.toString();
+    }
+
+    /**
+     * Returns, for each route, the number of calls and of failed calls, the
+     * average and maximum latency in milliseconds, and the number of calls whose
+     * latency fell in each bucket.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.count.get();
+
+            Map<String, Object> buckets = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < BUCKET_MILLIS.length; i++)
+                buckets.put("<=" + BUCKET_MILLIS[i], histogram.buckets.get(i));
+            buckets.put(">" + BUCKET_MILLIS[BUCKET_MILLIS.length - 1], histogram.buckets.get(BUCKET_MILLIS.length));
+
+            Map<String, Object> route = new LinkedHashMap<String, Object>();
+            route.put("count", count);
+            route.put("errors", histogram.errors.get());
+            route.put("avgMillis", (count == 0) ? 0.0 : histogram.totalNanos.get() / 1.0e6 / count);
+            route.put("maxMillis", histogram.maxNanos.get() / 1.0e6);
+            route.put("latencyMillis", buckets);
+            stats.put(entry.getKey(), route);
+        }
+        return stats;
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+}
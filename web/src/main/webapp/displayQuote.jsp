@@ -22,7 +22,11 @@
     TradeServices tAction=null;
     tAction = new TradeAction();
     try { 
-        QuoteDataBean quoteData = tAction.getQuote(symbol);
+        // - Quotes prefetched in bulk by TradeServletAction.doQuotes()
+        java.util.Map quoteMap = (java.util.Map) request.getAttribute("quoteMap");
+        QuoteDataBean quoteData = (quoteMap != null) ? (QuoteDataBean) quoteMap.get(symbol) : null;
+        if (quoteData == null)
+            quoteData = tAction.getQuote(symbol);
 
  %>
 <TR align="center" bgcolor="#fafcb6">